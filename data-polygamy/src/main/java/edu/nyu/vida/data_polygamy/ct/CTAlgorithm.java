@@ -60,7 +60,7 @@ public class CTAlgorithm implements Serializable {
 		nodes.clear();
 		for(int i = 0;i < sv.length;i ++) {
 			int v = sv[i];
-			MyIntList star = data.getStar(v);
+			data.getStar(v, star);
 			int ct = 0;
 			for(int x = 0;x < star.length; x++) {
 				int tin = star.array[x];
@@ -88,7 +88,7 @@ public class CTAlgorithm implements Serializable {
 			int v = sv[i];
 			criticalPts[v] = SADDLE;
 			
-			MyIntList star = data.getStar(v);
+			data.getStar(v, star);
 			int ct = 0;
 			for(int x = 0;x < star.length; x++) {
 				int tin = star.array[x];
@@ -185,12 +185,13 @@ public class CTAlgorithm implements Serializable {
 	}
 	
 	HashSet<Integer> set = new HashSet<Integer>();
+	MyIntList star = new MyIntList();
 	
 	void processVertex(int v) {
 		if(v == 24) {
 			v *= 1;
 		}
-		MyIntList star = data.getStar(v);
+		data.getStar(v, star);
 		set.clear();
 		for(int x = 0;x < star.length; x++) {
 			int tin = star.array[x];
@@ -232,7 +233,7 @@ public class CTAlgorithm implements Serializable {
 		if(v == 24) {
 			v *= 1;
 		}
-		MyIntList star = data.getStar(v);
+		data.getStar(v, star);
 		set.clear();
 		for(int x = 0;x < star.length; x++) {
 			int tin = star.array[x];
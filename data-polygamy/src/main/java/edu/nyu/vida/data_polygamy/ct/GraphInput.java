@@ -7,7 +7,8 @@ public interface GraphInput {
 
 	int getMaxDegree();
 	int getVertexCount();
-	MyIntList getStar(int v);
+	/** Fills star (cleared first) with the neighbors of v. */
+	void getStar(int v, MyIntList star);
 	float[] getFnVertices();
 	boolean isIgnored(int v);
 	int getTime(int tid);
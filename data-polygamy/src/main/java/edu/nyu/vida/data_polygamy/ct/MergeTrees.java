@@ -454,9 +454,10 @@ public class MergeTrees implements Serializable {
 	}
 	
 	HashSet<Integer> set = new HashSet<Integer>();
+	MyIntList star = new MyIntList();
 	
 	void processVertex(int v) {
-		MyIntList star = data.getStar(v);
+		data.getStar(v, star);
 		if(star.length == 0) {
 			return;
 		}
@@ -519,7 +520,7 @@ public class MergeTrees implements Serializable {
 	
 	
 	void processVertexJ(int v) {
-		MyIntList star = data.getStar(v);
+		data.getStar(v, star);
 		if(star.length == 0) {
 			return;
 		}
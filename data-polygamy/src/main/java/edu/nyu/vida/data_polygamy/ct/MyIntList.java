@@ -25,7 +25,7 @@ public class MyIntList implements Serializable {
 			array = new int[10];
 		}
 		if(length == array.length) {
-			array = Arrays.copyOf(array, (int) (length * 1.5));
+			array = Arrays.copyOf(array, Math.max(length + 1, (int) (length * 1.5)));
 		}
 		array[length ++] = n;
 	}
@@ -38,8 +38,9 @@ public class MyIntList implements Serializable {
 		return array[i];
 	}
 
+	// keeps the array, so that lists filled over and over (e.g., stars)
+	//   are not reallocated
 	public void clear() {
-		array = null;
 		length = 0;
 	}
 
@@ -0,0 +1,144 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.ctdata;
+
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import edu.nyu.vida.data_polygamy.ct.GraphInput;
+import edu.nyu.vida.data_polygamy.ct.MyIntList;
+import edu.nyu.vida.data_polygamy.ct.SimplifyFeatures.Feature;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+
+/**
+ * Vertices of a function (temporal bin) in the order in which they become
+ *   events of a join (min) or split tree as the event threshold grows
+ *   (min) or decreases (max).
+ *
+ * For the join tree, the flood fill of TopologicalIndex.getEvents marks a
+ *   vertex for a threshold th iff some feature with persistence point
+ *   <= th reaches it through vertices with values <= th. The key of a
+ *   vertex is the smallest such threshold, i.e., the minimax path value
+ *   from the features (the split tree is symmetric), so the events of any
+ *   threshold are a prefix of the vertices sorted by key, found with a
+ *   binary search. Vertices that are never events are not kept.
+ */
+public class EventOrder {
+
+    boolean min;
+
+    // vertices sorted by key (ascending for min, descending for max)
+    int[] vertices;
+    float[] keys;
+
+    // event index of each time index of the function
+    int[] timeIndex;
+
+    EventOrder(boolean min, int[] vertices, float[] keys, int[] timeIndex) {
+        this.min = min;
+        this.vertices = vertices;
+        this.keys = keys;
+        this.timeIndex = timeIndex;
+    }
+
+    /**
+     * Minimax paths from the features over the stars of the function
+     *   (the same stars followed by the flood fill).
+     */
+    public static EventOrder build(GraphInput tf, Feature[] features, boolean min, int[] timeIndex) {
+
+        float[] fnVertices = tf.getFnVertices();
+        int vertexCount = tf.getVertexCount();
+        float sign = min ? 1 : -1;
+
+        // keys are computed on sign*value, so both trees grow upwards
+        float[] key = new float[vertexCount];
+        Arrays.fill(key, Float.POSITIVE_INFINITY);
+        LongHeapPriorityQueue queue = new LongHeapPriorityQueue();
+        for (Feature f : features) {
+            float pt = f.exFn;
+            if (min && (f.sadFn < f.exFn))
+                pt = f.sadFn;
+            float k = Math.max(sign*pt, sign*fnVertices[f.v]);
+            if (k < key[f.v]) {
+                key[f.v] = k;
+                queue.enqueue(entry(k, f.v));
+            }
+        }
+
+        int[] vertices = new int[vertexCount];
+        int n = 0;
+        BitSet done = new BitSet(vertexCount);
+        MyIntList star = new MyIntList();
+        while (!queue.isEmpty()) {
+            int v = (int) queue.dequeueLong();
+            if (done.get(v))
+                continue;
+            done.set(v);
+            vertices[n++] = v;
+
+            tf.getStar(v, star);
+            for (int i = 0; i < star.length; i++) {
+                int w = star.array[i];
+                float k = Math.max(key[v], sign*fnVertices[w]);
+                if (k < key[w]) {
+                    key[w] = k;
+                    queue.enqueue(entry(k, w));
+                }
+            }
+        }
+
+        vertices = Arrays.copyOf(vertices, n);
+        float[] keys = new float[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = sign*key[vertices[i]];
+        return new EventOrder(min, vertices, keys, timeIndex);
+    }
+
+    // heap entry: key (as a sortable int) and vertex
+    private static long entry(float key, int v) {
+        int bits = Float.floatToIntBits(key);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (v & 0xffffffffL);
+    }
+
+    /**
+     * Number of vertices that are events for the given threshold.
+     */
+    public int count(double eventTh) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (min ? (keys[mid] <= eventTh) : (keys[mid] >= eventTh))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Same events as the flood fill of TopologicalIndex.getEvents.
+     */
+    public void getEvents(ArrayList<byte[]> events, int nv, double eventTh) {
+        byte event = min ? FrameworkUtils.negativeEvent : FrameworkUtils.positiveEvent;
+        byte opposite = min ? FrameworkUtils.positiveEvent : FrameworkUtils.negativeEvent;
+
+        int n = count(eventTh);
+        for (int i = 0; i < n; i++) {
+            int v = vertices[i];
+            byte[] spatialEvents = events.get(v % nv);
+            int index = timeIndex[v / nv];
+            if (spatialEvents[index] == opposite) {
+                spatialEvents[index] = FrameworkUtils.nonEvent;
+            } else {
+                spatialEvents[index] = event;
+            }
+        }
+    }
+}
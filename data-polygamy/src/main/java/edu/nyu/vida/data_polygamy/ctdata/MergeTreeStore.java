@@ -0,0 +1,623 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.ctdata;
+
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+
+import edu.nyu.vida.data_polygamy.ct.GraphInput;
+import edu.nyu.vida.data_polygamy.ct.MyIntList;
+import edu.nyu.vida.data_polygamy.ct.SimplifyFeatures;
+import edu.nyu.vida.data_polygamy.ct.SimplifyFeatures.Feature;
+import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+
+/**
+ * Binary store of the merge trees of an attribute (a topological index),
+ *   written by the feature identification step under 'mergetree' and
+ *   read back when the events are computed again with new thresholds.
+ *
+ * Layout (version 2, big-endian):
+ *   magic ("DPMT"), version, header length
+ *   header: empty, attribute, spatial and temporal resolutions, 2D,
+ *     number of regions, start and end times, regions of the attribute,
+ *     graph of the regions (2D only; offsets and adjacencies), and number
+ *     of temporal bins
+ *   sections of every temporal bin: the scalar function (2D: start time,
+ *     number of time steps, and values; 1D: values and times), the features
+ *     of its join and split trees (one array per field), the event index of
+ *     its time indices, and the event orders of both trees (see EventOrder)
+ *   table with the offset and size of the sections of every temporal bin,
+ *     followed by the offset of the table
+ *
+ * Version 1 had the table right after the header, and no event orders.
+ *
+ * Only the header is read when a store is opened; the sections of a
+ *   temporal bin are read when they are accessed, with memory-mapped reads
+ *   for local files and zero-copy reads (when available) for HDFS files.
+ *   Files written with Java serialization (index followed by attribute)
+ *   are still read.
+ */
+public class MergeTreeStore implements Closeable {
+
+    public static final int MAGIC = 0x44504d54;
+    public static final int VERSION = 2;
+
+    // bytes of a feature: v, br, wt, exFn, avgFn, sadFn, and type
+    private static final int FEATURE_BYTES = 6*4 + 1;
+
+    // first bytes of a Java serialization stream
+    private static final int STREAM_MAGIC = 0xaced;
+
+    private FSDataInputStream in;
+    private FileChannel channel = null;
+    private ElasticByteBufferPool pool = new ElasticByteBufferPool();
+
+    // buffers of the stream, which must be released after use
+    private Set<ByteBuffer> streamBuffers =
+            Collections.newSetFromMap(new IdentityHashMap<ByteBuffer,Boolean>());
+
+    private boolean is2D;
+    private int nv;
+    private int tempRes;
+    private int stTime;
+    private int enTime;
+
+    // graph of the regions (2D), shared by the functions of all temporal bins
+    private RegionGraph graph;
+
+    // sections of the temporal bins
+    private int[] tempBins;
+    private long[] functionOffset;
+    private int[] functionLength;
+    private long[][] featureOffset = new long[2][];
+    private int[][] featureCount = new int[2][];
+    private long[] timeIndexOffset = null;
+    private int[] timeIndexCount;
+    private long[][] orderOffset = new long[2][];
+    private int[][] orderCount = new int[2][];
+
+    // outer instance of the features
+    private SimplifyFeatures sim = new SimplifyFeatures();
+
+    private MergeTreeStore(FSDataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Writing
+     */
+
+    public static void write(TopologicalIndex index, Attribute att, OutputStream output) throws IOException {
+
+        int[] tempBins = index.empty ? new int[0] : index.getTemporalBins(att);
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeBoolean(index.empty);
+        header.writeInt(att.id);
+        header.writeInt(index.spatialRes);
+        header.writeInt(index.tempRes);
+        header.writeBoolean(index.is2D);
+        header.writeInt(index.nv);
+        header.writeInt(index.stTime);
+        header.writeInt(index.enTime);
+
+        header.writeInt(att.nodeSet.size());
+        for (int v : att.nodeSet)
+            header.writeInt(v);
+
+        if (index.is2D) {
+            // all the functions share the graph of the attribute
+            RegionGraph graph = (tempBins.length == 0) ? null :
+                ((TimeSeries2DFunction) index.getFunction(tempBins[0])).getGraph();
+            for (int i = 0; i <= index.nv; i++)
+                header.writeInt((graph == null) ? 0 : graph.offsets[i]);
+            if (graph != null)
+                writeInts(header, graph.adjacencies, graph.adjacencies.length);
+        }
+        header.writeInt(tempBins.length);
+        header.flush();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(headerBytes.size());
+        headerBytes.writeTo(out);
+
+        // sections, followed by the table of temporal bins
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        DataOutputStream table = new DataOutputStream(tableBytes);
+        long offset = 12 + headerBytes.size();
+        for (int i = 0; i < tempBins.length; i++) {
+            GraphInput tf = index.getFunction(tempBins[i]);
+            float[] fnVertices = tf.getFnVertices();
+            table.writeInt(tempBins[i]);
+            table.writeLong(offset);
+            if (index.is2D) {
+                TimeSeries2DFunction tf2D = (TimeSeries2DFunction) tf;
+                out.writeInt(tf2D.startTime);
+                out.writeInt(tf2D.nt);
+                writeFloats(out, fnVertices, fnVertices.length);
+                table.writeInt(8 + 4*fnVertices.length);
+                offset += 8 + 4*fnVertices.length;
+            } else {
+                out.writeInt(fnVertices.length);
+                writeFloats(out, fnVertices, fnVertices.length);
+                for (int j = 0; j < fnVertices.length; j++)
+                    out.writeInt(tf.getTime(j));
+                table.writeInt(4 + 8*fnVertices.length);
+                offset += 4 + 8*fnVertices.length;
+            }
+
+            for (boolean min : new boolean[] {true, false}) {
+                Feature[] f = index.getFeatures(min, tempBins[i]);
+                writeFeatures(out, f);
+                table.writeLong(offset);
+                table.writeInt(f.length);
+                offset += (long) f.length*FEATURE_BYTES;
+            }
+
+            EventOrder[] orders = {index.buildEventOrder(true, tempBins[i]),
+                    index.buildEventOrder(false, tempBins[i])};
+            int[] timeIndex = orders[0].timeIndex;
+            writeInts(out, timeIndex, timeIndex.length);
+            table.writeLong(offset);
+            table.writeInt(timeIndex.length);
+            offset += 4L*timeIndex.length;
+            for (EventOrder order : orders) {
+                writeInts(out, order.vertices, order.vertices.length);
+                writeFloats(out, order.keys, order.keys.length);
+                table.writeLong(offset);
+                table.writeInt(order.vertices.length);
+                offset += 8L*order.vertices.length;
+            }
+        }
+        table.flush();
+        tableBytes.writeTo(out);
+        out.writeLong(offset);
+        out.flush();
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            out.writeInt(values[i]);
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            out.writeFloat(values[i]);
+    }
+
+    private static void writeFeatures(DataOutputStream out, Feature[] f) throws IOException {
+        for (int i = 0; i < f.length; i++)
+            out.writeInt(f[i].v);
+        for (int i = 0; i < f.length; i++)
+            out.writeInt(f[i].br);
+        for (int i = 0; i < f.length; i++)
+            out.writeFloat(f[i].wt);
+        for (int i = 0; i < f.length; i++)
+            out.writeFloat(f[i].exFn);
+        for (int i = 0; i < f.length; i++)
+            out.writeFloat(f[i].avgFn);
+        for (int i = 0; i < f.length; i++)
+            out.writeFloat(f[i].sadFn);
+        for (int i = 0; i < f.length; i++)
+            out.writeByte(f[i].type);
+    }
+
+    /**
+     * Reading
+     */
+
+    /**
+     * Opens the merge trees of a file (see FrameworkUtils.openFile) and
+     *   restores the attribute (regions and threshold times, not the data).
+     *   The returned index must be closed after use.
+     */
+    public static TopologicalIndex read(String fileName, Configuration conf, boolean s3, Attribute att)
+            throws IOException {
+        Path path;
+        FileSystem fs;
+        if (s3) {
+            path = new Path(fileName);
+            fs = FileSystem.get(path.toUri(), conf);
+        } else {
+            fs = FileSystem.get(new Configuration());
+            path = new Path(fs.getHomeDirectory() + "/" + fileName);
+        }
+        if (!fs.exists(path)) {
+            System.out.println("Something went wrong... File does not exist: " + path.toString());
+            System.exit(1);
+        }
+        return read(fs, path, att);
+    }
+
+    public static TopologicalIndex read(FileSystem fs, Path path, Attribute att) throws IOException {
+
+        FSDataInputStream in = fs.open(path);
+        int magic = in.readInt();
+
+        if ((magic >>> 16) == STREAM_MAGIC) {
+            in.seek(0);
+            ObjectInputStream inputStream = new ObjectInputStream(in);
+            try {
+                TopologicalIndex index = (TopologicalIndex) inputStream.readObject();
+                Attribute savedAtt = (Attribute) inputStream.readObject();
+                att.copy(savedAtt);
+                return index;
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Cannot read merge tree: " + path.toString(), e);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        int version = in.readInt();
+        if ((magic != MAGIC) || (version < 1) || (version > VERSION)) {
+            in.close();
+            throw new IOException("Unknown merge tree format (version " + version + "): " + path.toString());
+        }
+
+        MergeTreeStore store = new MergeTreeStore(in);
+        if (fs instanceof LocalFileSystem) {
+            RandomAccessFile file = new RandomAccessFile(((LocalFileSystem) fs).pathToFile(path), "r");
+            store.channel = file.getChannel();
+        }
+
+        ByteBuffer header = store.section(12, in.readInt());
+        TopologicalIndex index = store.readHeader(header, att);
+        if (version == 1) {
+            // table right after the header, without event orders
+            store.readTable(header, att, false);
+        } else {
+            long length = fs.getFileStatus(path).getLen();
+            in.seek(length - 8);
+            long offset = in.readLong();
+            ByteBuffer table = store.section(offset, (int) (length - 8 - offset));
+            store.readTable(table, att, true);
+            store.release(table);
+        }
+        store.release(header);
+        if (index.empty)
+            store.close();
+        else
+            index.setStore(store);
+        return index;
+    }
+
+    private TopologicalIndex readHeader(ByteBuffer header, Attribute att) {
+
+        boolean empty = (header.get() != 0);
+        att.id = header.getInt();
+        int spatialRes = header.getInt();
+        tempRes = header.getInt();
+        is2D = (header.get() != 0);
+        nv = header.getInt();
+        stTime = header.getInt();
+        enTime = header.getInt();
+
+        int nbNodes = header.getInt();
+        for (int i = 0; i < nbNodes; i++)
+            att.nodeSet.add(header.getInt());
+
+        if (is2D) {
+            boolean[] ignore = new boolean[nv];
+            for (int v = 0; v < nv; v++)
+                ignore[v] = !att.nodeSet.contains(v);
+            int[] offsets = new int[nv + 1];
+            header.asIntBuffer().get(offsets);
+            header.position(header.position() + 4*offsets.length);
+            int[] adjacencies = new int[offsets[nv]];
+            header.asIntBuffer().get(adjacencies);
+            header.position(header.position() + 4*adjacencies.length);
+            graph = new RegionGraph(nv, ignore, offsets, adjacencies);
+        }
+
+        tempBins = new int[header.getInt()];
+        if (empty)
+            return new TopologicalIndex();
+
+        TopologicalIndex index = new TopologicalIndex(spatialRes, tempRes, nv);
+        index.attribute = att.id;
+        index.stTime = stTime;
+        index.enTime = enTime;
+        index.tempBins = tempBins;
+        return index;
+    }
+
+    private void readTable(ByteBuffer table, Attribute att, boolean orders) {
+        int nbBins = tempBins.length;
+        functionOffset = new long[nbBins];
+        functionLength = new int[nbBins];
+        for (int t = 0; t < 2; t++) {
+            featureOffset[t] = new long[nbBins];
+            featureCount[t] = new int[nbBins];
+        }
+        if (orders) {
+            timeIndexOffset = new long[nbBins];
+            timeIndexCount = new int[nbBins];
+            for (int t = 0; t < 2; t++) {
+                orderOffset[t] = new long[nbBins];
+                orderCount[t] = new int[nbBins];
+            }
+        }
+        for (int i = 0; i < nbBins; i++) {
+            tempBins[i] = table.getInt();
+            functionOffset[i] = table.getLong();
+            functionLength[i] = table.getInt();
+            for (int t = 0; t < 2; t++) {
+                featureOffset[t][i] = table.getLong();
+                featureCount[t][i] = table.getInt();
+            }
+            if (orders) {
+                timeIndexOffset[i] = table.getLong();
+                timeIndexCount[i] = table.getInt();
+                for (int t = 0; t < 2; t++) {
+                    orderOffset[t][i] = table.getLong();
+                    orderCount[t][i] = table.getInt();
+                }
+            }
+            att.thresholdStTime.put(tempBins[i], stTime);
+            att.thresholdEnTime.put(tempBins[i], enTime);
+        }
+    }
+
+    private int find(int tempBin) throws IOException {
+        for (int i = 0; i < tempBins.length; i++) {
+            if (tempBins[i] == tempBin)
+                return i;
+        }
+        throw new IOException("Temporal bin not found in merge tree store: " + tempBin);
+    }
+
+    /**
+     * Features of the join (min) or split tree of a temporal bin.
+     */
+    public Feature[] readFeatures(boolean min, int tempBin) throws IOException {
+        int i = find(tempBin);
+        int t = min ? 0 : 1;
+        int n = featureCount[t][i];
+        Feature[] f = new Feature[n];
+        if (n == 0)
+            return f;
+
+        ByteBuffer buffer = section(featureOffset[t][i], n*FEATURE_BYTES);
+        int start = buffer.position();
+        for (int j = 0; j < n; j++) {
+            f[j] = sim.new Feature();
+            f[j].v = buffer.getInt(start + 4*j);
+            f[j].br = buffer.getInt(start + 4*(n + j));
+            f[j].wt = buffer.getFloat(start + 4*(2*n + j));
+            f[j].exFn = buffer.getFloat(start + 4*(3*n + j));
+            f[j].avgFn = buffer.getFloat(start + 4*(4*n + j));
+            f[j].sadFn = buffer.getFloat(start + 4*(5*n + j));
+            f[j].type = buffer.get(start + 24*n + j);
+        }
+        release(buffer);
+        return f;
+    }
+
+    /**
+     * Event order of the join (min) or split tree of a temporal bin
+     *   (null for stores written without event orders).
+     */
+    public EventOrder readEventOrder(boolean min, int tempBin) throws IOException {
+        if (timeIndexOffset == null)
+            return null;
+        int i = find(tempBin);
+        int t = min ? 0 : 1;
+
+        int[] timeIndex = new int[timeIndexCount[i]];
+        if (timeIndex.length > 0) {
+            ByteBuffer buffer = section(timeIndexOffset[i], 4*timeIndex.length);
+            buffer.asIntBuffer().get(timeIndex);
+            release(buffer);
+        }
+
+        int n = orderCount[t][i];
+        int[] vertices = new int[n];
+        float[] keys = new float[n];
+        if (n > 0) {
+            ByteBuffer buffer = section(orderOffset[t][i], 8*n);
+            buffer.asIntBuffer().get(vertices);
+            buffer.position(buffer.position() + 4*n);
+            buffer.asFloatBuffer().get(keys);
+            release(buffer);
+        }
+        return new EventOrder(min, vertices, keys, timeIndex);
+    }
+
+    /**
+     * Scalar function of a temporal bin.
+     */
+    public GraphInput readFunction(int tempBin) throws IOException {
+        int i = find(tempBin);
+        ByteBuffer buffer = section(functionOffset[i], functionLength[i]);
+        GraphInput tf;
+        if (is2D) {
+            int startTime = buffer.getInt();
+            int nt = buffer.getInt();
+            float[] fnVertices = new float[nv*nt];
+            buffer.asFloatBuffer().get(fnVertices);
+            tf = new StoredFunction2D(this, fnVertices, nt, startTime);
+        } else {
+            int n = buffer.getInt();
+            float[] fnVertices = new float[n];
+            int[] time = new int[n];
+            buffer.asFloatBuffer().get(fnVertices);
+            buffer.position(buffer.position() + 4*n);
+            buffer.asIntBuffer().get(time);
+            tf = new StoredFunction(fnVertices, time);
+        }
+        release(buffer);
+        return tf;
+    }
+
+    /**
+     * Bytes [offset, offset + length) of the file: memory-mapped for local
+     *   files, and otherwise read with the enhanced byte buffer access of
+     *   the stream (zero-copy for short-circuit HDFS reads of cached blocks).
+     */
+    private ByteBuffer section(long offset, int length) throws IOException {
+        if (length == 0)
+            return ByteBuffer.allocate(0);
+        if (channel != null)
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+
+        in.seek(offset);
+        ByteBuffer buffer = in.read(pool, length, EnumSet.noneOf(ReadOption.class));
+        if ((buffer != null) && (buffer.remaining() == length)) {
+            streamBuffers.add(buffer);
+            return buffer;
+        }
+
+        // section across blocks
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        while (buffer != null) {
+            copy.put(buffer);
+            in.releaseBuffer(buffer);
+            buffer = copy.hasRemaining() ? in.read(pool, copy.remaining(), EnumSet.noneOf(ReadOption.class)) : null;
+        }
+        if (copy.hasRemaining())
+            throw new IOException("Truncated merge tree store");
+        copy.flip();
+        return copy;
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (streamBuffers.remove(buffer))
+            in.releaseBuffer(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+        in.close();
+    }
+
+    /**
+     * Functions
+     */
+
+    /**
+     * Function on the graph of the regions over time (see TimeSeries2DFunction).
+     */
+    static class StoredFunction2D implements GraphInput {
+
+        MergeTreeStore store;
+        float[] fnVertices;
+        int nv;
+        int nt;
+        int startTime;
+
+        StoredFunction2D(MergeTreeStore store, float[] fnVertices, int nt, int startTime) {
+            this.store = store;
+            this.fnVertices = fnVertices;
+            this.nv = store.nv;
+            this.nt = nt;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public int getMaxDegree() {
+            return store.graph.maxDegree;
+        }
+
+        @Override
+        public int getVertexCount() {
+            return fnVertices.length;
+        }
+
+        @Override
+        public void getStar(int v, MyIntList star) {
+            store.graph.getStar(v, nt, star);
+        }
+
+        @Override
+        public float[] getFnVertices() {
+            return fnVertices;
+        }
+
+        @Override
+        public boolean isIgnored(int v) {
+            return store.graph.ignore[v % nv];
+        }
+
+        @Override
+        public int getTime(int i) {
+            return FrameworkUtils.addTimeSteps(store.tempRes, i, startTime);
+        }
+    }
+
+    /**
+     * Time series (see TimeSeriesFunction).
+     */
+    static class StoredFunction implements GraphInput {
+
+        float[] fnVertices;
+        int[] time;
+
+        StoredFunction(float[] fnVertices, int[] time) {
+            this.fnVertices = fnVertices;
+            this.time = time;
+        }
+
+        @Override
+        public int getMaxDegree() {
+            return Math.min(fnVertices.length - 1, 2);
+        }
+
+        @Override
+        public int getVertexCount() {
+            return fnVertices.length;
+        }
+
+        @Override
+        public void getStar(int v, MyIntList star) {
+            star.clear();
+            if (v - 1 >= 0)
+                star.add(v - 1);
+            if (v + 1 < fnVertices.length)
+                star.add(v + 1);
+        }
+
+        @Override
+        public float[] getFnVertices() {
+            return fnVertices;
+        }
+
+        @Override
+        public boolean isIgnored(int v) {
+            return false;
+        }
+
+        @Override
+        public int getTime(int tid) {
+            return time[tid];
+        }
+    }
+}
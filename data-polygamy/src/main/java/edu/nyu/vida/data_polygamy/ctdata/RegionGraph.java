@@ -0,0 +1,169 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.ctdata;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.nyu.vida.data_polygamy.ct.MyIntList;
+import edu.nyu.vida.data_polygamy.ctdata.GraphFunctions.Edge;
+
+/**
+ * Graph of the regions of a spatial resolution, restricted to the regions
+ *   with data for an attribute (its node set) and connected through the
+ *   edges added by GraphFunctions.updateIgnoreSet.
+ *
+ * Adjacencies are stored in compressed sparse row layout: the neighbors of
+ *   region v are adjacencies[offsets[v]] ... adjacencies[offsets[v+1] - 1].
+ *
+ * The graph only depends on the edges of the resolution and on the node set,
+ *   so it is built once and shared by the functions of all the temporal bins,
+ *   as well as by the attributes with the same node set (see get).
+ */
+public class RegionGraph implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public int nv;
+    public boolean[] ignore;
+    public int[] offsets;
+    public int[] adjacencies;
+    public int maxDegree;
+
+    public RegionGraph(int nv, boolean[] ignore, int[] offsets, int[] adjacencies) {
+        this.nv = nv;
+        this.ignore = ignore;
+        this.offsets = offsets;
+        this.adjacencies = adjacencies;
+        maxDegree = -1;
+        for (int v = 0; v < nv; v++)
+            maxDegree = Math.max(maxDegree, offsets[v+1] - offsets[v]);
+    }
+
+    /**
+     * Graph from per-region adjacency sets (neighbors in iteration order).
+     */
+    public static RegionGraph fromNodes(IntOpenHashSet[] nodes, boolean[] ignore) {
+        int nv = nodes.length;
+        int[] offsets = new int[nv + 1];
+        for (int v = 0; v < nv; v++)
+            offsets[v+1] = offsets[v] + nodes[v].size();
+        int[] adjacencies = new int[offsets[nv]];
+        for (int v = 0; v < nv; v++) {
+            int i = offsets[v];
+            for (int w : nodes[v])
+                adjacencies[i++] = w;
+        }
+        return new RegionGraph(nv, ignore, offsets, adjacencies);
+    }
+
+    public static RegionGraph build(int[][] edges2D, int nv, IntOpenHashSet nodeSet) {
+        boolean[] ignore = new boolean[nv];
+        Arrays.fill(ignore, true);
+        for (int v : nodeSet)
+            ignore[v] = false;
+        GraphFunctions gf = new GraphFunctions(edges2D, nv);
+        ArrayList<Edge> edges = gf.updateIgnoreSet(nodeSet);
+
+        IntOpenHashSet[] nodes = new IntOpenHashSet[nv];
+        for (int i = 0; i < nv; i++)
+            nodes[i] = new IntOpenHashSet();
+        for (int i = 0; i < edges2D.length; i++) {
+            int v1 = edges2D[i][0];
+            int v2 = edges2D[i][1];
+            if (ignore[v1] || ignore[v2])
+                continue;
+            nodes[v1].add(v2);
+            nodes[v2].add(v1);
+        }
+        for (Edge e : edges) {
+            nodes[e.v1].add(e.v2);
+            nodes[e.v2].add(e.v1);
+        }
+        return fromNodes(nodes, ignore);
+    }
+
+    /**
+     * Cache of graphs
+     */
+
+    static final int CACHE_SIZE = 8;
+
+    static class Key {
+        int[][] edges2D;
+        int[] nodes;
+        int hash;
+
+        Key(int[][] edges2D, IntOpenHashSet nodeSet) {
+            this.edges2D = edges2D;
+            nodes = nodeSet.toIntArray();
+            Arrays.sort(nodes);
+            hash = 31*System.identityHashCode(edges2D) + Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Key k = (Key) obj;
+            return (edges2D == k.edges2D) && Arrays.equals(nodes, k.nodes);
+        }
+    }
+
+    // least recently used graphs
+    private static final LinkedHashMap<Key, RegionGraph> cache =
+            new LinkedHashMap<Key, RegionGraph>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, RegionGraph> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Graph of the given edges (of a spatial resolution) and node set,
+     *   shared by the callers with the same edges array and node set.
+     */
+    public static RegionGraph get(int[][] edges2D, int nv, IntOpenHashSet nodeSet) {
+        Key key = new Key(edges2D, nodeSet);
+        synchronized (cache) {
+            RegionGraph graph = cache.get(key);
+            if (graph == null) {
+                graph = build(edges2D, nv, nodeSet);
+                cache.put(key, graph);
+            }
+            return graph;
+        }
+    }
+
+    /**
+     * Star of vertex v = t*nv + region of the graph over nt time steps: the
+     *   region at the previous time step, its neighbors at the same time
+     *   step, and the region at the next time step.
+     */
+    public void getStar(int v, int nt, MyIntList star) {
+        int time = v / nv;
+        int vv = v - time*nv;
+        star.clear();
+
+        if (ignore[vv])
+            return;
+        if (time - 1 >= 0)
+            star.add(v - nv);
+        int base = nv * time;
+        for (int i = offsets[vv]; i < offsets[vv+1]; i++)
+            star.add(base + adjacencies[i]);
+        if (time + 1 < nt)
+            star.add(v + nv);
+    }
+}
@@ -0,0 +1,118 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.ctdata;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.floats.FloatArrays;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.Serializable;
+
+/**
+ * Values of a temporal bin of an attribute, stored column-wise: one
+ *   array per field (spatial id, time, value) instead of one
+ *   SpatioTemporalVal object per value.
+ */
+public class TemporalBinValues implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    int[] spatial;
+    int[] temporal;
+    float[] value;
+    int size = 0;
+
+    public TemporalBinValues() {
+        this(16);
+    }
+
+    public TemporalBinValues(int capacity) {
+        spatial = new int[capacity];
+        temporal = new int[capacity];
+        value = new float[capacity];
+    }
+
+    public void add(int spatial, int temporal, float value) {
+        if (size == this.temporal.length) {
+            this.spatial = IntArrays.grow(this.spatial, size + 1, size);
+            this.temporal = IntArrays.grow(this.temporal, size + 1, size);
+            this.value = FloatArrays.grow(this.value, size + 1, size);
+        }
+        this.spatial[size] = spatial;
+        this.temporal[size] = temporal;
+        this.value[size] = value;
+        size++;
+    }
+
+    public void addAll(TemporalBinValues vals) {
+        for (int i = 0; i < vals.size; i++)
+            add(vals.spatial[i], vals.temporal[i], vals.value[i]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getSpatial(int i) {
+        return spatial[i];
+    }
+
+    public int getTemporal(int i) {
+        return temporal[i];
+    }
+
+    public float getValue(int i) {
+        return value[i];
+    }
+
+    public void setValue(int i, float value) {
+        this.value[i] = value;
+    }
+
+    public int getStartTime() {
+        return temporal[0];
+    }
+
+    public int getEndTime() {
+        return temporal[size - 1];
+    }
+
+    public void trimToSize() {
+        spatial = IntArrays.trim(spatial, size);
+        temporal = IntArrays.trim(temporal, size);
+        value = FloatArrays.trim(value, size);
+    }
+
+    public boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (temporal[i] < temporal[i-1])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the values by time, in place; values with the same time keep
+     *   their order (as with Collections.sort on SpatioTemporalVal).
+     */
+    public void sort() {
+        if (isSorted())
+            return;
+        Arrays.mergeSort(0, size, new AbstractIntComparator() {
+            @Override
+            public int compare(int k1, int k2) {
+                return Integer.compare(temporal[k1], temporal[k2]);
+            }
+        }, new Swapper() {
+            @Override
+            public void swap(int a, int b) {
+                int s = spatial[a]; spatial[a] = spatial[b]; spatial[b] = s;
+                int t = temporal[a]; temporal[a] = temporal[b]; temporal[b] = t;
+                float v = value[a]; value[a] = value[b]; value[b] = v;
+            }
+        });
+    }
+}
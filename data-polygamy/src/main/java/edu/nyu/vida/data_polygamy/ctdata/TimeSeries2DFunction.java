@@ -6,18 +6,14 @@ package edu.nyu.vida.data_polygamy.ctdata;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 
 import edu.nyu.vida.data_polygamy.ct.GraphInput;
 import edu.nyu.vida.data_polygamy.ct.MyIntList;
-import edu.nyu.vida.data_polygamy.ctdata.GraphFunctions.Edge;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.Utilities;
 
@@ -27,90 +23,63 @@ public class TimeSeries2DFunction implements GraphInput, Serializable {
     
     public float [] fnVertices;
 	public int nv;
-	IntOpenHashSet [] nodes;
 	public boolean[] ignore;
 	public int nt;
+	RegionGraph graph;
+	
+	// adjacency sets of the serialized form of earlier versions
+	//   (replaced by the graph when such a function is read)
+	private IntOpenHashSet [] nodes;
 	
 	int startTime;
 	int tempRes;
-	DateTime start;
 	
-	public TimeSeries2DFunction(ArrayList<SpatioTemporalVal> data, IntOpenHashSet nodeSet,
+	public TimeSeries2DFunction(TemporalBinValues data, IntOpenHashSet nodeSet,
 	        int[][] edges2D, int nv, int tempRes, int stTime, int enTime) {
-	    this.nv = nv;
+	    this(data, RegionGraph.get(edges2D, nv, nodeSet), tempRes, stTime, enTime);
+	}
+	
+	public TimeSeries2DFunction(TemporalBinValues data, RegionGraph graph,
+	        int tempRes, int stTime, int enTime) {
+	    this.nv = graph.nv;
+	    this.graph = graph;
+	    this.ignore = graph.ignore;
 	    
-	    int timeSteps = FrameworkUtils.getTimeSteps(tempRes, stTime, enTime);
+	    nt = FrameworkUtils.getTimeSteps(tempRes, stTime, enTime);
 	    startTime = stTime;
 	    this.tempRes = tempRes;
-	    start = new DateTime(((long)stTime)*1000, DateTimeZone.UTC);
 	    
-		loadGraph(timeSteps, nodeSet, edges2D);
+	    fnVertices = new float[nv * nt];
 		loadFunction(data);
 	}
 	
-	public void loadFunction(ArrayList<SpatioTemporalVal> data) {
-		for (SpatioTemporalVal val : data) {
-			int time = val.getTemporal();
+	public void loadFunction(TemporalBinValues data) {
+		for (int i = 0; i < data.size(); i++) {
+			int time = data.getTemporal(i);
 			int j = FrameworkUtils.getTimeSteps(tempRes, startTime, time) - 1;
 			if(j < 0 || j >= nt) {
 				Utilities.er("Invalid time step. cannot happen");
 			}
-			int in = j * nv + val.getSpatial();
-			fnVertices[in] = val.getVal();
+			int in = j * nv + data.getSpatial(i);
+			fnVertices[in] = data.getValue(i);
 		}
 	}
-
 	
-	public void loadGraph(int timeSteps, IntOpenHashSet nodeSet,
-	        int[][] edges2D) {
-		try {
-			ignore = new boolean [nv];
-			Arrays.fill(ignore, true);
-			for(int v: nodeSet) {
-				ignore[v] = false;
-			}
-			GraphFunctions gf = new GraphFunctions(edges2D,nv);
-            ArrayList<Edge> edges = gf.updateIgnoreSet(nodeSet);
-			
-			nodes = new IntOpenHashSet[nv];
-			int nt = timeSteps;
-			this.nt = nt;
-			fnVertices = new float[nv * nt];
-			
-			for(int i = 0;i < nv;i ++) {
-				// Ignoring coordinates. not required
-				nodes[i] = new IntOpenHashSet();
-			}
-			for(int i = 0; i < edges2D.length; i++) {
-				int v1 = edges2D[i][0];
-				int v2 = edges2D[i][1];
-				if(ignore[v1] || ignore[v2]) {
-					continue;
-				}
-				nodes[v1].add(v2);
-				nodes[v2].add(v1);
-			}
-            for (Edge e : edges) {
-                nodes[e.v1].add(e.v2);
-                nodes[e.v2].add(e.v1);
-            }
-			init();
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	    in.defaultReadObject();
+	    if (nodes != null) {
+	        graph = RegionGraph.fromNodes(nodes, ignore);
+	        nodes = null;
+	    }
 	}
 	
-	int maxDegree;
-	private void init() {
-		maxDegree = -1;
-		for(int i = 0;i < nodes.length;i ++) {
-			maxDegree = Math.max(maxDegree, nodes[i].size());
-		}
+	public RegionGraph getGraph() {
+	    return graph;
 	}
 
 	@Override
 	public int getMaxDegree() {
-		return maxDegree;
+		return graph.maxDegree;
 	}
 
 	@Override
@@ -118,30 +87,9 @@ public class TimeSeries2DFunction implements GraphInput, Serializable {
 		return fnVertices.length;
 	}
 
-	MyIntList list = new MyIntList();
 	@Override
-	public MyIntList getStar(int v) {
-		int time = v / nv;
-		int vv = v % nv;
-		list.clear();
-		
-		if(ignore[vv]) {
-			return list;
-		}
-		if(time - 1 >= 0) {
-			int tv = v - nv;
-			list.add(tv);
-		}
-		for(Iterator<Integer> it = nodes[vv].iterator();it.hasNext();) {
-			int av = it.next();
-			int tv = nv * time + av;
-			list.add(tv);
-		}
-		if(time + 1 < nt) {
-			int tv = v + nv;
-			list.add(tv);
-		}
-		return list;
+	public void getStar(int v, MyIntList star) {
+		graph.getStar(v, nt, star);
 	}
 
 	@Override
@@ -169,7 +117,7 @@ public class TimeSeries2DFunction implements GraphInput, Serializable {
 
 	@Override
 	public int getTime(int i) {
-		return FrameworkUtils.addTimeSteps(tempRes, i, start);
+		return FrameworkUtils.addTimeSteps(tempRes, i, startTime);
 	}
 
 }
@@ -4,7 +4,6 @@
 package edu.nyu.vida.data_polygamy.ctdata;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -32,7 +31,7 @@ public class TimeSeriesFunction implements GraphInput, Serializable {
 	public float [] fnVertices;
 	public int [] time;
 	
-	public TimeSeriesFunction(ArrayList<SpatioTemporalVal> data) {
+	public TimeSeriesFunction(TemporalBinValues data) {
 		this.loadData(data);
 	}
 	
@@ -66,15 +65,15 @@ public class TimeSeriesFunction implements GraphInput, Serializable {
 
 	}
 	
-	public void loadData(ArrayList<SpatioTemporalVal> data) {
+	public void loadData(TemporalBinValues data) {
 		loadGraph(data.size());
 		readFunction(data);
 	}
 
-	public void readFunction(ArrayList<SpatioTemporalVal> data) {
+	public void readFunction(TemporalBinValues data) {
 		for (int i = 0; i < nv; i++) {
-			fnVertices[i] = data.get(i).getVal();
-			time[i] = data.get(i).getTemporal();
+			fnVertices[i] = data.getValue(i);
+			time[i] = data.getTemporal(i);
 		}
 	}
 
@@ -95,19 +94,17 @@ public class TimeSeriesFunction implements GraphInput, Serializable {
 		return fnVertices.length;
 	}
 
-	MyIntList list = new MyIntList();
 	@Override
-	public MyIntList getStar(int v) {
+	public void getStar(int v, MyIntList star) {
 		int time = v / nv;
 		int vv = v % nv;
-		list.clear();
+		star.clear();
 		
 		for(Iterator<Integer> it = nodes[vv].adjacencies.iterator();it.hasNext();) {
 			int av = it.next();
 			int tv = nv * time + av;
-			list.add(tv);
+			star.add(tv);
 		}
-		return list;
 	}
 
 	@Override
@@ -4,15 +4,23 @@
 package edu.nyu.vida.data_polygamy.ctdata;
 
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.math3.exception.ConvergenceException;
 import org.apache.commons.math3.ml.clustering.CentroidCluster;
@@ -41,17 +49,25 @@ public class TopologicalIndex implements Serializable {
     public static class Attribute implements Serializable {
         private static final long serialVersionUID = 1L;
         
+        // serialized form of the attribute in earlier versions (boxed values),
+        //   kept so that merge trees stored with Java serialization can still be read
+        private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", Integer.TYPE),
+            new ObjectStreamField("data", Int2ObjectOpenHashMap.class),
+            new ObjectStreamField("thresholdStTime", Int2ObjectOpenHashMap.class),
+            new ObjectStreamField("thresholdEnTime", Int2ObjectOpenHashMap.class),
+            new ObjectStreamField("minThreshold", Int2ObjectOpenHashMap.class),
+            new ObjectStreamField("maxThreshold", Int2ObjectOpenHashMap.class),
+            new ObjectStreamField("nodeSet", IntOpenHashSet.class)
+        };
+        
         public int id;
-        public Int2ObjectOpenHashMap<ArrayList<SpatioTemporalVal>> data =
-                new Int2ObjectOpenHashMap<ArrayList<SpatioTemporalVal>>();
-        public Int2ObjectOpenHashMap<Integer> thresholdStTime =
-                new Int2ObjectOpenHashMap<Integer>();
-        public Int2ObjectOpenHashMap<Integer> thresholdEnTime =
-                new Int2ObjectOpenHashMap<Integer>();
-        public Int2ObjectOpenHashMap<Float> minThreshold =
-                new Int2ObjectOpenHashMap<Float>();
-        public Int2ObjectOpenHashMap<Float> maxThreshold =
-                new Int2ObjectOpenHashMap<Float>();
+        public Int2ObjectOpenHashMap<TemporalBinValues> data =
+                new Int2ObjectOpenHashMap<TemporalBinValues>();
+        public Int2IntOpenHashMap thresholdStTime = new Int2IntOpenHashMap();
+        public Int2IntOpenHashMap thresholdEnTime = new Int2IntOpenHashMap();
+        public Int2FloatOpenHashMap minThreshold = new Int2FloatOpenHashMap();
+        public Int2FloatOpenHashMap maxThreshold = new Int2FloatOpenHashMap();
         public IntOpenHashSet nodeSet = new IntOpenHashSet();
         
         public void copy(Attribute att) {
@@ -59,6 +75,54 @@ public class TopologicalIndex implements Serializable {
             data.putAll(att.data);
             nodeSet.addAll(att.nodeSet);
         }
+        
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            Int2ObjectOpenHashMap<ArrayList<SpatioTemporalVal>> legacyData =
+                    new Int2ObjectOpenHashMap<ArrayList<SpatioTemporalVal>>();
+            for (int tempBin : data.keySet()) {
+                TemporalBinValues vals = data.get(tempBin);
+                ArrayList<SpatioTemporalVal> arr = new ArrayList<SpatioTemporalVal>(vals.size());
+                for (int i = 0; i < vals.size(); i++)
+                    arr.add(new SpatioTemporalVal(vals.getSpatial(i), vals.getTemporal(i), vals.getValue(i)));
+                legacyData.put(tempBin, arr);
+            }
+            ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("id", id);
+            fields.put("data", legacyData);
+            fields.put("thresholdStTime", new Int2ObjectOpenHashMap<Integer>(thresholdStTime));
+            fields.put("thresholdEnTime", new Int2ObjectOpenHashMap<Integer>(thresholdEnTime));
+            fields.put("minThreshold", new Int2ObjectOpenHashMap<Float>(minThreshold));
+            fields.put("maxThreshold", new Int2ObjectOpenHashMap<Float>(maxThreshold));
+            fields.put("nodeSet", nodeSet);
+            out.writeFields();
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            ObjectInputStream.GetField fields = in.readFields();
+            id = fields.get("id", 0);
+            data = new Int2ObjectOpenHashMap<TemporalBinValues>();
+            Int2ObjectOpenHashMap<ArrayList<SpatioTemporalVal>> legacyData =
+                    (Int2ObjectOpenHashMap<ArrayList<SpatioTemporalVal>>) fields.get("data", null);
+            if (legacyData != null) {
+                for (int tempBin : legacyData.keySet()) {
+                    ArrayList<SpatioTemporalVal> arr = legacyData.get(tempBin);
+                    TemporalBinValues vals = new TemporalBinValues(arr.size());
+                    for (SpatioTemporalVal val : arr)
+                        vals.add(val.getSpatial(), val.getTemporal(), val.getVal());
+                    data.put(tempBin, vals);
+                }
+            }
+            thresholdStTime = new Int2IntOpenHashMap(
+                    (Int2ObjectOpenHashMap<Integer>) fields.get("thresholdStTime", new Int2ObjectOpenHashMap<Integer>()));
+            thresholdEnTime = new Int2IntOpenHashMap(
+                    (Int2ObjectOpenHashMap<Integer>) fields.get("thresholdEnTime", new Int2ObjectOpenHashMap<Integer>()));
+            minThreshold = new Int2FloatOpenHashMap(
+                    (Int2ObjectOpenHashMap<Float>) fields.get("minThreshold", new Int2ObjectOpenHashMap<Float>()));
+            maxThreshold = new Int2FloatOpenHashMap(
+                    (Int2ObjectOpenHashMap<Float>) fields.get("maxThreshold", new Int2ObjectOpenHashMap<Float>()));
+            nodeSet = (IntOpenHashSet) fields.get("nodeSet", new IntOpenHashSet());
+        }
     }
 	
 	public static class Event implements Comparable<Event>, Serializable {
@@ -116,10 +180,16 @@ public class TopologicalIndex implements Serializable {
     public int enTime = 0;
     public int nv;
     
+    // temporal bins of the index (null for indices serialized before they were stored)
+    int[] tempBins = null;
+    
     Int2ObjectOpenHashMap<GraphInput> functions = new Int2ObjectOpenHashMap<GraphInput>();
     Int2ObjectOpenHashMap<Feature[]> minIndex = new Int2ObjectOpenHashMap<Feature[]>();
     Int2ObjectOpenHashMap<Feature[]> maxIndex = new Int2ObjectOpenHashMap<Feature[]>();
     
+    // merge trees read from a store are loaded when they are accessed
+    private transient MergeTreeStore store = null;
+    
     public TopologicalIndex() {}
 	
     public TopologicalIndex(int spatialRes, int tempRes, int nv) {
@@ -133,103 +203,258 @@ public class TopologicalIndex implements Serializable {
     }
     
     public Int2ObjectOpenHashMap<Feature[]> getIndex(boolean min) {
+        if (store != null) {
+            for (int tempBin : tempBins)
+                getFeatures(min, tempBin);
+        }
         if (min)
             return minIndex;
         else
             return maxIndex;
     }
+    
+    int[] getTemporalBins(Attribute att) {
+        return (tempBins != null) ? tempBins : att.data.keySet().toIntArray();
+    }
+    
+    Feature[] getFeatures(boolean min, int tempBin) {
+        Int2ObjectOpenHashMap<Feature[]> index = min ? minIndex : maxIndex;
+        Feature[] f = index.get(tempBin);
+        if ((f == null) && (store != null)) {
+            try {
+                f = store.readFeatures(min, tempBin);
+            } catch (IOException e) {
+                e.printStackTrace();
+                Utilities.er("Cannot read merge tree of attribute " + attribute);
+            }
+            index.put(tempBin, f);
+        }
+        return f;
+    }
+    
+    /**
+     * Functions of a store are not kept, so only the function of the
+     *   temporal bin being queried is in memory.
+     */
+    GraphInput getFunction(int tempBin) {
+        GraphInput tf = functions.get(tempBin);
+        if ((tf == null) && (store != null)) {
+            try {
+                tf = store.readFunction(tempBin);
+            } catch (IOException e) {
+                e.printStackTrace();
+                Utilities.er("Cannot read merge tree of attribute " + attribute);
+            }
+        }
+        return tf;
+    }
+    
+    /**
+     * Event order of a temporal bin, if the index was read from a store
+     *   with event orders (see MergeTreeStore); null otherwise.
+     */
+    EventOrder getEventOrder(boolean min, int tempBin) {
+        if (store == null)
+            return null;
+        try {
+            return store.readEventOrder(min, tempBin);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Utilities.er("Cannot read merge tree of attribute " + attribute);
+        }
+        return null;
+    }
+    
+    EventOrder buildEventOrder(boolean min, int tempBin) {
+        GraphInput tf = getFunction(tempBin);
+        int[] timeIndex = new int[(tf.getVertexCount() + nv - 1) / nv];
+        for (int tid = 0; tid < timeIndex.length; tid++)
+            timeIndex[tid] = FrameworkUtils.getTimeSteps(this.tempRes, this.stTime, tf.getTime(tid)) - 1;
+        return EventOrder.build(tf, getFeatures(min, tempBin), min, timeIndex);
+    }
+    
+    void setStore(MergeTreeStore store) {
+        this.store = store;
+    }
+    
+    public void close() throws IOException {
+        if (store != null)
+            store.close();
+        store = null;
+    }
 
     public int createIndex(Attribute att, int[][] edges2D) {
+        return createIndex(att, edges2D, null);
+    }
+    
+    /**
+     * Computes the join and split trees of every temporal bin of the attribute.
+     * 
+     * The functions of the temporal bins are built first (once per bin, and
+     *   then only read by both trees), followed by the merge trees of every
+     *   (tree type, temporal bin) pair. These computations are independent, so,
+     *   if a pool is given, they are run concurrently on it; otherwise, they are
+     *   run in the calling thread. The resulting index is the same in both cases.
+     */
+    public int createIndex(final Attribute att, final int[][] edges2D, ForkJoinPool pool) {
         this.attribute = att.id;
         //if (att.data.size() == 0) return 1;
-		for (int t = 0; t < types.length; t++) {
-			TreeType tree = types[t];
-			boolean min = true;
-			if (tree == TreeType.SplitTree) {
-				min = false;
-			}
-			try {
-				for (int tempBin : att.data.keySet()) {
-				    //System.out.println("Time: " + tempBin);
-				    ArrayList<SpatioTemporalVal> stArr = att.data.get(tempBin);
-					int actualVertices = stArr.size();
-					
-					//if (actualVertices == 0) continue;
-					
-					int localSt = stArr.get(0).getTemporal();
-					int localEnd = stArr.get(stArr.size() - 1).getTemporal();
-					stTime = Math.min(stTime, localSt);
-                    enTime = Math.max(enTime, localEnd);
+        final int[] tempBins = att.data.keySet().toIntArray();
+        this.tempBins = tempBins;
+        
+        for (int tempBin : tempBins) {
+            TemporalBinValues stArr = att.data.get(tempBin);
+            stTime = Math.min(stTime, stArr.getStartTime());
+            enTime = Math.max(enTime, stArr.getEndTime());
+        }
+        for (int tempBin : tempBins) {
+            att.thresholdStTime.put(tempBin, stTime);
+            att.thresholdEnTime.put(tempBin, enTime);
+        }
+        
+        try {
+            // functions (all on the same graph of the regions)
+            final RegionGraph graph = is2D ? RegionGraph.get(edges2D, nv, att.nodeSet) : null;
+            final GraphInput[] tfs = new GraphInput[tempBins.length];
+            ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for (int i = 0; i < tempBins.length; i++) {
+                tfs[i] = functions.get(tempBins[i]);
+                if (tfs[i] != null)
+                    continue;
+                final int bin = i;
+                tasks.add(new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
                     
-                    att.thresholdStTime.put(tempBin, new Integer(stTime));
-                    att.thresholdEnTime.put(tempBin, new Integer(enTime));
-					
-					GraphInput tf = functions.get(tempBin);
-					if (tf == null) {
-					    if (is2D) {
-	                        tf = new TimeSeries2DFunction(stArr, att.nodeSet, edges2D,
-	                                this.nv, this.tempRes, localSt, localEnd);
-					    }
-	                    else
-	                        tf = new TimeSeriesFunction(stArr);
-						functions.put(tempBin, tf);
-					}
-					
-					MergeTrees ct = new MergeTrees();
-					ct.computeTree(tf, tree);
-					ReebGraphData data = ct.output(tree);
+                    @Override
+                    protected void compute() {
+                        TemporalBinValues stArr = att.data.get(tempBins[bin]);
+                        if (is2D) {
+                            tfs[bin] = new TimeSeries2DFunction(stArr, graph, tempRes,
+                                    stArr.getStartTime(), stArr.getEndTime());
+                        } else {
+                            tfs[bin] = new TimeSeriesFunction(stArr);
+                        }
+                    }
+                });
+            }
+            run(tasks, pool);
+            for (int i = 0; i < tempBins.length; i++) {
+                if (!functions.containsKey(tempBins[i]))
+                    functions.put(tempBins[i], tfs[i]);
+            }
+            
+            // merge trees
+            final Feature[][][] features = new Feature[types.length][tempBins.length][];
+            tasks.clear();
+            for (int t = 0; t < types.length; t++) {
+                for (int i = 0; i < tempBins.length; i++) {
+                    final int type = t;
+                    final int bin = i;
+                    tasks.add(new RecursiveAction() {
+                        private static final long serialVersionUID = 1L;
+                        
+                        @Override
+                        protected void compute() {
+                            try {
+                                features[type][bin] = computeFeatures(tfs[bin], types[type],
+                                        att.data.get(tempBins[bin]).size());
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                }
+            }
+            run(tasks, pool);
+            
+            for (int t = 0; t < types.length; t++) {
+                for (int i = 0; i < tempBins.length; i++) {
+                    if (features[t][i] == null) {
+                        System.err.println("Empty Attribute: " + att.id);
+                        return 1;
+                    }
+                    //System.out.println("creating contour tree for " + tempBin);
+                    if (types[t] == TreeType.JoinTree) {
+                        minIndex.put(tempBins[i], features[t][i]);
+                    } else {
+                        maxIndex.put(tempBins[i], features[t][i]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+		
+        return 0;
+	}
+    
+    private static void run(ArrayList<RecursiveAction> tasks, ForkJoinPool pool) {
+        if (tasks.isEmpty())
+            return;
+        if (pool == null) {
+            for (RecursiveAction task : tasks)
+                task.invoke();
+            return;
+        }
+        final ArrayList<RecursiveAction> all = tasks;
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected void compute() {
+                invokeAll(all);
+            }
+        });
+    }
+    
+    /**
+     * Features of a single merge tree (null if the tree is empty).
+     */
+    private Feature[] computeFeatures(GraphInput tf, TreeType tree, int actualVertices)
+            throws IOException {
+        boolean min = (tree != TreeType.SplitTree);
+        
+		MergeTrees ct = new MergeTrees();
+		ct.computeTree(tf, tree);
+		ReebGraphData data = ct.output(tree);
 
-					if (data.noArcs == 0) {
-					    System.err.println("Empty Attribute: " + att.id);
-					    return 1;
-					}
-					
-					Function fn = new Persistence(data);
-					SimplifyFeatures sim = new SimplifyFeatures();
-					sim.simplify(data, null, fn, 0.01f);
+		if (data.noArcs == 0) {
+		    return null;
+		}
+		
+		Function fn = new Persistence(data);
+		SimplifyFeatures sim = new SimplifyFeatures();
+		sim.simplify(data, null, fn, 0.01f);
 
-					Feature[] f = sim.brFeatures;
-					if (min) {
-						if(f[0].sadFn != data.nodes[0].fn) {
-							Utilities.er("I have no idea what is happening!!!!! Version 3");
-						}
-						f[0].v = data.nodes[0].v;
-					} else {
-						if(is2D) {
-							actualVertices = tf.getFnVertices().length;
-						} else if(tf.getFnVertices().length != actualVertices) {
-							Utilities.er("Its time you quit!!");
-						}
-						
-						if(f[0].v == actualVertices) {
-							// new root added
-							int to = data.arcs[data.noArcs - 1].to;
-							int from = data.arcs[data.noArcs - 1].from;
-							if(data.nodes[from].v != actualVertices) {
-								Utilities.er("I have no idea what is happening!!!!!");
-							}
-							f[0].v = data.nodes[to].v;
-							if(data.nodes[to].fn != f[0].exFn) {
-								Utilities.er("I have no idea what is happening!!!!! Version 2");
-							}
-						}
-					}
-					//System.out.println("creating contour tree for " + tempBin);
-					if (min) {
-						minIndex.put(tempBin, f);
-					} else {
-						maxIndex.put(tempBin, f);
-					}
+		Feature[] f = sim.brFeatures;
+		if (min) {
+			if(f[0].sadFn != data.nodes[0].fn) {
+				Utilities.er("I have no idea what is happening!!!!! Version 3");
+			}
+			f[0].v = data.nodes[0].v;
+		} else {
+			if(is2D) {
+				actualVertices = tf.getFnVertices().length;
+			} else if(tf.getFnVertices().length != actualVertices) {
+				Utilities.er("Its time you quit!!");
+			}
+			
+			if(f[0].v == actualVertices) {
+				// new root added
+				int to = data.arcs[data.noArcs - 1].to;
+				int from = data.arcs[data.noArcs - 1].from;
+				if(data.nodes[from].v != actualVertices) {
+					Utilities.er("I have no idea what is happening!!!!!");
+				}
+				f[0].v = data.nodes[to].v;
+				if(data.nodes[to].fn != f[0].exFn) {
+					Utilities.er("I have no idea what is happening!!!!! Version 2");
 				}
-				
-			} catch (Exception e) {
-				e.printStackTrace();
-				return 1;
 			}
 		}
-		
-        return 0;
-	}
+		return f;
+    }
     
     public ArrayList<byte[]> queryEvents(float th, boolean outlier, Attribute att, String threshold) {
         return queryEvents(th, outlier, att, threshold, false);
@@ -255,11 +480,9 @@ public class TopologicalIndex implements Serializable {
 			if (tree == TreeType.SplitTree) {
 				min = false;
 			}
-			Int2ObjectOpenHashMap<Feature[]> index = getIndex(min);
-			
 			PersistencePoints perVals = new PersistencePoints();
-			for (int tempBin : att.data.keySet()) {
-				Feature []f = index.get(tempBin);
+			for (int tempBin : getTemporalBins(att)) {
+				Feature []f = getFeatures(min, tempBin);
 				
 				if (f.length == 0) continue;
 				
@@ -293,13 +516,13 @@ public class TopologicalIndex implements Serializable {
 						continue;
 					}
 					double eventTh = min?vals[vals.length - 1]:vals[0];
-					getEvents(results, functions.get(tempBin), index.get(tempBin), min, eventTh, print);
+					getEvents(results, tempBin, min, eventTh, print);
 					perVals = new PersistencePoints();
 					
 					if (min) {
-					    att.minThreshold.put(tempBin, new Float(eventTh));
+					    att.minThreshold.put(tempBin, (float) eventTh);
 					} else {
-					    att.maxThreshold.put(tempBin, new Float(eventTh));
+					    att.maxThreshold.put(tempBin, (float) eventTh);
 					}
 				}
 			}
@@ -321,7 +544,7 @@ public class TopologicalIndex implements Serializable {
                 } else {
                     eventTh = Double.parseDouble(threshold);
                 }
-				getEvents(results, eventTh, index, min, att);
+				getEvents(results, eventTh, min, att);
 			}
 		}
 		return results;
@@ -343,29 +566,47 @@ public class TopologicalIndex implements Serializable {
 		}
 	}
 	
-	void getEvents(ArrayList<byte[]> events, double eventTh,
-			Int2ObjectOpenHashMap<Feature[] > featureMap, boolean min, Attribute att) {
+	void getEvents(ArrayList<byte[]> events, double eventTh, boolean min, Attribute att) {
 		// getting events using merge tree
-		for (int tempBin : att.data.keySet()) {
-			Feature[] features = featureMap.get(tempBin);
-			GraphInput tf = functions.get(tempBin);
-			getEvents(events, tf, features, min, eventTh, false);
+		for (int tempBin : getTemporalBins(att)) {
+			getEvents(events, tempBin, min, eventTh, false);
 			
 			if (min) {
-                att.minThreshold.put(tempBin, new Float(eventTh));
+                att.minThreshold.put(tempBin, (float) eventTh);
             } else {
-                att.maxThreshold.put(tempBin, new Float(eventTh));
+                att.maxThreshold.put(tempBin, (float) eventTh);
             }
 		}
 	}
 	
+	/**
+	 * Events of a temporal bin: a prefix of its event order when the index
+	 *   has one, and a flood fill over its function otherwise.
+	 */
+	private void getEvents(ArrayList<byte[]> events, int tempBin, boolean min, double eventTh, boolean print) {
+	    EventOrder order = print ? null : getEventOrder(min, tempBin);
+	    if (order != null) {
+	        order.getEvents(events, nv, eventTh);
+	    } else {
+	        getEvents(events, getFunction(tempBin), getFeatures(min, tempBin), min, eventTh, print);
+	    }
+	}
+	
+	// workspace of the event extraction, reused across calls
+	private transient BitSet visited;
+	private transient int[] stack;
+	private transient int[] eventIndex;
+	
+	// thresholds of the regular features: exact two-cluster split (default)
+	//   or KMeans++, as in the original implementation
+	private transient boolean kmeansThreshold = false;
+	
 	private void getEvents(ArrayList<byte[]> events, GraphInput tf, Feature[] features, boolean min, double eventTh, boolean print) {
 		float[] fnVertices = tf.getFnVertices();
 //		nv = 1;
 //		if (is2D) {
 //			nv = ((TimeSeries2DFunction)tf).nv;
 //		}
-		IntOpenHashSet set = new IntOpenHashSet();
 		
 		/*int numberThresholdValues = 0;
 		for (Feature f: features) {
@@ -381,6 +622,29 @@ public class TopologicalIndex implements Serializable {
 		}
 		double ratio = numberThresholdValues / (double) features.length;*/
 		
+		// each vertex is visited at most once, so the vertices reached do not
+		//   depend on the visiting order: a stack is used instead of a queue
+		int vertexCount = tf.getVertexCount();
+		if (visited == null) {
+		    visited = new BitSet(vertexCount);
+		} else {
+		    visited.clear();
+		}
+		if ((stack == null) || (stack.length < vertexCount)) {
+		    stack = new int[vertexCount];
+		}
+		
+		// event index of each time index of the function (-1 if not computed yet)
+		int nt = (vertexCount + nv - 1) / nv;
+		if ((eventIndex == null) || (eventIndex.length < nt)) {
+		    eventIndex = new int[nt];
+		}
+		Arrays.fill(eventIndex, 0, nt, -1);
+		MyIntList star = new MyIntList();
+		
+		byte event = min ? FrameworkUtils.negativeEvent : FrameworkUtils.positiveEvent;
+		byte opposite = min ? FrameworkUtils.positiveEvent : FrameworkUtils.negativeEvent;
+		
 		for(Feature f: features) {
 			float pt = f.exFn;
 			if (min) {
@@ -393,107 +657,127 @@ public class TopologicalIndex implements Serializable {
 				if (pt > eventTh) {
                     continue;
                 }
-				int exv = f.v;
-				
-				IntArrayList queue = new IntArrayList();
-				queue.add(exv);
-				while(queue.size() > 0) {
-					int vin = queue.remove(0);
-					if(set.contains(vin)) {
-						continue;
-					}
-					set.add(vin);
-					pt = fnVertices[vin];
-					if(pt <= eventTh) {
-					    int tid = vin / nv;
-					    int time = tf.getTime(tid);
-					    int spatial = vin % nv;
-					    
-					    int index = FrameworkUtils.getTimeSteps(this.tempRes,
-					            this.stTime, time);
-					    byte[] spatialEvents = events.get(spatial);
-					    if (spatialEvents[index-1] == FrameworkUtils.positiveEvent) {
-                            spatialEvents[index-1] = FrameworkUtils.nonEvent;
-                        } else {
-                            spatialEvents[index-1] = FrameworkUtils.negativeEvent;
-                        }
-                        events.set(spatial, spatialEvents);
-					    
-					    if (print) {
-					        // October 15th, 2011 to October 31st, 2011
-				            if ((time >= 1318636800) && (time <= 1320105599)) {
-				                System.out.print(FrameworkUtils.getTemporalStr(FrameworkUtils.HOUR, time) + "\t");
-				                System.out.print(eventTh + ", " + pt);
-				                System.out.println("");
-				            }
-					    }
-						
-						MyIntList star = tf.getStar(vin);
-						for(int i = 0;i < star.length;i ++) {
-							if(!set.contains(star.array[i])) {
-								queue.add(star.array[i]);
-							}
-						}
-					}
-				}
 			} else {
-				
 				//if (ratio >= thresholdRatio && pt == eventTh) {
                 //    continue;
                 //}
                 if (pt < eventTh) {
                     continue;
                 }
-
-				int exv = f.v;
+			}
+			
+			int exv = f.v;
+			if (visited.get(exv)) {
+			    continue;
+			}
+			visited.set(exv);
+			int top = 0;
+			stack[top++] = exv;
+			while(top > 0) {
+				int vin = stack[--top];
+				pt = fnVertices[vin];
+				if (min ? (pt > eventTh) : (pt < eventTh)) {
+				    continue;
+				}
 				
-				IntArrayList queue = new IntArrayList();
-				queue.add(exv);
-				while(queue.size() > 0) {
-					int vin = queue.remove(0);
-					if(set.contains(vin)) {
-						continue;
-					}
-
-					set.add(vin);
-					pt = fnVertices[vin];
-					if(pt >= eventTh) {
-					    int tid = vin / nv;
-                        int time = tf.getTime(tid);
-                        int spatial = vin % nv;
-                        
-                        int index = FrameworkUtils.getTimeSteps(this.tempRes,
-                                this.stTime, time);
-                        byte[] spatialEvents = events.get(spatial);
-                        if (spatialEvents[index-1] == FrameworkUtils.negativeEvent) {
-                            spatialEvents[index-1] = FrameworkUtils.nonEvent;
-                        } else {
-                            spatialEvents[index-1] = FrameworkUtils.positiveEvent;
-                        }
-                        events.set(spatial, spatialEvents);
-                        
-                        if (print) {
-                            // October 15th, 2011 to October 31st, 2011
-                            if ((time >= 1318636800) && (time <= 1320105599)) {
-                                System.out.print(FrameworkUtils.getTemporalStr(FrameworkUtils.HOUR, time) + "\t");
-                                System.out.print(eventTh + ", " + pt);
-                                System.out.println("");
-                            }
-                        }
-						
-						MyIntList star = tf.getStar(vin);
-						for(int i = 0;i < star.length;i ++) {
-							if(!set.contains(star.array[i])) {
-								queue.add(star.array[i]);
-							}
-						}
+				int tid = vin / nv;
+				int spatial = vin % nv;
+				int index = eventIndex[tid];
+				if (index < 0) {
+				    index = FrameworkUtils.getTimeSteps(this.tempRes,
+				            this.stTime, tf.getTime(tid)) - 1;
+				    eventIndex[tid] = index;
+				}
+				byte[] spatialEvents = events.get(spatial);
+				if (spatialEvents[index] == opposite) {
+				    spatialEvents[index] = FrameworkUtils.nonEvent;
+				} else {
+				    spatialEvents[index] = event;
+				}
+				
+				if (print) {
+				    int time = tf.getTime(tid);
+				    // October 15th, 2011 to October 31st, 2011
+				    if ((time >= 1318636800) && (time <= 1320105599)) {
+				        System.out.print(FrameworkUtils.getTemporalStr(FrameworkUtils.HOUR, time) + "\t");
+				        System.out.print(eventTh + ", " + pt);
+				        System.out.println("");
+				    }
+				}
+				
+				tf.getStar(vin, star);
+				for(int i = 0;i < star.length;i ++) {
+					int vout = star.array[i];
+					if(!visited.get(vout)) {
+						visited.set(vout);
+						stack[top++] = vout;
 					}
 				}
 			}
 		}
 	}
 
+	public void setKMeansThreshold(boolean kmeansThreshold) {
+	    this.kmeansThreshold = kmeansThreshold;
+	}
+	
 	public double getThreshold(Feature []f) {
+	    if (kmeansThreshold)
+	        return getKMeansThreshold(f);
+	    return getExactThreshold(f);
+	}
+	
+	/**
+	 * Smallest persistence in the cluster of highest persistence values,
+	 *   for the optimal split of the persistence values in two clusters
+	 *   (minimum within-cluster sum of squares).
+	 * 
+	 * In one dimension, the clusters of the optimal split are contiguous
+	 *   in the sorted values, so the split is found exactly by trying every
+	 *   split point of the sorted values with prefix sums.
+	 */
+	public static double getExactThreshold(Feature []f) {
+	    
+	    if(f.length < 2) {
+	        return f[0].wt * 0.4;
+	    }
+	    
+	    int n = f.length;
+	    double[] wt = new double[n];
+	    for (int i = 0; i < n; i++) {
+	        wt[i] = f[i].wt;
+	    }
+	    Arrays.sort(wt);
+	    
+	    double total = 0;
+	    for (int i = 0; i < n; i++) {
+	        total += wt[i];
+	    }
+	    
+	    // the within-cluster sum of squares is minimal when
+	    //   sum(low)^2/|low| + sum(high)^2/|high| is maximal
+	    int split = 0;
+	    double best = Double.NEGATIVE_INFINITY;
+	    double low = 0;
+	    for (int k = 1; k < n; k++) {
+	        low += wt[k-1];
+	        // equal values always go to the same cluster
+	        if (wt[k-1] == wt[k]) {
+	            continue;
+	        }
+	        double high = total - low;
+	        double score = low*low/k + high*high/(n - k);
+	        if (score > best) {
+	            best = score;
+	            split = k;
+	        }
+	    }
+	    
+	    // all values equal: a single cluster
+	    return wt[split];
+	}
+	
+	public static double getKMeansThreshold(Feature []f) {
 	    
 	    KMeansPlusPlusClusterer<DoublePoint> kmeans = new KMeansPlusPlusClusterer<DoublePoint>(2,1000);
 	    ArrayList<DoublePoint> pts = new ArrayList<DoublePoint>();
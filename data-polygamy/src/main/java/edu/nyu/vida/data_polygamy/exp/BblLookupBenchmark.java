@@ -0,0 +1,154 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.exp;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import edu.nyu.vida.data_polygamy.resolution.SpatialResolutionUtils;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts.Table;
+
+/**
+ * Time per lookup and heap used by the bbl table of BblToRegion, stored as
+ *   a boxed HashMap, a primitive open-addressing map, and sorted arrays
+ *   searched by binary search.
+ *
+ * The table is read from a compiled spatial file (see SpatialArtifacts, e.g.
+ *   bbl-neighborhood) or, if none is given, generated with about as many
+ *   bbls as NYC (860k).
+ *
+ * Usage: BblLookupBenchmark [<table name>] [lookups]
+ */
+public class BblLookupBenchmark {
+
+    interface Lookup {
+        int get(long bbl);
+    }
+
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static Table generateTable(int size) {
+        Random random = new Random(0);
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            // borough (1 digit), block (5 digits), and lot (4 digits)
+            long borough = 1 + random.nextInt(5);
+            long block = 1 + random.nextInt(20000);
+            long lot = 1 + random.nextInt(200);
+            keys[i] = borough * 1000000000L + block * 10000L + lot;
+        }
+        Arrays.sort(keys);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if ((n == 0) || (keys[i] != keys[n-1]))
+                keys[n++] = keys[i];
+        }
+        Table table = new Table();
+        table.keys = Arrays.copyOf(keys, n);
+        table.values = new int[n];
+        for (int i = 0; i < n; i++)
+            table.values[i] = random.nextInt(300);
+        return table;
+    }
+
+    static void run(String name, Lookup lookup, long[] queries) {
+        long checksum = 0;
+
+        // warm-up
+        for (int i = 0; i < queries.length; i++)
+            checksum += lookup.get(queries[i]);
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries.length; i++)
+                checksum += lookup.get(queries[i]);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.println(name + "\t" + String.format("%.1f", (double) best / queries.length)
+                + " ns/lookup\t(checksum " + checksum + ")");
+    }
+
+    static void memory(String name, long bytes, int size) {
+        System.out.println(name + "\t" + (bytes >> 10) + " KB\t"
+                + String.format("%.1f", (double) bytes / size) + " bytes/bbl");
+    }
+
+    public static void main(String[] args) {
+
+        Table table = null;
+        if ((args.length > 0) && !args[0].equals("-")) {
+            ByteBuffer artifact = SpatialArtifacts.open(args[0], SpatialArtifacts.TABLE);
+            if (artifact == null) {
+                System.out.println("Invalid table: " + args[0]);
+                System.exit(-1);
+            }
+            table = SpatialArtifacts.readTable(artifact);
+        } else
+            table = generateTable(860000 + 860000/8);
+        int lookups = (args.length > 1) ? Integer.parseInt(args[1]) : 5000000;
+
+        final int size = table.keys.length;
+        System.out.println("Bbls: " + size);
+
+        // 10% of the queries are not in the table
+        Random random = new Random(1);
+        long[] queries = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            long key = table.keys[random.nextInt(size)];
+            queries[i] = (random.nextInt(10) == 0) ? key + 5000000000L : key;
+        }
+
+        // heap used by every structure
+        long before = usedMemory();
+        final HashMap<Long, Integer> boxed = new HashMap<Long, Integer>();
+        for (int i = 0; i < size; i++)
+            boxed.put(table.keys[i], table.values[i]);
+        memory("boxed-hash-map", usedMemory() - before, size);
+
+        before = usedMemory();
+        final Long2IntOpenHashMap primitive = SpatialResolutionUtils.longIdMap(size);
+        for (int i = 0; i < size; i++)
+            primitive.put(table.keys[i], table.values[i]);
+        memory("open-hash-map", usedMemory() - before, size);
+
+        final long[] keys = table.keys;
+        final int[] values = table.values;
+        memory("sorted-arrays", (long) size * 12, size);
+
+        run("boxed-hash-map", new Lookup() {
+            @Override
+            public int get(long bbl) {
+                Integer value = boxed.get(bbl);
+                return (value == null) ? -1 : value;
+            }
+        }, queries);
+
+        run("open-hash-map", new Lookup() {
+            @Override
+            public int get(long bbl) {
+                return primitive.get(bbl);
+            }
+        }, queries);
+
+        run("sorted-arrays", new Lookup() {
+            @Override
+            public int get(long bbl) {
+                int i = Arrays.binarySearch(keys, bbl);
+                return (i < 0) ? -1 : values[i];
+            }
+        }, queries);
+    }
+}
@@ -0,0 +1,148 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.exp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
+
+/**
+ * Sort phase of the map output with and without the raw comparators
+ *   of the keys (see FrameworkUtils): serialized keys are sorted as
+ *   in the map-side spill (QuickSort over offsets in a byte buffer).
+ *
+ * Usage: ComparatorBenchmark <sequence file> [repetitions]
+ *          sorts the keys of a sequence file (e.g., map output
+ *          captured with a SequenceFileOutputFormat, or an index file)
+ *        ComparatorBenchmark -synthetic <number of keys> [repetitions]
+ *          sorts random PairAttributeWritable keys
+ */
+public class ComparatorBenchmark {
+
+    static class Spill implements IndexedSortable {
+
+        byte[] buffer;
+        int[] start;
+        int[] length;
+        int[] order;
+        WritableComparator comparator;
+
+        Spill(DataOutputBuffer data, ArrayList<Integer> offsets) {
+            buffer = data.getData();
+            start = new int[offsets.size()];
+            length = new int[offsets.size()];
+            order = new int[offsets.size()];
+            for (int i = 0; i < offsets.size(); i++) {
+                start[i] = offsets.get(i);
+                length[i] = ((i + 1 < offsets.size()) ? offsets.get(i+1) : data.getLength()) - start[i];
+            }
+        }
+
+        void reset(WritableComparator comparator) {
+            this.comparator = comparator;
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+        }
+
+        @Override
+        public int compare(int i, int j) {
+            return comparator.compare(buffer, start[order[i]], length[order[i]],
+                    buffer, start[order[j]], length[order[j]]);
+        }
+
+        @Override
+        public void swap(int i, int j) {
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    static long sort(Spill spill, WritableComparator comparator, int[] result) {
+        spill.reset(comparator);
+        long start = System.nanoTime();
+        new QuickSort().sort(spill, 0, spill.order.length);
+        long time = System.nanoTime() - start;
+        System.arraycopy(spill.order, 0, result, 0, result.length);
+        return time;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public static void main(String[] args) throws IOException {
+
+        DataOutputBuffer data = new DataOutputBuffer();
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        Class<? extends WritableComparable> keyClass;
+        int repetitions = 5;
+
+        if (args[0].equals("-synthetic")) {
+            int nbKeys = Integer.parseInt(args[1]);
+            if (args.length > 2)
+                repetitions = Integer.parseInt(args[2]);
+            keyClass = PairAttributeWritable.class;
+            Random random = new Random(0);
+            for (int i = 0; i < nbKeys; i++) {
+                offsets.add(data.getLength());
+                new PairAttributeWritable(random.nextInt(50), random.nextInt(50),
+                        random.nextInt(3), 3 + random.nextInt(3),
+                        random.nextInt(7), random.nextInt(5), random.nextBoolean()).write(data);
+            }
+        } else {
+            if (args.length > 1)
+                repetitions = Integer.parseInt(args[1]);
+            Configuration conf = new Configuration();
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+                    SequenceFile.Reader.file(new Path(args[0])));
+            keyClass = (Class<? extends WritableComparable>) reader.getKeyClass();
+            WritableComparable key = ReflectionUtils.newInstance(keyClass, conf);
+            Writable value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), conf);
+            while (reader.next(key, value)) {
+                offsets.add(data.getLength());
+                key.write(data);
+            }
+            reader.close();
+        }
+
+        System.out.println("Keys: " + offsets.size() + " (" + keyClass.getSimpleName()
+                + ", " + data.getLength() + " bytes)");
+
+        Spill spill = new Spill(data, offsets);
+        // deserializes both keys and calls compareTo
+        WritableComparator deserializing = new WritableComparator(keyClass, true) {};
+        WritableComparator raw = WritableComparator.get(keyClass);
+        if (raw.getClass() == WritableComparator.class) {
+            System.out.println("Something went wrong... No raw comparator for " + keyClass.getName());
+            System.exit(-1);
+        }
+
+        int[] expected = new int[offsets.size()];
+        int[] result = new int[offsets.size()];
+        for (int i = 0; i < repetitions; i++) {
+            long deserializingTime = sort(spill, deserializing, expected);
+            long rawTime = sort(spill, raw, result);
+            for (int j = 0; j < result.length; j++) {
+                if (deserializing.compare(spill.buffer, spill.start[expected[j]], spill.length[expected[j]],
+                        spill.buffer, spill.start[result[j]], spill.length[result[j]]) != 0) {
+                    System.out.println("Something went wrong... Different orders at " + j);
+                    System.exit(-1);
+                }
+            }
+            System.out.println("deserializing\t" + (deserializingTime/1000000) + " ms\t"
+                    + "raw\t" + (rawTime/1000000) + " ms");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.exp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import edu.nyu.vida.data_polygamy.ctdata.MergeTreeStore;
+import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex;
+import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+
+/**
+ * Regular and rare events of a stored merge tree for a sweep of custom
+ *   thresholds (see the 'data/thresholds' file of the feature identification
+ *   step), without running IndexCreation again: events come from the event
+ *   orders of the store (see EventOrder), with no traversal of the functions.
+ *
+ * Usage: EventThresholdSweep <merge tree file> [threshold ...]
+ *          (default thresholds: FrameworkUtils.eventThresholds)
+ */
+public class EventThresholdSweep {
+
+    static int count(ArrayList<byte[]> events, byte event) {
+        int n = 0;
+        for (byte[] spatialEvents : events) {
+            for (int i = 0; i < spatialEvents.length; i++) {
+                if (spatialEvents[i] == event)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Configuration conf = new Configuration();
+        Path path = new Path(args[0]);
+        String[] thresholds = new String[(args.length > 1) ? args.length - 1 : FrameworkUtils.eventThresholds.length];
+        for (int i = 0; i < thresholds.length; i++)
+            thresholds[i] = (args.length > 1) ? args[i+1] : String.valueOf(FrameworkUtils.eventThresholds[i]);
+
+        long start = System.nanoTime();
+        Attribute att = new Attribute();
+        TopologicalIndex index = MergeTreeStore.read(path.getFileSystem(conf), path, att);
+        System.out.println("Open: " + (System.nanoTime() - start)/1000000 + " ms");
+        if (index.empty) {
+            System.out.println("Empty merge tree");
+            return;
+        }
+
+        System.out.println("threshold\tregular +\tregular -\trare +\trare -\ttime (ms)");
+        for (String threshold : thresholds) {
+            start = System.nanoTime();
+            ArrayList<byte[]> regular = index.queryEvents(0.9f, false, att, threshold);
+            ArrayList<byte[]> rare = index.queryEvents(0.9f, true, att, threshold);
+            long time = System.nanoTime() - start;
+            System.out.println(threshold + "\t" + count(regular, FrameworkUtils.positiveEvent)
+                    + "\t" + count(regular, FrameworkUtils.negativeEvent)
+                    + "\t" + count(rare, FrameworkUtils.positiveEvent)
+                    + "\t" + count(rare, FrameworkUtils.negativeEvent)
+                    + "\t" + (time/1000000));
+        }
+        index.close();
+    }
+}
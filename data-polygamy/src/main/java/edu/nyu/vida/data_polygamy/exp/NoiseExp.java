@@ -10,21 +10,18 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Random;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.Hours;
 
 import edu.nyu.vida.data_polygamy.relationship_computation.CorrelationReducer;
 import edu.nyu.vida.data_polygamy.utils.SpatialGraph;
-import edu.nyu.vida.data_polygamy.ctdata.SpatioTemporalVal;
+import edu.nyu.vida.data_polygamy.ctdata.TemporalBinValues;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
+import edu.nyu.vida.data_polygamy.utils.CalendarUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TimeSeriesStats;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TimeSeriesWritable;
@@ -66,27 +63,25 @@ public class NoiseExp {
                 while (s != null && s.length > 0) {
                     int month = Integer.parseInt(Utilities.splitString(s[0], ":")[1].trim());
                     s = Utilities.getLine(buf, ",");
-                    HashSet<SpatioTemporalVal> set = new HashSet<SpatioTemporalVal>();
+                    IntOpenHashSet set = new IntOpenHashSet();
+                    TemporalBinValues binVals = new TemporalBinValues();
                     while (s != null && s.length == 2) {
                         if (month/100 == year) {
                             int time = Integer.parseInt(s[0]);
                             float value = Float.parseFloat(s[1]);
                             
-                            SpatioTemporalVal val = new SpatioTemporalVal(0, time, value);
-                            set.add(val);
+                            if (set.add(time))
+                                binVals.add(0, time, value);
                             
                             ArrayList<Float> vals = (values.get(attr) == null) ? new ArrayList<Float>() : values.get(attr);
                             vals.add(value);
                             values.put(attr, vals);
-                            
-                            set.add(val);
                         }
                         s = Utilities.getLine(buf, ",");
                     }
                     if (set.size() > 0) {
-                        ArrayList<SpatioTemporalVal> arr = new ArrayList<SpatioTemporalVal>(set);                   
-                        Collections.sort(arr);
-                        a.data.put(month, arr);
+                        binVals.sort();
+                        a.data.put(month, binVals);
                     }
                 }
                 
@@ -125,29 +120,29 @@ public class NoiseExp {
                 while (s != null && s.length > 0) {
                     int month = Integer.parseInt(Utilities.splitString(s[0], ":")[1].trim());
                     s = Utilities.getLine(buf, ",");
-                    HashSet<SpatioTemporalVal> set = new HashSet<SpatioTemporalVal>();
+                    IntOpenHashSet set = new IntOpenHashSet();
+                    TemporalBinValues binVals = new TemporalBinValues();
                     while (s != null && s.length == 2) {
                         if (month/100 == year) {
                             int time = Integer.parseInt(s[0]);
                             float value = Float.parseFloat(s[1]);
-                            
-                            SpatioTemporalVal val = new SpatioTemporalVal(sid, time, value);
 
                             ArrayList<Float> vals = (values.get(attr) == null) ? new ArrayList<Float>() : values.get(attr);
                             vals.add(value);
                             values.put(attr, vals);
 
-                            set.add(val);
+                            if (set.add(time))
+                                binVals.add(sid, time, value);
                         }
                         s = Utilities.getLine(buf, ",");
                     }
                     if (set.size() > 0) {
-                        ArrayList<SpatioTemporalVal> monthlyArr = a.data.get(month);
+                        TemporalBinValues monthlyArr = a.data.get(month);
                         if(monthlyArr == null) {
-                            monthlyArr = new ArrayList<>();
+                            monthlyArr = new TemporalBinValues();
                             a.data.put(month, monthlyArr);
                         }
-                        monthlyArr.addAll(set);
+                        monthlyArr.addAll(binVals);
                     }
                 }
                 
@@ -159,8 +154,8 @@ public class NoiseExp {
             buf.close();
             
             for(Attribute a: attributes.values()) {
-                for(ArrayList<SpatioTemporalVal> arr: a.data.values()) {
-                    Collections.sort(arr);
+                for(TemporalBinValues arr: a.data.values()) {
+                    arr.sort();
                 }
                 a.nodeSet = nodeSet;
             }
@@ -401,13 +396,11 @@ public class NoiseExp {
             double increment = iqr.get(att) / 10000.0;
             
             for (int month : attribute.data.keySet()) {
-                ArrayList<SpatioTemporalVal> arr = attribute.data.get(month);
+                TemporalBinValues arr = attribute.data.get(month);
                 
                 for (int j = 0; j < arr.size(); j++) {
-                    SpatioTemporalVal val = arr.get(j);
                     float noiseIncrement = (float) (r.nextGaussian()*increment*increase);
-                    val.setVal(val.getVal() + noiseIncrement);
-                    arr.set(j, val);
+                    arr.setValue(j, arr.getValue(j) + noiseIncrement);
                 }
                 
                 attribute.data.put(month, arr);
@@ -447,20 +440,14 @@ public class NoiseExp {
         
         output.setIntersect(true);
         
-        DateTime start1Obj = new DateTime(start1*1000, DateTimeZone.UTC);
-        DateTime end1Obj = new DateTime(end1*1000, DateTimeZone.UTC);
-        DateTime start2Obj = new DateTime(start2*1000, DateTimeZone.UTC);
-        DateTime end2Obj = new DateTime(end2*1000, DateTimeZone.UTC);
-        
         byte[] eventTimeSeries1 = timeSeries1.getTimeSeries();
         byte[] eventTimeSeries2 = timeSeries2.getTimeSeries();
         
         int startRange = 0;
         int endRange = 0;
         
-        startRange = (start1 > start2) ? Hours.hoursBetween(start2Obj, start1Obj).getHours() : Hours.hoursBetween(start1Obj, start2Obj)
-                .getHours();
-        endRange = (end1 > end2) ? Hours.hoursBetween(end2Obj, end1Obj).getHours() : Hours.hoursBetween(end1Obj, end2Obj).getHours();
+        startRange = CalendarUtils.stepsBetween(FrameworkUtils.HOUR, Math.min(start1, start2), Math.max(start1, start2));
+        endRange = CalendarUtils.stepsBetween(FrameworkUtils.HOUR, Math.min(end1, end2), Math.max(end1, end2));
         
         int indexStart1 = (start2 > start1) ? startRange : 0;
         int indexStart2 = (start2 > start1) ? 0 : startRange;
@@ -0,0 +1,120 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.exp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.nyu.vida.data_polygamy.utils.SpatialGraph;
+import edu.nyu.vida.data_polygamy.utils.SpatialShifts;
+
+/**
+ * Time and memory allocated per repetition by the spatial permutations
+ *   used in the Monte Carlo tests (see CorrelationReducer).
+ *
+ * Usage: PermutationBenchmark <polygons file> <graph file> [repetitions]
+ */
+public class PermutationBenchmark {
+
+    static final int gridSide = 64;
+
+    interface Generator {
+        void generate(Random random);
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void run(String name, Generator generator, int repetitions) {
+        Random random = new Random(0);
+
+        // warm-up
+        for (int i = 0; i < repetitions; i++)
+            generator.generate(random);
+
+        long start = System.nanoTime();
+        long bytes = allocatedBytes();
+        for (int i = 0; i < repetitions; i++)
+            generator.generate(random);
+        bytes = allocatedBytes() - bytes;
+        long time = System.nanoTime() - start;
+
+        System.out.println(name + "\t" + (time/repetitions) + " ns/repetition\t"
+                + (bytes/repetitions) + " bytes/repetition");
+    }
+
+    /**
+     * Checks that toroidal shifts are permutations of the grid regions
+     *   (no region is dropped, whatever the shift).
+     */
+    static void checkToroidalShift(int side) {
+        int size = side * side;
+        int[] mapping = new int[size];
+        boolean[] seen = new boolean[size];
+        Random random = new Random(0);
+        for (int repetition = 0; repetition < 100; repetition++) {
+            SpatialShifts.toroidalShift(random, side, mapping);
+            Arrays.fill(seen, false);
+            for (int k = 0; k < size; k++) {
+                if ((mapping[k] < 0) || (mapping[k] >= size) || seen[mapping[k]]) {
+                    System.out.println("Toroidal shift is not a permutation: region " + k);
+                    System.exit(-1);
+                }
+                seen[mapping[k]] = true;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        String polygonsFile = args[0];
+        String graphFile = args[1];
+        int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+
+        final SpatialGraph graph = new SpatialGraph();
+        graph.init(polygonsFile, graphFile);
+        final int nbNodes = graph.nbNodes();
+        System.out.println("Nodes: " + nbNodes + " | Levels: " + graph.nbLevels());
+
+        checkToroidalShift(gridSide);
+        checkToroidalShift(45);
+
+        final int[] mapping = new int[Math.max(nbNodes, gridSide * gridSide)];
+        final int[] perm = new int[mapping.length];
+        final SpatialGraph.Workspace workspace = new SpatialGraph.Workspace();
+
+        run("bfs-shift", new Generator() {
+            @Override
+            public void generate(Random random) {
+                graph.generateRandomShift(random, workspace, mapping);
+            }
+        }, repetitions);
+
+        run("complete-random", new Generator() {
+            @Override
+            public void generate(Random random) {
+                SpatialShifts.completeRandom(random, nbNodes, perm, mapping);
+            }
+        }, repetitions);
+
+        run("toroidal-shift", new Generator() {
+            @Override
+            public void generate(Random random) {
+                SpatialShifts.toroidalShift(random, gridSide, mapping);
+            }
+        }, repetitions);
+
+        // list of pairs, as used by the standard techniques and the other experiments
+        run("bfs-shift-pairs", new Generator() {
+            @Override
+            public void generate(Random random) {
+                graph.generateRandomShift(random);
+            }
+        }, repetitions);
+    }
+}
@@ -0,0 +1,55 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.exp;
+
+import java.awt.geom.Path2D;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import edu.nyu.vida.data_polygamy.resolution.GridIndex;
+
+/**
+ * Point location on the polygons of a spatial resolution (see PointsToRegion):
+ *   compares the grid index, the quadtree index and the brute force search
+ *   (see GridIndex.test).
+ *
+ * Usage: PolygonIndexBenchmark <polygons file> [use bounding circle]
+ */
+public class PolygonIndexBenchmark {
+
+    public static void main(String[] args) throws IOException {
+
+        String polygonsFile = args[0];
+        boolean useBoundingCircle = (args.length > 1) ? Boolean.parseBoolean(args[1]) : false;
+
+        ArrayList<Path2D.Double> polygons = new ArrayList<Path2D.Double>();
+        BufferedReader buff = new BufferedReader(new FileReader(polygonsFile));
+        String line = buff.readLine();
+        while (line != null) {
+            buff.readLine();
+            int nbPoints = Integer.parseInt(buff.readLine());
+            Path2D.Double polygon = new Path2D.Double();
+            for (int i = 0; i < nbPoints; i++) {
+                String[] points = buff.readLine().split(" ");
+                double x = Double.parseDouble(points[0]);
+                double y = Double.parseDouble(points[1]);
+                if (i == 0)
+                    polygon.moveTo(x, y);
+                else
+                    polygon.lineTo(x, y);
+            }
+            polygon.closePath();
+            polygons.add(polygon);
+            line = buff.readLine();
+        }
+        buff.close();
+        System.out.println("Polygons: " + polygons.size());
+
+        GridIndex grid = new GridIndex(100, 100);
+        grid.buildGrid(polygons, useBoundingCircle);
+        grid.test();
+    }
+}
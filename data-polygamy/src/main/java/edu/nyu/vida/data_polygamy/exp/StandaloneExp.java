@@ -12,12 +12,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 
 import edu.nyu.vida.data_polygamy.ct.MergeTrees.TreeType;
-import edu.nyu.vida.data_polygamy.ctdata.SpatioTemporalVal;
+import edu.nyu.vida.data_polygamy.ctdata.TemporalBinValues;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
@@ -59,25 +58,23 @@ public class StandaloneExp {
                 while (s != null && s.length > 0) {
                     int month = Integer.parseInt(Utilities.splitString(s[0], ":")[1].trim());
                     s = Utilities.getLine(buf, ",");
-                    HashSet<SpatioTemporalVal> set = new HashSet<SpatioTemporalVal>();
+                    IntOpenHashSet set = new IntOpenHashSet();
+                    TemporalBinValues binVals = new TemporalBinValues();
                     while (s != null && s.length == 2) {
                         int time = Integer.parseInt(s[0]);
                         float value = Float.parseFloat(s[1]);
                         
-                        SpatioTemporalVal val = new SpatioTemporalVal(0, time, value);
-                        set.add(val);
+                        if (set.add(time))
+                            binVals.add(0, time, value);
                         
                         ArrayList<Float> vals = (values.get(attr) == null) ? new ArrayList<Float>() : values.get(attr);
                         vals.add(value);
                         values.put(attr, vals);
-                        
-                        set.add(val);
                         s = Utilities.getLine(buf, ",");
                     }
                     if (set.size() > 0) {
-                        ArrayList<SpatioTemporalVal> arr = new ArrayList<SpatioTemporalVal>(set);                   
-                        Collections.sort(arr);
-                        a.data.put(month, arr);
+                        binVals.sort();
+                        a.data.put(month, binVals);
                     }
                 }
                 
@@ -116,27 +113,27 @@ public class StandaloneExp {
                 while (s != null && s.length > 0) {
                     int month = Integer.parseInt(Utilities.splitString(s[0], ":")[1].trim());
                     s = Utilities.getLine(buf, ",");
-                    HashSet<SpatioTemporalVal> set = new HashSet<SpatioTemporalVal>();
+                    IntOpenHashSet set = new IntOpenHashSet();
+                    TemporalBinValues binVals = new TemporalBinValues();
                     while (s != null && s.length == 2) {
                         int time = Integer.parseInt(s[0]);
                         float value = Float.parseFloat(s[1]);
-                        
-                        SpatioTemporalVal val = new SpatioTemporalVal(sid, time, value);
     
                         ArrayList<Float> vals = (values.get(attr) == null) ? new ArrayList<Float>() : values.get(attr);
                         vals.add(value);
                         values.put(attr, vals);
     
-                        set.add(val);
+                        if (set.add(time))
+                            binVals.add(sid, time, value);
                         s = Utilities.getLine(buf, ",");
                     }
                     if (set.size() > 0) {
-                        ArrayList<SpatioTemporalVal> monthlyArr = a.data.get(month);
+                        TemporalBinValues monthlyArr = a.data.get(month);
                         if(monthlyArr == null) {
-                            monthlyArr = new ArrayList<>();
+                            monthlyArr = new TemporalBinValues();
                             a.data.put(month, monthlyArr);
                         }
-                        monthlyArr.addAll(set);
+                        monthlyArr.addAll(binVals);
                     }
                 }
                 
@@ -148,8 +145,8 @@ public class StandaloneExp {
             buf.close();
             
             for(Attribute a: attributes.values()) {
-                for(ArrayList<SpatioTemporalVal> arr: a.data.values()) {
-                    Collections.sort(arr);
+                for(TemporalBinValues arr: a.data.values()) {
+                    arr.sort();
                 }
                 a.nodeSet = nodeSet;
             }
@@ -164,7 +161,7 @@ public class StandaloneExp {
         int ct = 0;
         IntSet keys = a.data.keySet();
         IntIterator it = keys.iterator();
-        ArrayList<SpatioTemporalVal> arr = new ArrayList<SpatioTemporalVal>();
+        TemporalBinValues arr = new TemporalBinValues();
         while(ct < noMonths) {
             if(!it.hasNext()) {
                 Utilities.er("no. of months is greater than what is present");
@@ -173,7 +170,7 @@ public class StandaloneExp {
             arr.addAll(a.data.get(month));
             ct++;
         }
-        Collections.sort(arr);
+        arr.sort();
         Attribute na = new Attribute();
         na.data.put(0, arr);
         na.nodeSet = a.nodeSet;
@@ -10,13 +10,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 
 import edu.nyu.vida.data_polygamy.relationship_computation.CorrelationReducer;
 import edu.nyu.vida.data_polygamy.utils.SpatialGraph;
-import edu.nyu.vida.data_polygamy.ctdata.SpatioTemporalVal;
+import edu.nyu.vida.data_polygamy.ctdata.TemporalBinValues;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
@@ -56,7 +55,8 @@ public class TaxiSyntheticExp {
                 while (s != null && s.length > 0) {
                     int month = Integer.parseInt(FrameworkUtils.splitString(s[0], ":")[1].trim());
                     s = FrameworkUtils.getLine(buf, ",");
-                    HashSet<SpatioTemporalVal> set = new HashSet<SpatioTemporalVal>();
+                    IntOpenHashSet set = new IntOpenHashSet();
+                    TemporalBinValues binVals = new TemporalBinValues();
                     while (s != null && s.length == 2) {
                         if (month/100 == year) {
                             int time = Integer.parseInt(s[0]);
@@ -68,16 +68,15 @@ public class TaxiSyntheticExp {
                                     time = time - (31536000);
                                 }
                                 float value = Float.parseFloat(s[1]);
-                                SpatioTemporalVal val = new SpatioTemporalVal(0, time, value);
-                                set.add(val);
+                                if (set.add(time))
+                                    binVals.add(0, time, value);
                             }
                         }
                         s = FrameworkUtils.getLine(buf, ",");
                     }
                     if (set.size() > 0) {
-                        ArrayList<SpatioTemporalVal> arr = new ArrayList<SpatioTemporalVal>(set);                   
-                        Collections.sort(arr);
-                        a.data.put(month, arr);
+                        binVals.sort();
+                        a.data.put(month, binVals);
                     }
                 }
                 
@@ -118,7 +117,8 @@ public class TaxiSyntheticExp {
                 while (s != null && s.length > 0) {
                     int month = Integer.parseInt(FrameworkUtils.splitString(s[0], ":")[1].trim());
                     s = FrameworkUtils.getLine(buf, ",");
-                    HashSet<SpatioTemporalVal> set = new HashSet<SpatioTemporalVal>();
+                    IntOpenHashSet set = new IntOpenHashSet();
+                    TemporalBinValues binVals = new TemporalBinValues();
                     while (s != null && s.length == 2) {
                         if (month/100 == year) {
                             int time = Integer.parseInt(s[0]);
@@ -130,19 +130,19 @@ public class TaxiSyntheticExp {
                                     time = time - (31536000);
                                 }
                                 float value = Float.parseFloat(s[1]);
-                                SpatioTemporalVal val = new SpatioTemporalVal(sid, time, value);
-                                set.add(val);
+                                if (set.add(time))
+                                    binVals.add(sid, time, value);
                             }
                         }
                         s = FrameworkUtils.getLine(buf, ",");
                     }
                     if (set.size() > 0) {
-                        ArrayList<SpatioTemporalVal> monthlyArr = a.data.get(month);
+                        TemporalBinValues monthlyArr = a.data.get(month);
                         if(monthlyArr == null) {
-                            monthlyArr = new ArrayList<>();
+                            monthlyArr = new TemporalBinValues();
                             a.data.put(month, monthlyArr);
                         }
-                        monthlyArr.addAll(set);
+                        monthlyArr.addAll(binVals);
                     }
                 }
                 
@@ -154,8 +154,8 @@ public class TaxiSyntheticExp {
             buf.close();
             
             for(Attribute a: attributes.values()) {
-                for(ArrayList<SpatioTemporalVal> arr: a.data.values()) {
-                    Collections.sort(arr);
+                for(TemporalBinValues arr: a.data.values()) {
+                    arr.sort();
                 }
                 a.nodeSet = nodeSet;
             }
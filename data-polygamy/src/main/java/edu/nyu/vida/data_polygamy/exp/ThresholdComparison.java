@@ -0,0 +1,139 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.exp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.commons.math3.exception.ConvergenceException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import edu.nyu.vida.data_polygamy.ct.SimplifyFeatures.Feature;
+import edu.nyu.vida.data_polygamy.ctdata.MergeTreeStore;
+import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex;
+import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
+
+/**
+ * Thresholds of salient features computed by KMeans++ and by the exact
+ *   two-cluster split (see TopologicalIndex.getThreshold), on the merge
+ *   trees stored by the feature identification step.
+ *
+ * For every merge tree, temporal bin, and tree type, both thresholds are
+ *   computed; bins with different thresholds are printed with the
+ *   within-cluster sum of squares of each split (KMeans++ may stop at a
+ *   local optimum), followed by a summary and the time spent by each method.
+ *
+ * Usage: ThresholdComparison <merge tree file or directory> ...
+ *          e.g., the 'mergetree' directory on HDFS after running the
+ *          feature identification step for the sigmod16 datasets
+ */
+public class ThresholdComparison {
+
+    static int bins = 0;
+    static int equal = 0;
+    static int kmeansFailures = 0;
+    static double maxRelativeDifference = 0;
+    static long kmeansTime = 0;
+    static long exactTime = 0;
+
+    static void listFiles(FileSystem fs, Path path, ArrayList<Path> files) throws IOException {
+        for (FileStatus status : fs.listStatus(path)) {
+            if (status.isDirectory())
+                listFiles(fs, status.getPath(), files);
+            else
+                files.add(status.getPath());
+        }
+    }
+
+    // within-cluster sum of squares of the split at the given threshold
+    static double withinSS(Feature[] f, double threshold) {
+        double[] sum = new double[2];
+        double[] sumSq = new double[2];
+        int[] count = new int[2];
+        for (int i = 0; i < f.length; i++) {
+            int c = (f[i].wt >= threshold) ? 1 : 0;
+            sum[c] += f[i].wt;
+            sumSq[c] += (double) f[i].wt * f[i].wt;
+            count[c]++;
+        }
+        double ss = 0;
+        for (int c = 0; c < 2; c++) {
+            if (count[c] > 0)
+                ss += sumSq[c] - sum[c]*sum[c]/count[c];
+        }
+        return ss;
+    }
+
+    static void compare(String name, TopologicalIndex index, boolean min) {
+        for (int tempBin : index.getIndex(min).keySet()) {
+            Feature[] f = index.getIndex(min).get(tempBin);
+            if (f.length == 0)
+                continue;
+            bins++;
+
+            long start = System.nanoTime();
+            double kmeans = 0;
+            boolean converged = true;
+            try {
+                kmeans = TopologicalIndex.getKMeansThreshold(f);
+            } catch (ConvergenceException e) {
+                converged = false;
+            }
+            kmeansTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double exact = TopologicalIndex.getExactThreshold(f);
+            exactTime += System.nanoTime() - start;
+
+            if (!converged) {
+                kmeansFailures++;
+                System.out.println(name + "\t" + (min ? "min" : "max") + "\t" + tempBin + "\t"
+                        + f.length + " features\tkmeans: no convergence\texact: " + exact);
+                continue;
+            }
+            if (kmeans == exact) {
+                equal++;
+                continue;
+            }
+            double difference = Math.abs(kmeans - exact) / Math.max(Math.abs(kmeans), Math.abs(exact));
+            maxRelativeDifference = Math.max(maxRelativeDifference, difference);
+            System.out.println(name + "\t" + (min ? "min" : "max") + "\t" + tempBin + "\t"
+                    + f.length + " features\tkmeans: " + kmeans + " (wcss " + withinSS(f, kmeans) + ")"
+                    + "\texact: " + exact + " (wcss " + withinSS(f, exact) + ")");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Configuration conf = new Configuration();
+        ArrayList<Path> files = new ArrayList<Path>();
+        for (String arg : args) {
+            Path path = new Path(arg);
+            FileSystem fs = path.getFileSystem(conf);
+            if (fs.getFileStatus(path).isDirectory())
+                listFiles(fs, path, files);
+            else
+                files.add(path);
+        }
+
+        for (Path file : files) {
+            TopologicalIndex index = MergeTreeStore.read(file.getFileSystem(conf), file, new Attribute());
+            if (index.empty)
+                continue;
+
+            String name = file.getParent().getName() + "/" + file.getName();
+            compare(name, index, true);
+            compare(name, index, false);
+            index.close();
+        }
+
+        System.out.println("Merge trees: " + files.size() + " | Bins: " + bins
+                + " | Same threshold: " + equal + " | KMeans failures: " + kmeansFailures
+                + " | Max relative difference: " + maxRelativeDifference);
+        System.out.println("kmeans\t" + (kmeansTime/1000000) + " ms\texact\t" + (exactTime/1000000) + " ms");
+    }
+}
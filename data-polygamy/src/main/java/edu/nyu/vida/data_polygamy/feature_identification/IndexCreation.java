@@ -29,11 +29,14 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
+import edu.nyu.vida.data_polygamy.utils.CostPartitioner;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionTimeWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Machine;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalFloatWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
 
 public class IndexCreation {
     
@@ -102,6 +105,23 @@ public class IndexCreation {
         bucketOption.setArgs(1);
         options.addOption(bucketOption);
         
+        Option costOption = new Option("cp", "cost-partitioner", false, "assign attributes "
+                + "to reducers based on their estimated cost, rather than on their hash");
+        costOption.setRequired(false);
+        options.addOption(costOption);
+        
+        Option kmeansOption = new Option("km", "kmeans-threshold", false, "use KMeans++ to "
+                + "compute the thresholds of salient features, rather than the exact two-cluster split");
+        kmeansOption.setRequired(false);
+        options.addOption(kmeansOption);
+        
+        Option threadsOption = new Option("it", "index-threads", true, "number of threads "
+                + "used by each reducer to compute the merge trees (default: 1)");
+        threadsOption.setRequired(false);
+        threadsOption.setArgName("THREADS");
+        threadsOption.setArgs(1);
+        options.addOption(threadsOption);
+        
         Option helpOption = new Option("h", "help", false, "display this message");
         helpOption.setRequired(false);
         options.addOption(helpOption);
@@ -171,6 +191,10 @@ public class IndexCreation {
         
         boolean removeExistingFiles = cmd.hasOption("f");
         boolean isThresholdUserDefined = cmd.hasOption("t");
+        boolean costPartitioner = cmd.hasOption("cp");
+        boolean kmeansThreshold = cmd.hasOption("km");
+        String indexThreads = cmd.hasOption("it") ? cmd.getOptionValue("it") : "1";
+        HashMap<String,String> datasetRes = new HashMap<String,String>();
         
         for (String dataset : cmd.getOptionValues("g")) {
 
@@ -189,6 +213,7 @@ public class IndexCreation {
             }
             
             String aggregatesHeader = s3bucket + FrameworkUtils.preProcessingDir + "/" + aggregatesHeaderFileName;
+            datasetRes.put(dataset, CostPartitioner.resolutions(aggregatesHeaderFileName));
             
             shortDataset.add(dataset);
             datasetId.put(dataset, null);
@@ -331,6 +356,9 @@ public class IndexCreation {
         FrameworkUtils.removeFile(indexOutputDir, s3conf, s3);
         
         icConf.set("dataset-name", datasetNames);
+        icConf.set("cost-partitioner", String.valueOf(costPartitioner));
+        icConf.set("kmeans-threshold", String.valueOf(kmeansThreshold));
+        icConf.set("index-threads", indexThreads);
         icConf.set("dataset-id", datasetIds);
         
         if (!useMergeTree.isEmpty()) {
@@ -346,6 +374,8 @@ public class IndexCreation {
             String id = datasetId.get(dataset);
             icConf.set("dataset-" + id + "-aggregates",
                     datasetAgg.get(dataset));
+            if (costPartitioner)
+                icConf.set("dataset-" + id + "-resolutions", datasetRes.get(dataset));
             if (datasetRegThreshold.containsKey(dataset)) {
                 HashMap<Integer,Double> regThresholds = datasetRegThreshold.get(dataset);
                 String thresholds = "";
@@ -401,8 +431,9 @@ public class IndexCreation {
         icJob = new Job(icConf);
         icJob.setJobName(jobName);
         
-        icJob.setMapOutputKeyClass(AttributeResolutionWritable.class);
+        icJob.setMapOutputKeyClass(AttributeResolutionTimeWritable.class);
         icJob.setMapOutputValueClass(SpatioTemporalFloatWritable.class);
+        icJob.setGroupingComparatorClass(AttributeResolutionTimeWritable.GroupingComparator.class);
         icJob.setOutputKeyClass(AttributeResolutionWritable.class);
         icJob.setOutputValueClass(TopologyTimeSeriesWritable.class);
         //icJob.setOutputKeyClass(Text.class);
@@ -410,6 +441,8 @@ public class IndexCreation {
    
         icJob.setMapperClass(IndexCreationMapper.class);
         icJob.setReducerClass(IndexCreationReducer.class);
+        if (costPartitioner)
+            icJob.setPartitionerClass(CostPartitioner.AttributeResolutionPartitioner.class);
         icJob.setNumReduceTasks(machineConf.getNumberReduces());
    
         icJob.setInputFormatClass(SequenceFileInputFormat.class);
@@ -424,6 +457,9 @@ public class IndexCreation {
                 aggregateDatasets.length()-1));
         FileOutputFormat.setOutputPath(icJob, new Path(indexOutputDir));
    
+        // pre-built spatial files (see SpatialArtifacts)
+        SpatialArtifacts.addToCache(icJob);
+        
         icJob.setJarByClass(IndexCreation.class);
         
         long start = System.currentTimeMillis();
@@ -11,12 +11,12 @@ import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
-import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionTimeWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.FloatArrayWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalFloatWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalWritable;
 
-public class IndexCreationMapper extends Mapper<SpatioTemporalWritable, FloatArrayWritable, AttributeResolutionWritable, SpatioTemporalFloatWritable> {
+public class IndexCreationMapper extends Mapper<SpatioTemporalWritable, FloatArrayWritable, AttributeResolutionTimeWritable, SpatioTemporalFloatWritable> {
     
     public static FrameworkUtils utils = new FrameworkUtils();
     
@@ -25,7 +25,7 @@ public class IndexCreationMapper extends Mapper<SpatioTemporalWritable, FloatArr
     boolean useExistingMergeTree = false;
     
     int[] index;
-    AttributeResolutionWritable keyWritable = new AttributeResolutionWritable();
+    AttributeResolutionTimeWritable keyWritable = new AttributeResolutionTimeWritable();
     SpatioTemporalFloatWritable valueWritable = new SpatioTemporalFloatWritable();
     
     @Override
@@ -90,8 +90,8 @@ public class IndexCreationMapper extends Mapper<SpatioTemporalWritable, FloatArr
         for (int i = 0; i < attributeValues.length; i++) {
             if (Float.isNaN(attributeValues[i]))
                 continue;
-            keyWritable = new AttributeResolutionWritable(index[i],
-                    spatialResolution, temporalResolution, key.getDataset());
+            keyWritable = new AttributeResolutionTimeWritable(index[i],
+                    spatialResolution, temporalResolution, key.getDataset(), temporal);
             valueWritable = new SpatioTemporalFloatWritable(spatial, temporal, attributeValues[i]);
             context.write(keyWritable, valueWritable);
         }
@@ -109,8 +109,8 @@ public class IndexCreationMapper extends Mapper<SpatioTemporalWritable, FloatArr
         for (int i = 0; i < index.length; i++) {
             if (Float.isNaN(attributeValues[i]))
                 continue;
-            keyWritable = new AttributeResolutionWritable(index[i],
-                    spatialResolution, temporalResolution, key.getDataset());
+            keyWritable = new AttributeResolutionTimeWritable(index[i],
+                    spatialResolution, temporalResolution, key.getDataset(), -1);
             context.write(keyWritable, new SpatioTemporalFloatWritable());
         }
     }
@@ -6,33 +6,36 @@ package edu.nyu.vida.data_polygamy.feature_identification;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 
-import edu.nyu.vida.data_polygamy.ctdata.SpatioTemporalVal;
+import edu.nyu.vida.data_polygamy.ctdata.MergeTreeStore;
+import edu.nyu.vida.data_polygamy.ctdata.TemporalBinValues;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex;
 import edu.nyu.vida.data_polygamy.ctdata.TopologicalIndex.Attribute;
+import edu.nyu.vida.data_polygamy.utils.CalendarUtils;
+import edu.nyu.vida.data_polygamy.utils.CostPartitioner;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionTimeWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Function;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalFloatWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
 import edu.nyu.vida.data_polygamy.utils.Utilities;
 
-public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, SpatioTemporalFloatWritable, AttributeResolutionWritable, TopologyTimeSeriesWritable> {
+public class IndexCreationReducer extends Reducer<AttributeResolutionTimeWritable, SpatioTemporalFloatWritable, AttributeResolutionWritable, TopologyTimeSeriesWritable> {
 //public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, SpatioTemporalFloatWritable, Text, Text> {
     
     public static FrameworkUtils utils = new FrameworkUtils();
@@ -47,6 +50,12 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
     // threshold for outliers
     float th = 0.9f;
     
+    // KMeans++ thresholds instead of the exact two-cluster split
+    boolean kmeansThreshold = false;
+    
+    // merge trees of the temporal bins are computed by 'index-threads' workers
+    ForkJoinPool pool = null;
+    
     // CITY, NBHD, ZIP
     int[][] nbhdEdges = new int[0][0];
     int[][] zipEdges = new int[0][0];
@@ -58,13 +67,10 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
     
     TopologyTimeSeriesWritable valueWritable = new TopologyTimeSeriesWritable();
     
-    // input stream
-    ObjectInputStream inputStream;
-    
-    // output stream
-    ObjectOutputStream outputStream;
-    
     private MultipleOutputs<AttributeResolutionWritable,TopologyTimeSeriesWritable> out;
+    
+    // estimated vs actual cost of the reducer, with 'cost-partitioner'
+    CostPartitioner.Log<AttributeResolutionWritable> costLog = null;
     //private MultipleOutputs<Text,Text> out;
     
     @Override
@@ -140,15 +146,42 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
         
 	            if (bucket.equals(""))
 	                s3 = false;
+	            String name = null;
 	            Path edgesPath = null;
 	            
 	            // reading nodes
 	            if (spatialRes == FrameworkUtils.NBHD)
-	                edgesPath = new Path(bucket + "neighborhood-graph");
+	                name = "neighborhood-graph";
 	            else if (spatialRes == FrameworkUtils.ZIP)
-	                edgesPath = new Path(bucket + "zipcode-graph");
+	                name = "zipcode-graph";
 	            else
-	                edgesPath = new Path(bucket + "block-graph");
+	                name = "block-graph";
+	            edgesPath = new Path(bucket + name);
+	            
+	            ByteBuffer artifact = SpatialArtifacts.open(name, SpatialArtifacts.GRAPH);
+	            if (artifact != null) {
+	                SpatialArtifacts.Graph graph = SpatialArtifacts.readGraph(artifact);
+	                int[][] edges = new int[graph.nbEdges][2];
+	                for (int i = 0; i < graph.nbEdges; i++) {
+	                    int v1 = graph.edges[2*i];
+	                    int v2 = graph.edges[2*i+1];
+	                    if (v1 == v2)
+	                        continue;
+	                    edges[i][0] = v1;
+	                    edges[i][1] = v2;
+	                }
+	                if (spatialRes == FrameworkUtils.NBHD) {
+	                    nvNbhd = graph.nbNodes;
+	                    nbhdEdges = edges;
+	                } else if (spatialRes == FrameworkUtils.ZIP) {
+	                    nvZip = graph.nbNodes;
+	                    zipEdges = edges;
+	                } else {
+	                    nvBlock = graph.nbNodes;
+	                    blockEdges = edges;
+	                }
+	                continue;
+	            }
 	            
 	            FileSystem fs = null;
 	            
@@ -194,12 +227,28 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
 	            reader.close();
 	        }
         }
+        
+        kmeansThreshold = conf.getBoolean("kmeans-threshold", false);
+        
+        int nbThreads = conf.getInt("index-threads", 1);
+        if (nbThreads > 1)
+            pool = new ForkJoinPool(nbThreads);
+        
+        if (conf.getBoolean("cost-partitioner", false))
+            costLog = new CostPartitioner.Log<AttributeResolutionWritable>(
+                    new CostPartitioner.AttributeResolutionPartitioner<SpatioTemporalFloatWritable>(), conf);
     }
     
     @Override
-    public void reduce(AttributeResolutionWritable key, Iterable<SpatioTemporalFloatWritable> values, Context context)
+    public void reduce(AttributeResolutionTimeWritable timeKey, Iterable<SpatioTemporalFloatWritable> values, Context context)
             throws IOException, InterruptedException {
         
+        // the time of the key changes with the values (secondary sort)
+        AttributeResolutionWritable key = timeKey.getAttributeResolution();
+        
+        if (costLog != null)
+            costLog.start(key);
+        
         Attribute att = new Attribute();
         int spatialRes = key.getSpatialResolution();
         int tempRes = key.getTemporalResolution();
@@ -212,6 +261,7 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
             index = reduceMergeTreeCreation(key, values, context, att, tempRes, spatialRes);
         }
         if (index.empty) return;
+        index.setKMeansThreshold(kmeansThreshold);
         
         // non-outliers
         String regThreshold  = "";
@@ -249,6 +299,7 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
             }
         }
         events = index.queryEvents(this.th, true, att, rareThreshold);
+        index.close();
         
         for (int spatial = 0; spatial < events.size(); spatial++) {
             //if (!att.nodeSet.contains(spatial))
@@ -278,9 +329,12 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
         int attributeId = key.getAttribute();
         boolean isGradient = functions.get(datasetId).contains(attributeId) ? true : false;
         
+        // values arrive sorted by time (see AttributeResolutionTimeWritable),
+        //   so each temporal bin is filled in order, one bin after the other
         Iterator<SpatioTemporalFloatWritable> it = values.iterator();
         SpatioTemporalFloatWritable st;
-        DateTime date;
+        int currentHash = 0;
+        TemporalBinValues temporalBinVals = null;
         while (it.hasNext()) {
             st = it.next();
             
@@ -291,39 +345,53 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
             att.nodeSet.add(spatial);
             
             // for each temporal bin
-            date = new DateTime(((long)temporal)*1000, DateTimeZone.UTC);
             int hash = 1;
             if (!isGradient) {
-                hash = (tempRes == FrameworkUtils.HOUR) ? date.getYear()*100 + date.getMonthOfYear() :
-                    ((tempRes == FrameworkUtils.DAY) ? date.getYear()*100 + (date.getMonthOfYear()/4) : 1);
+                hash = (tempRes == FrameworkUtils.HOUR) ?
+                        CalendarUtils.getYear(temporal)*100 + CalendarUtils.getMonthOfYear(temporal) :
+                    ((tempRes == FrameworkUtils.DAY) ?
+                            CalendarUtils.getYear(temporal)*100 + (CalendarUtils.getMonthOfYear(temporal)/4) : 1);
+            }
+            if ((temporalBinVals == null) || (hash != currentHash)) {
+                if (temporalBinVals != null)
+                    temporalBinVals.trimToSize();
+                temporalBinVals = att.data.get(hash);
+                if (temporalBinVals == null) {
+                    temporalBinVals = new TemporalBinValues();
+                    att.data.put(hash, temporalBinVals);
+                }
+                currentHash = hash;
             }
-            ArrayList<SpatioTemporalVal> temporalBinVals = att.data.get(hash);
-            if (temporalBinVals == null)
-                temporalBinVals = new ArrayList<SpatioTemporalVal>(); 
             
             // add val
-            SpatioTemporalVal point = new SpatioTemporalVal(spatial, temporal, val);
-            temporalBinVals.add(point);
-            
-            att.data.put(hash, temporalBinVals);
+            temporalBinVals.add(spatial, temporal, val);
         }
         
-        for (ArrayList<SpatioTemporalVal> stVal: att.data.values())
-            Collections.sort(stVal);
+        // no-op if the values were already sorted by the secondary sort
+        for (TemporalBinValues stVal: att.data.values()) {
+            stVal.trimToSize();
+            stVal.sort();
+        }
         
         TopologicalIndex index = (spatialRes == FrameworkUtils.NBHD) ?
                 new TopologicalIndex(spatialRes, tempRes, this.nvNbhd) :
                     ((spatialRes == FrameworkUtils.ZIP) ? new TopologicalIndex(spatialRes, tempRes, this.nvZip) :
                         ((spatialRes == FrameworkUtils.BLOCK) ? new TopologicalIndex(spatialRes, tempRes, this.nvBlock) :
                             new TopologicalIndex(spatialRes, tempRes, this.nvCity)));
-        int ret = (spatialRes == FrameworkUtils.NBHD) ? index.createIndex(att, this.nbhdEdges) :
-            ((spatialRes == FrameworkUtils.BLOCK) ? index.createIndex(att, this.blockEdges) :
-                index.createIndex(att, this.zipEdges));
+        int ret = (spatialRes == FrameworkUtils.NBHD) ? index.createIndex(att, this.nbhdEdges, pool) :
+            ((spatialRes == FrameworkUtils.BLOCK) ? index.createIndex(att, this.blockEdges, pool) :
+                index.createIndex(att, this.zipEdges, pool));
         
         if (ret == 1) {
-            return new TopologicalIndex();
+            index = new TopologicalIndex();
         }
         
+        // storing topological index
+        String fileName = generateIndexFileName(idToDataset.get(key.getDataset()), key.getAttribute(), tempRes, spatialRes);
+        FSDataOutputStream outputStream = FrameworkUtils.createFile(fileName, context.getConfiguration(), s3);
+        MergeTreeStore.write(index, att, outputStream);
+        outputStream.close();
+        
         return index;
     }
     
@@ -334,24 +402,18 @@ public class IndexCreationReducer extends Reducer<AttributeResolutionWritable, S
             int tempRes, int spatialRes) throws IOException {
         
         // loading topological index
-        TopologicalIndex index = new TopologicalIndex();
         String fileName = generateIndexFileName(idToDataset.get(key.getDataset()), key.getAttribute(), tempRes, spatialRes);
-        try {
-            inputStream = new ObjectInputStream(FrameworkUtils.openFile(fileName, context.getConfiguration(), s3));
-            index = (TopologicalIndex) inputStream.readObject();
-            Attribute savedAtt = (Attribute) inputStream.readObject();
-            att.copy(savedAtt);
-            inputStream.close();
-        } catch (ClassNotFoundException e) {
-            System.out.println("Something went wrong... Cannot read merge tree: " + fileName);
-            System.exit(1);
-        }
+        TopologicalIndex index = MergeTreeStore.read(fileName, context.getConfiguration(), s3, att);
         
         return index;
     }
     
     @Override
     public void cleanup(Context context) throws IOException, InterruptedException {
+        if (costLog != null)
+            costLog.print(context);
+        if (pool != null)
+            pool.shutdown();
     	out.close();
     }
     
@@ -25,6 +25,7 @@ import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AggregationArrayWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Machine;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.MultipleSpatioTemporalWritable;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
 
 public class PreProcessing {
     
@@ -315,6 +316,9 @@ public class PreProcessing {
         FileInputFormat.setInputPaths(job, new Path(s3bucket + FrameworkUtils.dataDir + "/" + dataset));
         FileOutputFormat.setOutputPath(job, new Path(fileName));
    
+        // pre-built spatial files (see SpatialArtifacts)
+        SpatialArtifacts.addToCache(job);
+        
         job.setJarByClass(PreProcessing.class);
    
         long start = System.currentTimeMillis();
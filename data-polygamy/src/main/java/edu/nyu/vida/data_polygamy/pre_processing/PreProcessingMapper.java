@@ -27,6 +27,7 @@ import edu.nyu.vida.data_polygamy.scalar_function.CountGradient;
 import edu.nyu.vida.data_polygamy.resolution.SpatialResolution;
 import edu.nyu.vida.data_polygamy.resolution.SpatialResolutionUtils;
 import edu.nyu.vida.data_polygamy.resolution.ToCity;
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AggregationArrayWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Function;
@@ -55,6 +56,13 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
     // parameter names
     String[] parameterNames, keyNames, paramDefaults;
     
+    // parsed default values (0 and hasDefault false if none)
+    boolean[] hasDefault;
+    float[] defaultValues;
+    
+    // input line
+    CSVTokenizer input = new CSVTokenizer();
+    
     // aggregation functions for each parameter
     boolean aggregatesInit = false;
     ArrayList<Integer> aggregatesIndex = new ArrayList<Integer>();
@@ -207,6 +215,17 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
         if (s3)
         	fs.close();
         
+        hasDefault = new boolean[paramDefaults.length];
+        defaultValues = new float[paramDefaults.length];
+        for (int i = 0; i < paramDefaults.length; i++) {
+            if (paramDefaults[i].equals("NONE"))
+                continue;
+            try {
+                defaultValues[i] = Float.parseFloat(paramDefaults[i]);
+                hasDefault[i] = true;
+            } catch (NumberFormatException e) {}
+        }
+        
         temporalResolution = utils.temporalResolution(conf.get("temporal-resolution"));
         spatialResolution = utils.spatialResolution(conf.get("spatial-resolution"));
         currentSpatialResolution = utils.spatialResolution(conf.get("current-spatial-resolution"));
@@ -280,11 +299,8 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
     public void map(LongWritable key, Text value, Context context)
             throws IOException, InterruptedException {
     	
-        String[] input;
-        
         try {
-            input = FrameworkUtils.splitStr(value.toString(),
-                    parameterNames.length);
+            input.tokenize(value, parameterNames.length);
         } catch (IOException e) {
             System.out.println("Error while parsing line: " + e.getLocalizedMessage());
             return;
@@ -329,7 +345,7 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
         // identifying all the aggregates for each parameter
         // done only once
         if (!aggregatesInit) {
-            identifyAggregates(input);
+            identifyAggregates(input.getStrings(parameterNames.length));
             aggregatesInit = true;
         }
         
@@ -340,11 +356,10 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
         
         ArrayList<Aggregation> output = new ArrayList<Aggregation>();
         Iterator<Integer> it = aggregatesIndex.iterator();
-        Float defaultVal;
         while (it.hasNext()) {
             int uniqueIndex = it.next();
             int index = attributeIndex.get(uniqueIndex);
-            Float floatVal = 0f;
+            float floatVal = 0f;
             
             // count
             if (index == -1) {
@@ -365,18 +380,14 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
             
             // others
             try {
-                floatVal = Float.parseFloat(input[index]);
-                if (floatVal == null)
-                    floatVal = Float.NaN;
+                floatVal = input.getFloat(index);
             } catch (NumberFormatException e) {
                 floatVal = Float.NaN;
             }
-            if (!paramDefaults[index].equals("NONE")) {
-                try {
-                    defaultVal = Float.parseFloat(paramDefaults[index]);
-                    if (floatVal.equals(defaultVal))
-                        floatVal = Float.NaN;
-                } catch (NumberFormatException e) {}
+            if (hasDefault[index]) {
+                // same as Float.equals
+                if (Float.floatToIntBits(floatVal) == Float.floatToIntBits(defaultValues[index]))
+                    floatVal = Float.NaN;
             }
             
             Aggregation agg = FrameworkUtils.getAggregation(aggregateFunctions.get(uniqueIndex));
@@ -395,6 +406,9 @@ public class PreProcessingMapper extends Mapper<LongWritable, Text, MultipleSpat
     @Override
     public void cleanup(Context context) throws IOException {
         
+        if (spatialTranslation != null)
+            spatialTranslation.close();
+        
     	if (records > 0) {
     	    conf = context.getConfiguration();
     	    Path headerFile = null;
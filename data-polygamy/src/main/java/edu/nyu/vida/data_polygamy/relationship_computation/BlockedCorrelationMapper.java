@@ -0,0 +1,126 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.relationship_computation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeTimeSeriesWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairDatasetWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+
+/**
+ * Blocked version of CorrelationMapper: instead of emitting each time series
+ *   once per attribute of the compared dataset, it is emitted once per
+ *   compared dataset, and the reducer evaluates all the attribute pairs.
+ *
+ * If 'relationship-tile-size' is set, the attributes of each dataset are
+ *   split into tiles of that size, and each pair of tiles goes to a different
+ *   reducer; a time series is then emitted once per tile of the compared dataset.
+ */
+public class BlockedCorrelationMapper extends Mapper<AttributeResolutionWritable, TopologyTimeSeriesWritable, PairDatasetWritable, AttributeTimeSeriesWritable> {
+
+    public static FrameworkUtils utils = new FrameworkUtils();
+
+    HashMap<Integer,Integer> datasetAggSize = new HashMap<Integer,Integer>();
+    HashSet<Integer> firstGroup = new HashSet<Integer>();
+    HashSet<Integer> secondGroup = new HashSet<Integer>();
+    HashSet<String> noRelationship = new HashSet<String>();
+    int tileSize = 0;
+
+    PairDatasetWritable keyWritable = new PairDatasetWritable();
+    AttributeTimeSeriesWritable valueWritable = new AttributeTimeSeriesWritable();
+
+    @Override
+    public void setup(Context context)
+            throws IOException, InterruptedException {
+
+        Configuration conf = context.getConfiguration();
+
+        String[] datasetIdsStr = conf.get("dataset-keys","").split(",");
+        for (int i = 0; i < datasetIdsStr.length; i++) {
+            datasetAggSize.put(Integer.parseInt(datasetIdsStr[i]),
+                    Integer.parseInt(conf.get("dataset-" + datasetIdsStr[i] + "-agg-size","0")));
+        }
+
+        if (conf.get("no-relationship", "").length() > 0) {
+            String[] noRelationshipStr = conf.get("no-relationship").split(",");
+            for (String relationship : noRelationshipStr) {
+                String[] ids = relationship.split("-");
+                if (Integer.parseInt(ids[0]) < Integer.parseInt(ids[1])) {
+                    noRelationship.add(relationship);
+                } else {
+                    noRelationship.add(ids[1] + "-" + ids[0]);
+                }
+            }
+        }
+
+        String[] firstGroupStr = conf.get("first-group","").split(",");
+        String[] secondGroupStr = conf.get("second-group","").split(",");
+        for (String dataset : firstGroupStr) {
+            firstGroup.add(Integer.parseInt(dataset));
+        }
+        for (String dataset : secondGroupStr) {
+            secondGroup.add(Integer.parseInt(dataset));
+        }
+
+        tileSize = conf.getInt("relationship-tile-size", 0);
+    }
+
+    @Override
+    public void map(AttributeResolutionWritable key, TopologyTimeSeriesWritable value, Context context)
+            throws IOException, InterruptedException {
+
+        int attribute = key.getAttribute();
+        int dataset = key.getDataset();
+
+        if (firstGroup.contains(dataset))
+            generateAllDatasetPairs(key, value, context, attribute, dataset, secondGroup);
+        else if (secondGroup.contains(dataset))
+            generateAllDatasetPairs(key, value, context, attribute, dataset, firstGroup);
+        else {
+            System.out.println("Something went wrong... Dataset id not found in any group.");
+            System.exit(-1);
+        }
+    }
+
+    private int tile(int attribute) {
+        return (tileSize > 0) ? attribute / tileSize : 0;
+    }
+
+    private int nbTiles(int aggSize) {
+        return (tileSize > 0) ? (aggSize + tileSize - 1) / tileSize : 1;
+    }
+
+    public void generateAllDatasetPairs(AttributeResolutionWritable key, TopologyTimeSeriesWritable value,
+            Context context, int attribute, int dataset, HashSet<Integer> datasetIds) throws IOException, InterruptedException {
+
+        valueWritable = new AttributeTimeSeriesWritable(attribute, value);
+
+        for (int compareDataset : datasetIds) {
+            if (compareDataset == dataset) continue;
+
+            boolean first = (dataset < compareDataset);
+            int dataset1 = first ? dataset : compareDataset;
+            int dataset2 = first ? compareDataset : dataset;
+            String relationship = Integer.toString(dataset1) + "-" + Integer.toString(dataset2);
+            if (noRelationship.contains(relationship))
+                continue;
+
+            int compareTiles = nbTiles(datasetAggSize.get(compareDataset));
+            for (int i = 0; i < compareTiles; i++) {
+                keyWritable = new PairDatasetWritable(dataset1, dataset2,
+                        first ? tile(attribute) : i, first ? i : tile(attribute),
+                        key.getSpatialResolution(), key.getTemporalResolution(), value.getIsOutlier());
+                context.write(keyWritable, valueWritable);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.relationship_computation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeTimeSeriesWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairDatasetWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+
+/**
+ * Receives all the time series of a pair of datasets (or of a pair of
+ *   attribute tiles) and evaluates every pair of attributes in memory,
+ *   using the same code as CorrelationReducer.
+ */
+public class BlockedCorrelationReducer extends Reducer<PairDatasetWritable, AttributeTimeSeriesWritable, Text, Text> {
+
+    public static FrameworkUtils utils = new FrameworkUtils();
+
+    CorrelationReducer correlation = new CorrelationReducer();
+
+    // attribute -> time series of all regions
+    TreeMap<Integer,ArrayList<TopologyTimeSeriesWritable>> firstAttributes =
+            new TreeMap<Integer,ArrayList<TopologyTimeSeriesWritable>>();
+    TreeMap<Integer,ArrayList<TopologyTimeSeriesWritable>> secondAttributes =
+            new TreeMap<Integer,ArrayList<TopologyTimeSeriesWritable>>();
+
+    @Override
+    public void setup(Context context)
+            throws IOException, InterruptedException {
+        correlation.init(context.getConfiguration(), new MultipleOutputs<Text,Text>(context));
+    }
+
+    @Override
+    public void reduce(PairDatasetWritable key, Iterable<AttributeTimeSeriesWritable> values, Context context)
+            throws IOException, InterruptedException {
+
+        firstAttributes.clear();
+        secondAttributes.clear();
+
+        Iterator<AttributeTimeSeriesWritable> it = values.iterator();
+        AttributeTimeSeriesWritable value;
+        while (it.hasNext()) {
+            value = it.next();
+            TopologyTimeSeriesWritable timeSeries = value.getTimeSeries();
+
+            TreeMap<Integer,ArrayList<TopologyTimeSeriesWritable>> attributes =
+                    (timeSeries.getDataset() == key.getFirstDataset()) ? firstAttributes : secondAttributes;
+            ArrayList<TopologyTimeSeriesWritable> elem = attributes.get(value.getAttribute());
+            if (elem == null) {
+                elem = new ArrayList<TopologyTimeSeriesWritable>();
+                attributes.put(value.getAttribute(), elem);
+            }
+            elem.add(new TopologyTimeSeriesWritable(timeSeries));
+        }
+
+        for (Map.Entry<Integer,ArrayList<TopologyTimeSeriesWritable>> first : firstAttributes.entrySet()) {
+            for (Map.Entry<Integer,ArrayList<TopologyTimeSeriesWritable>> second : secondAttributes.entrySet()) {
+
+                PairAttributeWritable pairKey = new PairAttributeWritable(first.getKey(), second.getKey(),
+                        key.getFirstDataset(), key.getSecondDataset(),
+                        key.getSpatialResolution(), key.getTemporalResolution(), key.getIsOutlier());
+
+                correlation.prepare(pairKey);
+                for (TopologyTimeSeriesWritable timeSeries : first.getValue())
+                    correlation.setTimeSeries(correlation.dataset1Key, timeSeries);
+                for (TopologyTimeSeriesWritable timeSeries : second.getValue())
+                    correlation.setTimeSeries(correlation.dataset2Key, timeSeries);
+                correlation.evaluate(pairKey);
+            }
+        }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+        correlation.close();
+    }
+}
@@ -5,8 +5,6 @@ package edu.nyu.vida.data_polygamy.relationship_computation;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Random;
@@ -15,19 +13,17 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.Days;
-import org.joda.time.Hours;
-import org.joda.time.Months;
-import org.joda.time.Weeks;
-import org.joda.time.Years;
 
+import edu.nyu.vida.data_polygamy.utils.CalendarUtils;
+import edu.nyu.vida.data_polygamy.utils.CostPartitioner;
+import edu.nyu.vida.data_polygamy.utils.EventBits;
+import edu.nyu.vida.data_polygamy.utils.EventOffsets;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TimeSeriesStats;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
 import edu.nyu.vida.data_polygamy.utils.SpatialGraph;
+import edu.nyu.vida.data_polygamy.utils.SpatialShifts;
 
 public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyTimeSeriesWritable, Text, Text> {
     
@@ -50,11 +46,11 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
     
     // spatial information
     SpatialGraph spatialGraph = new SpatialGraph();
-    SpatialGraph nbhdGraph = new SpatialGraph();
-    SpatialGraph zipGraph = new SpatialGraph();
-    SpatialGraph blockGraph = new SpatialGraph();
+    // graphs shared by the tasks of the JVM (see SpatialResources),
+    //  acquired with the first key of their resolution
+    HashMap<Integer,SpatialGraph> graphs = new HashMap<Integer,SpatialGraph>();
     int gridSize = 0;
-    int[][] originalGrid;
+    int gridSide = 0;
     boolean isBlock = false;
     boolean isNbhd = false;
     boolean isGrid = false;
@@ -88,15 +84,61 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
     float alpha = 0.05f;
     static int repetitions = 1000;
     
+    // repetitions are split among 'permutation-threads' workers
+    PermutationExecutor executor;
+    // with 'sequential-error', the test may stop before all the repetitions
+    //  (see PermutationExecutor), and the number of repetitions used is
+    //  added to the output
+    int usedRepetitions = 0;
+    
     ArrayList<TopologyTimeSeriesWritable[]> timeSeriesPerSpatial = new ArrayList<TopologyTimeSeriesWritable[]>();
     
+    // scratch space for the spatial permutations, one per thread
+    static class PermutationBuffers {
+        int[] mapping = new int[0];
+        int[] perm = new int[0];
+        SpatialGraph.Workspace workspace = new SpatialGraph.Workspace();
+        
+        void ensureCapacity(int size) {
+            if (mapping.length < size) {
+                mapping = new int[size];
+                perm = new int[size];
+            }
+        }
+    }
+    
+    ThreadLocal<PermutationBuffers> permutationBuffers = new ThreadLocal<PermutationBuffers>() {
+        @Override
+        protected PermutationBuffers initialValue() {
+            return new PermutationBuffers();
+        }
+    };
+    
+    // with 'permutation-bank', spatial permutations are generated once
+    //  per spatial resolution and reused by all the keys (see PermutationBank)
+    boolean usePermutationBank = false;
+    static final long permutationBankSeed = 0x5DEECE66DL;
+    HashMap<Integer,PermutationBank> permutationBanks = new HashMap<Integer,PermutationBank>();
+    
+    // estimated vs actual cost of the reducer, with 'cost-partitioner'
+    CostPartitioner.Log<PairAttributeWritable> costLog = null;
+    
     Text keyWritable = new Text();
     Text valueWritable = new Text();
     
     boolean s3 = true;
     private MultipleOutputs<Text,Text> out;
     
-    private void resolutionHandler(int spatialResolution, int temporalResolution) {
+    private SpatialGraph graph(int spatialResolution) throws IOException {
+        SpatialGraph graph = graphs.get(spatialResolution);
+        if (graph == null) {
+            graph = SpatialGraph.acquire(spatialResolution, conf);
+            graphs.put(spatialResolution, graph);
+        }
+        return graph;
+    }
+    
+    private void resolutionHandler(int spatialResolution, int temporalResolution) throws IOException {
     	spatial = spatialResolution;
         temporal = temporalResolution;
         
@@ -115,15 +157,15 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
         
         switch(spatial) {
         case FrameworkUtils.NBHD:
-            spatialGraph.init(nbhdGraph);
+            spatialGraph.init(graph(spatial));
             isNbhd = true;
             break;
         case FrameworkUtils.ZIP:
-        	spatialGraph.init(zipGraph);
+        	spatialGraph.init(graph(spatial));
         	isZip = true;
         	break;
         case FrameworkUtils.BLOCK:
-            spatialGraph.init(blockGraph);
+            spatialGraph.init(graph(spatial));
             isBlock = true;
             break;
         case FrameworkUtils.GRID:
@@ -162,9 +204,18 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
     @Override
     public void setup(Context context)
             throws IOException, InterruptedException {
+        init(context.getConfiguration(), new MultipleOutputs<Text,Text>(context));
+        if (context.getConfiguration().getBoolean("cost-partitioner", false))
+            costLog = new CostPartitioner.Log<PairAttributeWritable>(
+                    new CostPartitioner.PairAttributePartitioner<TopologyTimeSeriesWritable>(),
+                    context.getConfiguration());
+    }
+    
+    // also used by BlockedCorrelationReducer
+    void init(Configuration conf, MultipleOutputs<Text,Text> out) throws IOException {
         
-    	out = new MultipleOutputs<Text,Text>(context);
-        conf = context.getConfiguration();
+        this.out = out;
+        this.conf = conf;
         
         String[] datasetIdsStr = conf.get("dataset-keys","").split(",");
         String[] datasetNames = conf.get("dataset-names","").split(",");
@@ -206,24 +257,15 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
         randomizationStr = conf.get("complete-random-str","");
         outputIds = conf.getBoolean("output-ids", false);
         tmp = Boolean.parseBoolean(conf.get("tmp"));
+        executor = new PermutationExecutor(conf.getInt("permutation-threads", 1));
+        String sequentialErrorStr = conf.get("sequential-error", "");
+        if (!sequentialErrorStr.isEmpty())
+            executor.setSequential(Double.parseDouble(sequentialErrorStr));
+        usePermutationBank = conf.getBoolean("permutation-bank", false);
         
-        // nbhd grapgh
-        nbhdGraph.init(FrameworkUtils.NBHD, conf);
-        
-        // zipcode graph
-        zipGraph.init(FrameworkUtils.ZIP, conf);
-        
-        // block graph
-        blockGraph.init(FrameworkUtils.BLOCK, conf);
-        
-        // grid
+        // grid (number of regions; toroidal shifts need a square grid)
         gridSize = 2048;
         //gridSize = Integer.parseInt(conf.get("spatial-resolution").replace("grid", ""));
-        originalGrid = new int[gridSize][gridSize];
-        for (int j = 0; j < gridSize; j++) {
-            for (int i = 0; i < gridSize; i++)
-                originalGrid[i][j] = j * gridSize + i;
-        }
     }
     
     @Override
@@ -231,6 +273,33 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
             throws IOException, InterruptedException {
     	
     	//long start = System.currentTimeMillis();
+        if (costLog != null)
+            costLog.start(key);
+        
+        prepare(key);
+        
+        Iterator<TopologyTimeSeriesWritable> it = values.iterator();
+        TopologyTimeSeriesWritable timeSeries;
+        while (it.hasNext()) {
+            timeSeries = it.next();
+            int dataset = timeSeries.getDataset();
+            
+            int datasetKey = 0;
+            if (dataset == dataset1)
+                datasetKey = dataset1Key;
+            else
+                datasetKey = dataset2Key;
+            
+            setTimeSeries(datasetKey, new TopologyTimeSeriesWritable(timeSeries));
+        }
+        
+        evaluate(key);
+    }
+    
+    /**
+     * Resets the per-region time series for a new pair of attributes.
+     */
+    void prepare(PairAttributeWritable key) throws IOException {
         
         timeSeriesPerSpatial.clear();
         resolutionHandler(key.getSpatialResolution(), key.getTemporalResolution());
@@ -263,6 +332,14 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
         
         size = timeSeriesPerSpatial.size();
         
+        if (isGrid && !completeRandomization) {
+            gridSide = SpatialShifts.gridSide(size);
+            if (gridSide < 0) {
+                System.out.println("Toroidal shift needs a square grid: " + size + " regions.");
+                System.exit(-1);
+            }
+        }
+        
         // initializing some variables
         dataset1 = key.getFirstDataset();
         dataset2 = key.getSecondDataset();
@@ -271,28 +348,24 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
                 + utils.spatialResolutionStr(key.getSpatialResolution()) + "-"
                 + ((key.getIsOutlier()) ? "outliers" : "events") + "-"
                 + randomizationStr + "/data";
-        
-        Iterator<TopologyTimeSeriesWritable> it = values.iterator();
-        TopologyTimeSeriesWritable timeSeries;
-        while (it.hasNext()) {
-            timeSeries = it.next();
-            int indexSpatial = timeSeries.getSpatial();
-            int dataset = timeSeries.getDataset();
-            
-            int datasetKey = 0;
-            if (dataset == dataset1)
-                datasetKey = dataset1Key;
-            else
-                datasetKey = dataset2Key;
-            
-            elem = timeSeriesPerSpatial.get(indexSpatial);
-            if (elem[datasetKey] != null) {
-                System.out.println("Something went wrong... Data already filled");
-                System.exit(-1);
-            }
-            elem[datasetKey] = new TopologyTimeSeriesWritable(timeSeries);
-            timeSeriesPerSpatial.set(indexSpatial, elem);
+    }
+    
+    void setTimeSeries(int datasetKey, TopologyTimeSeriesWritable timeSeries) {
+        TopologyTimeSeriesWritable[] elem = timeSeriesPerSpatial.get(timeSeries.getSpatial());
+        if (elem[datasetKey] != null) {
+            System.out.println("Something went wrong... Data already filled");
+            System.exit(-1);
         }
+        elem[datasetKey] = timeSeries;
+    }
+    
+    /**
+     * Computes the relationship between the two attributes
+     *   and performs the significance test.
+     */
+    void evaluate(PairAttributeWritable key) throws IOException, InterruptedException {
+        
+        TopologyTimeSeriesWritable[] elem;
         
         /*
          * Aligned Score and Strength
@@ -336,7 +409,7 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
          */
         
         float pValue = 0;
-        ArrayList<Integer[]> pairs = new ArrayList<Integer[]>();
+        usedRepetitions = 0;
         
         //long start2 = System.currentTimeMillis();
         
@@ -350,47 +423,30 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
             }
                     
         } else {
+            
+            PermutationExecutor.Permutation permutation;
         
             switch(spatial) {
             
             case FrameworkUtils.GRID:
                 
-                for (int j = 0; j < repetitions; j++) {
-                    pairs.clear();
-                    pairs = (completeRandomization) ? spatialCompleteRandom() : toroidalShift();
-                    
-                    stats = new TimeSeriesStats();
-                    for (int i = 0; i < pairs.size(); i++) {
-                        Integer[] pair = pairs.get(i);
-                        stats.add(getStats(temporal, timeSeriesPerSpatial.get(pair[0])[dataset1Key],
-                                timeSeriesPerSpatial.get(pair[1])[dataset2Key], false));
-                    }
-                    stats.computeScores();
-                    
-                    float mcScore = stats.getRelationshipScore();
-                    //float mcStrength = stats.getRelationshipStrength();
-                    
-                    if (alignedScore > 0) {
-                        if (mcScore >= alignedScore)
-                            pValue += 1;
-                    }
-                    else {
-                        if (mcScore <= alignedScore)
-                            pValue += 1;
-                    }
-                    if (pValue > (alpha*repetitions)) break; // pruning
+                if (usePermutationBank) {
+                    permutation = bankPermutation();
+                    break;
                 }
                 
-                pValue = pValue/((float)(repetitions));
-                if (!tmp) {
-                    if ((!removeNotSignificant) || ((pValue <= alpha) && (removeNotSignificant))) {
-                        emitKeyValue(outputIds, key, alignedScore, alignedStrength, pValue, nMatchEvents,
-                                nMatchPosEvents, nMatchNegEvents, nPosFirstNonSecond,
-                                nNegFirstNonSecond, nNonFirstPosSecond, nNonFirstNegSecond,
-                                nPosFirstPosSecond, nNegFirstNegSecond, nPosFirstNegSecond, nNegFirstPosSecond);
+                permutation = new PermutationExecutor.Permutation() {
+                    @Override
+                    public float score(int repetition, Random random) {
+                        PermutationBuffers buffers = permutationBuffers.get();
+                        buffers.ensureCapacity(size);
+                        if (completeRandomization)
+                            SpatialShifts.completeRandom(random, size, buffers.perm, buffers.mapping);
+                        else
+                            SpatialShifts.toroidalShift(random, gridSide, buffers.mapping);
+                        return permutationScore(buffers.mapping);
                     }
-                }
-                
+                };
                 break;
                 
             case FrameworkUtils.CITY:
@@ -400,90 +456,99 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
                     System.exit(-1);
                 }
                 
-                elem = timeSeriesPerSpatial.get(0);
+                final TopologyTimeSeriesWritable[] cityElem = timeSeriesPerSpatial.get(0);
                 
-                for (int j = 0; j < repetitions; j++) {
-                	//long startCity = System.currentTimeMillis();
-                    stats = new TimeSeriesStats();
-                    stats.add(getStats(temporal, elem[dataset1Key], elem[dataset2Key], true));
-                    
-                    stats.computeScores();
-                    
-                    float mcScore = stats.getRelationshipScore();
-                    //float mcStrength = stats.getRelationshipStrength();
-                    
-                    if (alignedScore > 0) {
-                        if (mcScore >= alignedScore)
-                            pValue += 1;
+                permutation = new PermutationExecutor.Permutation() {
+                    @Override
+                    public float score(int repetition, Random random) {
+                        TimeSeriesStats mcStats = new TimeSeriesStats();
+                        mcStats.add(getStats(temporal, cityElem[dataset1Key], cityElem[dataset2Key], random));
+                        mcStats.computeScores();
+                        return mcStats.getRelationshipScore();
                     }
-                    else {
-                        if (mcScore <= alignedScore)
-                            pValue += 1;
-                    }
-                    if (pValue > (alpha*repetitions)) break; // pruning
-                    //long endCity = System.currentTimeMillis();
-                    //if (j == 0) System.out.println("One repetition: " + (endCity-startCity) + " ms");
-                }
-                
-                pValue = pValue/((float)(repetitions));
-                if (!tmp) {
-                    if ((!removeNotSignificant) || ((pValue <= alpha) && (removeNotSignificant))) {
-                        emitKeyValue(outputIds, key, alignedScore, alignedStrength, pValue, nMatchEvents,
-                                nMatchPosEvents, nMatchNegEvents, nPosFirstNonSecond,
-                                nNegFirstNonSecond, nNonFirstPosSecond, nNonFirstNegSecond,
-                                nPosFirstPosSecond, nNegFirstNegSecond, nPosFirstNegSecond, nNegFirstPosSecond);
-                    }
-                }
-            
+                };
                 break;
                 
             default:
                 
-                for (int j = 0; j < repetitions; j++) {
-                    //long startNbhd = System.currentTimeMillis();
-                    pairs.clear();
-                    pairs = (completeRandomization) ? spatialCompleteRandom() : bfsShift();
-                    
-                    stats = new TimeSeriesStats();
-                    for (int i = 0; i < pairs.size(); i++) {
-                        Integer[] pair = pairs.get(i);
-                        stats.add(getStats(temporal, timeSeriesPerSpatial.get(pair[0])[dataset1Key],
-                                timeSeriesPerSpatial.get(pair[1])[dataset2Key], false));
-                    }
-                    stats.computeScores();
-                    
-                    float mcScore = stats.getRelationshipScore();
-                    //float mcStrength = stats.getRelationshipStrength();
-                    
-                    if (alignedScore > 0) {
-                        if (mcScore >= alignedScore)
-                            pValue += 1;
-                    }
-                    else {
-                        if (mcScore <= alignedScore)
-                            pValue += 1;
-                    }
-                    if (pValue > (alpha*repetitions)) break; // pruning
-                    //long endNbhd = System.currentTimeMillis();
-                    //if (j == 0) System.out.println("One repetition: " + (endNbhd-startNbhd) + " ms");
+                if (usePermutationBank) {
+                    permutation = bankPermutation();
+                    break;
                 }
                 
-                pValue = pValue/((float)(repetitions));
-                if (!tmp) {
-                    if ((!removeNotSignificant) || ((pValue <= alpha) && (removeNotSignificant))) {
-                        emitKeyValue(outputIds, key, alignedScore, alignedStrength, pValue, nMatchEvents,
-                                nMatchPosEvents, nMatchNegEvents, nPosFirstNonSecond,
-                                nNegFirstNonSecond, nNonFirstPosSecond, nNonFirstNegSecond,
-                                nPosFirstPosSecond, nNegFirstNegSecond, nPosFirstNegSecond, nNegFirstPosSecond);
+                permutation = new PermutationExecutor.Permutation() {
+                    @Override
+                    public float score(int repetition, Random random) {
+                        PermutationBuffers buffers = permutationBuffers.get();
+                        buffers.ensureCapacity(size);
+                        // TODO: we may not have all the neighborhoods for the data
+                        if (completeRandomization)
+                            SpatialShifts.completeRandom(random, size, buffers.perm, buffers.mapping);
+                        else
+                            spatialGraph.generateRandomShift(random, buffers.workspace, buffers.mapping);
+                        return permutationScore(buffers.mapping);
                     }
-                }
-                
+                };
                 break;
             }
+            
+            PermutationExecutor.Result result = executor.run(permutation, alignedScore, repetitions,
+                    alpha, (int) Math.floor(alpha*repetitions), key.hashCode());
+            usedRepetitions = result.repetitions;
+            
+            // in sequential mode, the test may stop early in both directions,
+            //  so the p-value is estimated from the repetitions actually used
+            pValue = (executor.isSequential()) ? result.exceedances/((float)(result.repetitions)) :
+                result.exceedances/((float)(repetitions));
+            if (!tmp) {
+                if ((!removeNotSignificant) || ((pValue <= alpha) && (removeNotSignificant))) {
+                    emitKeyValue(outputIds, key, alignedScore, alignedStrength, pValue, nMatchEvents,
+                            nMatchPosEvents, nMatchNegEvents, nPosFirstNonSecond,
+                            nNegFirstNonSecond, nNonFirstPosSecond, nNonFirstNegSecond,
+                            nPosFirstPosSecond, nNegFirstNegSecond, nPosFirstNegSecond, nNegFirstPosSecond);
+                }
+            }
         }
         
     }
     
+    /**
+     * Permutation test over the bank of the current spatial resolution,
+     *   which is generated the first time the resolution is seen.
+     */
+    private PermutationExecutor.Permutation bankPermutation() {
+        PermutationBank bank = permutationBanks.get(spatial);
+        if (bank == null) {
+            long seed = PermutationExecutor.workerSeed(permutationBankSeed, spatial);
+            if (completeRandomization)
+                bank = PermutationBank.completeRandom(seed, repetitions, size);
+            else if (isGrid)
+                bank = PermutationBank.toroidalShift(seed, repetitions, gridSide);
+            else
+                bank = PermutationBank.randomShift(seed, repetitions, spatialGraph);
+            permutationBanks.put(spatial, bank);
+        }
+        
+        final PermutationBank permutationBank = bank;
+        return new PermutationExecutor.Permutation() {
+            @Override
+            public float score(int repetition, Random random) {
+                return permutationScore(permutationBank.get(repetition));
+            }
+        };
+    }
+    
+    private float permutationScore(int[] mapping) {
+        TimeSeriesStats mcStats = new TimeSeriesStats();
+        for (int i = 0; i < size; i++) {
+            if (mapping[i] < 0) continue;
+            mcStats.add(getStats(temporal, timeSeriesPerSpatial.get(i)[dataset1Key],
+                    timeSeriesPerSpatial.get(mapping[i])[dataset2Key], false));
+        }
+        mcStats.computeScores();
+        return mcStats.getRelationshipScore();
+    }
+    
     private void emitKeyValue(boolean outputIds, PairAttributeWritable key, float score, float strength, 
             float pValue, float nMatchEvents, float nMatchPosEvents,
             float nMatchNegEvents, float nPosFirstNonSecond,
@@ -504,12 +569,23 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
                 + nMatchEvents + "," + nMatchPosEvents + "," + nMatchNegEvents + "," + nPosFirstNonSecond
                 + "," + nNegFirstNonSecond + "," + nNonFirstPosSecond + "," + nNonFirstNegSecond
                 + "," + nPosFirstPosSecond + "," + nNegFirstNegSecond + "," + nPosFirstNegSecond
-                + "," + nNegFirstPosSecond);
+                + "," + nNegFirstPosSecond
+                + ((executor.isSequential()) ? "," + usedRepetitions : ""));
         out.write(keyWritable, valueWritable, fileName);
     }
     
     @Override
     public void cleanup(Context context) throws IOException, InterruptedException {
+        if (costLog != null)
+            costLog.print(context);
+        close();
+    }
+    
+    void close() throws IOException, InterruptedException {
+        for (int resolution : graphs.keySet())
+            SpatialGraph.release(resolution, conf);
+        graphs.clear();
+        executor.shutdown();
     	out.close();
     }
     
@@ -520,10 +596,25 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
                 false, 0);
     }
     
+    public static TimeSeriesStats getStats(int temporal, TopologyTimeSeriesWritable timeSeries1,
+            TopologyTimeSeriesWritable timeSeries2, Random random) {
+        
+        return getStats(temporal, timeSeries1, timeSeries2, true,
+                false, 0, random);
+    }
+    
     public static TimeSeriesStats getStats(int temporal, TopologyTimeSeriesWritable timeSeries1,
             TopologyTimeSeriesWritable timeSeries2, boolean temporalPermutationTest,
             boolean checkIntersection, int size) {
         
+        return getStats(temporal, timeSeries1, timeSeries2, temporalPermutationTest,
+                checkIntersection, size, (temporalPermutationTest) ? new Random() : null);
+    }
+    
+    public static TimeSeriesStats getStats(int temporal, TopologyTimeSeriesWritable timeSeries1,
+            TopologyTimeSeriesWritable timeSeries2, boolean temporalPermutationTest,
+            boolean checkIntersection, int size, Random random) {
+        
         TimeSeriesStats output = new TimeSeriesStats();
         
         if ((timeSeries1 == null) || (timeSeries2 == null))
@@ -541,77 +632,31 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
         
         output.setIntersect(true);
         
-        DateTime start1Obj = new DateTime(start1*1000, DateTimeZone.UTC);
-        DateTime end1Obj = new DateTime(end1*1000, DateTimeZone.UTC);
-        DateTime start2Obj = new DateTime(start2*1000, DateTimeZone.UTC);
-        DateTime end2Obj = new DateTime(end2*1000, DateTimeZone.UTC);
+        int length1 = timeSeries1.getLength();
+        int length2 = timeSeries2.getLength();
         
-        byte[] eventTimeSeries1 = timeSeries1.getTimeSeries();
-        byte[] eventTimeSeries2 = timeSeries2.getTimeSeries();
-        
-        int startRange = 0;
-        int endRange = 0;
-        
-        switch(temporal) {
-        case FrameworkUtils.HOUR:
-            startRange = (start1 > start2) ? Hours.hoursBetween(start2Obj, start1Obj).getHours() :
-                Hours.hoursBetween(start1Obj, start2Obj).getHours();
-            endRange = (end1 > end2) ? Hours.hoursBetween(end2Obj, end1Obj).getHours() :
-                Hours.hoursBetween(end1Obj, end2Obj).getHours();
-            break;
-        case FrameworkUtils.DAY:
-            startRange = (start1 > start2) ? Days.daysBetween(start2Obj, start1Obj).getDays() :
-                Days.daysBetween(start1Obj, start2Obj).getDays();
-            endRange = (end1 > end2) ? Days.daysBetween(end2Obj, end1Obj).getDays() :
-                Days.daysBetween(end1Obj, end2Obj).getDays();
-            break;
-        case FrameworkUtils.WEEK:
-            startRange = (start1 > start2) ? Weeks.weeksBetween(start2Obj, start1Obj).getWeeks() :
-                Weeks.weeksBetween(start1Obj, start2Obj).getWeeks();
-            endRange = (end1 > end2) ? Weeks.weeksBetween(end2Obj, end1Obj).getWeeks() :
-                Weeks.weeksBetween(end1Obj, end2Obj).getWeeks();
-            break;
-        case FrameworkUtils.MONTH:
-            startRange = (start1 > start2) ? Months.monthsBetween(start2Obj, start1Obj).getMonths() :
-                Months.monthsBetween(start1Obj, start2Obj).getMonths();
-            endRange = (end1 > end2) ? Months.monthsBetween(end2Obj, end1Obj).getMonths() :
-                Months.monthsBetween(end1Obj, end2Obj).getMonths();
-            break;
-        case FrameworkUtils.YEAR:
-            startRange = (start1 > start2) ? Years.yearsBetween(start2Obj, start1Obj).getYears() :
-                Years.yearsBetween(start1Obj, start2Obj).getYears();
-            endRange = (end1 > end2) ? Years.yearsBetween(end2Obj, end1Obj).getYears() :
-                Years.yearsBetween(end1Obj, end2Obj).getYears();
-            break;
-        default:
-            startRange = (start1 > start2) ? Hours.hoursBetween(start2Obj, start1Obj).getHours() :
-                Hours.hoursBetween(start1Obj, start2Obj).getHours();
-            endRange = (end1 > end2) ? Hours.hoursBetween(end2Obj, end1Obj).getHours() :
-                Hours.hoursBetween(end1Obj, end2Obj).getHours();
-            break;
-        }
+        int startRange = CalendarUtils.stepsBetween(temporal, Math.min(start1, start2), Math.max(start1, start2));
+        int endRange = CalendarUtils.stepsBetween(temporal, Math.min(end1, end2), Math.max(end1, end2));
         
         int indexStart1 = (start2 > start1) ? startRange : 0;
         int indexStart2 = (start2 > start1) ? 0 : startRange;
-        int indexEnd1 = (end2 > end1) ? eventTimeSeries1.length : eventTimeSeries1.length - endRange;
-        int indexEnd2 = (end2 > end1) ? eventTimeSeries2.length - endRange : eventTimeSeries2.length;
+        int indexEnd1 = (end2 > end1) ? length1 : length1 - endRange;
+        int indexEnd2 = (end2 > end1) ? length2 - endRange : length2;
         
-        /*DateTime startIntersect = FrameworkUtils.addTime(temporal, indexStart1, start1Obj);
-        if (!(startIntersect.isEqual(FrameworkUtils.addTime(temporal, indexStart2, start2Obj)))) {
+        /*long startIntersect = CalendarUtils.addSteps(temporal, indexStart1, start1);
+        if (startIntersect != CalendarUtils.addSteps(temporal, indexStart2, start2)) {
             System.out.println("Something went wrong... Different starts");
             System.exit(-1);
         }*/
         
-        byte[] timeSeries1Int = Arrays.copyOfRange(eventTimeSeries1, indexStart1, indexEnd1);
-        byte[] timeSeries2Int = Arrays.copyOfRange(eventTimeSeries2, indexStart2, indexEnd2);
-        
-        if (timeSeries1Int.length != timeSeries2Int.length) {
+        int length = indexEnd1 - indexStart1;
+        if (length != (indexEnd2 - indexStart2)) {
             System.out.println("Something went wrong... Different sizes");
             System.exit(-1);
         }
         
         if (checkIntersection) {
-            if ((indexEnd1 - indexStart1)*size < repetitions) {
+            if (length*size < repetitions) {
                 output.setEnoughPoints(false);
             }
         }
@@ -628,59 +673,78 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
         int nNonFirstPosSecond = 0;
         int nNonFirstNegSecond = 0;
         
-        //String eventDateTime = null;
-        int indexD1 = (temporalPermutationTest) ? new Random().nextInt(timeSeries1Int.length) : 0;
-        int indexD2 = (temporalPermutationTest) ? new Random().nextInt(timeSeries2Int.length) : 0;
-        for (int i = 0; i < timeSeries1Int.length; i++) {
-            int j = (indexD1 + i) % timeSeries1Int.length;
-            int k = (indexD2 + i) % timeSeries2Int.length;            
-            byte result = (byte) (timeSeries1Int[j] | timeSeries2Int[k]);
+        int indexD1 = (temporalPermutationTest) ? random.nextInt(length) : 0;
+        int indexD2 = (temporalPermutationTest) ? random.nextInt(length) : 0;
+        
+        if (timeSeries1.isSparse() || timeSeries2.isSparse()) {
             
-            //eventDateTime = FrameworkUtils.getTemporalStr(
-            //        temporal, FrameworkUtils.addTime(temporal, j, startIntersect));
+            // walking the event offsets of the series with fewer events
+            //  against the bitsets of the other one: O(#events)
+            //  non-events are whatever is left in the intersection
+            int[] pos1 = timeSeries1.getPositiveOffsets();
+            int[] neg1 = timeSeries1.getNegativeOffsets();
+            int[] pos2 = timeSeries2.getPositiveOffsets();
+            int[] neg2 = timeSeries2.getNegativeOffsets();
+            int nPos1 = EventOffsets.count(pos1, indexStart1, indexStart1 + length);
+            int nNeg1 = EventOffsets.count(neg1, indexStart1, indexStart1 + length);
+            int nPos2 = EventOffsets.count(pos2, indexStart2, indexStart2 + length);
+            int nNeg2 = EventOffsets.count(neg2, indexStart2, indexStart2 + length);
             
-            switch(result) {
-            case FrameworkUtils.nonEventsMatch: // both non events
-                // do nothing
-                break;
-            case FrameworkUtils.posEventsMatch: // both positive
-                nMatchEvents++;
-                nMatchPosEvents++;
-                nPosFirstPosSecond++;
-                //output.addMatchPosEvents(eventDateTime);
-                break;
-            case FrameworkUtils.nonEventPosEventMatch: // one positive, one non-event
-                if (timeSeries1Int[j] == FrameworkUtils.positiveEvent)
-                    nPosFirstNonSecond++;
-                else
-                    nNonFirstPosSecond++;
-                break;
-            case FrameworkUtils.negEventsMatch: // both negative
-                nMatchEvents++;
-                nMatchPosEvents++;
-                nNegFirstNegSecond++;
-                //output.addMatchPosEvents(eventDateTime);
-                break;
-            case FrameworkUtils.nonEventNegEventMatch: // one negative, one non-event
-                if (timeSeries1Int[j] == FrameworkUtils.negativeEvent)
-                    nNegFirstNonSecond++;
-                else
-                    nNonFirstNegSecond++;
-                break;
-            case FrameworkUtils.negEventPosEventMatch: // one negative, one positive
-                nMatchEvents++;
-                nMatchNegEvents++;
-                if (timeSeries1Int[i] == FrameworkUtils.positiveEvent)
-                    nPosFirstNegSecond++;
-                else
-                    nNegFirstPosSecond++;
-                //output.addMatchNegEvents(eventDateTime);
-                break;
-            default:
-                System.out.println("Something went wrong... Wrong case");
-                System.exit(-1);
+            if (nPos1 + nNeg1 <= nPos2 + nNeg2) {
+                long[] posBits2 = timeSeries2.getPositive();
+                long[] negBits2 = timeSeries2.getNegative();
+                nPosFirstPosSecond = EventOffsets.match(pos1, indexStart1, indexD1, posBits2, indexStart2, indexD2, length);
+                nNegFirstNegSecond = EventOffsets.match(neg1, indexStart1, indexD1, negBits2, indexStart2, indexD2, length);
+                nPosFirstNegSecond = EventOffsets.match(pos1, indexStart1, indexD1, negBits2, indexStart2, indexD2, length);
+                nNegFirstPosSecond = EventOffsets.match(neg1, indexStart1, indexD1, posBits2, indexStart2, indexD2, length);
+            } else {
+                long[] posBits1 = timeSeries1.getPositive();
+                long[] negBits1 = timeSeries1.getNegative();
+                nPosFirstPosSecond = EventOffsets.match(pos2, indexStart2, indexD2, posBits1, indexStart1, indexD1, length);
+                nNegFirstNegSecond = EventOffsets.match(neg2, indexStart2, indexD2, negBits1, indexStart1, indexD1, length);
+                nPosFirstNegSecond = EventOffsets.match(neg2, indexStart2, indexD2, posBits1, indexStart1, indexD1, length);
+                nNegFirstPosSecond = EventOffsets.match(pos2, indexStart2, indexD2, negBits1, indexStart1, indexD1, length);
+            }
+            nPosFirstNonSecond = nPos1 - nPosFirstPosSecond - nPosFirstNegSecond;
+            nNegFirstNonSecond = nNeg1 - nNegFirstNegSecond - nNegFirstPosSecond;
+            nNonFirstPosSecond = nPos2 - nPosFirstPosSecond - nNegFirstPosSecond;
+            nNonFirstNegSecond = nNeg2 - nNegFirstNegSecond - nPosFirstNegSecond;
+            
+        } else {
+            
+            // matching 64 time steps at a time:
+            //  both intersections are read as rotated windows
+            //  (rotation is zero unless this is a temporal permutation)
+            long[] pos1 = timeSeries1.getPositive();
+            long[] neg1 = timeSeries1.getNegative();
+            long[] pos2 = timeSeries2.getPositive();
+            long[] neg2 = timeSeries2.getNegative();
+            for (int i = 0; i < length; i += 64) {
+                int count = Math.min(64, length - i);
+                long mask = EventBits.mask(count);
+                int j = (indexD1 + i) % length;
+                int k = (indexD2 + i) % length;
+                
+                long p1 = EventBits.window(pos1, indexStart1, length, j, count);
+                long n1 = EventBits.window(neg1, indexStart1, length, j, count);
+                long p2 = EventBits.window(pos2, indexStart2, length, k, count);
+                long n2 = EventBits.window(neg2, indexStart2, length, k, count);
+                long non1 = ~(p1 | n1) & mask;
+                long non2 = ~(p2 | n2) & mask;
+                
+                nPosFirstPosSecond += Long.bitCount(p1 & p2);
+                nNegFirstNegSecond += Long.bitCount(n1 & n2);
+                nPosFirstNegSecond += Long.bitCount(p1 & n2);
+                nNegFirstPosSecond += Long.bitCount(n1 & p2);
+                nPosFirstNonSecond += Long.bitCount(p1 & non2);
+                nNegFirstNonSecond += Long.bitCount(n1 & non2);
+                nNonFirstPosSecond += Long.bitCount(p2 & non1);
+                nNonFirstNegSecond += Long.bitCount(n2 & non1);
             }
         }
+        nMatchPosEvents = nPosFirstPosSecond + nNegFirstNegSecond;
+        nMatchNegEvents = nPosFirstNegSecond + nNegFirstPosSecond;
+        nMatchEvents = nMatchPosEvents + nMatchNegEvents;
         
         output.setParameters(
                 nMatchEvents,
@@ -697,56 +761,4 @@ public class CorrelationReducer extends Reducer<PairAttributeWritable, TopologyT
         
         return output;
     }
-    
-    private ArrayList<Integer[]> spatialCompleteRandom() {
-        
-        // each element inside the array list represents a pair
-        ArrayList<Integer[]> result = new ArrayList<Integer[]>();
-        
-        ArrayList<Integer> vals = new ArrayList<Integer>();
-        for (int k = 0; k < size; k++) {
-            vals.add(k);
-        }
-        Collections.shuffle(vals);
-        
-        for (int k = 0; k < size; k++) {
-            
-            Integer[] pair = new Integer[2];
-            pair[0] = vals.get(k);
-            pair[1] = k;
-            result.add(pair);
-        }
-        
-        return result;
-    }
-    
-    private ArrayList<Integer[]> toroidalShift() {
-        
-        // each element inside the array list represents a pair
-        ArrayList<Integer[]> result = new ArrayList<Integer[]>();
-        
-        Random random = new Random();
-        
-        int x = random.nextInt(gridSize);
-        int y = random.nextInt(gridSize);
-        
-        // shifted grid
-        for (int j = 0; j < gridSize; j++) {
-            for (int i = 0; i < gridSize; i++) {
-                int newX = (x + i) % gridSize;
-                int newY = (y + j) % gridSize;
-                Integer[] pair = new Integer[2];
-                pair[0] = originalGrid[i][j];
-                pair[1] = originalGrid[newX][newY];
-                result.add(pair);
-            }
-        }
-        
-        return result;
-    }
-    
-    // TODO: we may not have all the neighborhoods for the data
-    private ArrayList<Integer[]> bfsShift() {
-        return spatialGraph.generateRandomShift();
-    }
 }
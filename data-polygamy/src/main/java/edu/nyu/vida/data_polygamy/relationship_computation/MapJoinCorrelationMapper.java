@@ -0,0 +1,222 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.relationship_computation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+
+/**
+ * Map-only version of the relationship computation, for queries where the
+ *   first group of datasets is small: the index files of the first group are
+ *   shipped to every mapper through the distributed cache (with the prefix
+ *   'map-join-' in their link names) and loaded in memory, while the index
+ *   files of the second group are streamed as the input of the job.
+ *
+ * IndexCreationReducer writes all the time series of an attribute (for a given
+ *   resolution and type of feature) one after the other, so, as long as index
+ *   files are not split (see IndexInputFormat), each attribute of the second
+ *   group is complete when the next one starts.
+ */
+public class MapJoinCorrelationMapper extends Mapper<AttributeResolutionWritable, TopologyTimeSeriesWritable, Text, Text> {
+
+    public static FrameworkUtils utils = new FrameworkUtils();
+
+    public static final String cachePrefix = "map-join-";
+
+    CorrelationReducer correlation = new CorrelationReducer();
+
+    HashSet<Integer> firstGroup = new HashSet<Integer>();
+    HashSet<Integer> secondGroup = new HashSet<Integer>();
+    HashSet<String> noRelationship = new HashSet<String>();
+
+    // first group: resolution -> attributes
+    HashMap<String,ArrayList<CachedAttribute>> firstGroupIndex =
+            new HashMap<String,ArrayList<CachedAttribute>>();
+
+    // attribute of the second group currently being read
+    AttributeResolutionWritable currentKey = null;
+    boolean currentIsOutlier = false;
+    ArrayList<TopologyTimeSeriesWritable> currentTimeSeries = new ArrayList<TopologyTimeSeriesWritable>();
+
+    public static class CachedAttribute {
+        int dataset;
+        int attribute;
+        ArrayList<TopologyTimeSeriesWritable> timeSeries = new ArrayList<TopologyTimeSeriesWritable>();
+
+        public CachedAttribute(int dataset, int attribute) {
+            this.dataset = dataset;
+            this.attribute = attribute;
+        }
+    }
+
+    /**
+     * Index files must be read entirely by the same mapper.
+     */
+    public static class IndexInputFormat extends SequenceFileInputFormat<AttributeResolutionWritable, TopologyTimeSeriesWritable> {
+        @Override
+        protected boolean isSplitable(JobContext context, Path filename) {
+            return false;
+        }
+    }
+
+    private static String resolutionKey(int spatialRes, int tempRes, boolean isOutlier) {
+        return spatialRes + "-" + tempRes + "-" + isOutlier;
+    }
+
+    @Override
+    public void setup(Context context)
+            throws IOException, InterruptedException {
+
+        Configuration conf = context.getConfiguration();
+
+        if (conf.get("no-relationship", "").length() > 0) {
+            String[] noRelationshipStr = conf.get("no-relationship").split(",");
+            for (String relationship : noRelationshipStr) {
+                String[] ids = relationship.split("-");
+                if (Integer.parseInt(ids[0]) < Integer.parseInt(ids[1])) {
+                    noRelationship.add(relationship);
+                } else {
+                    noRelationship.add(ids[1] + "-" + ids[0]);
+                }
+            }
+        }
+
+        String[] firstGroupStr = conf.get("first-group","").split(",");
+        String[] secondGroupStr = conf.get("second-group","").split(",");
+        for (String dataset : firstGroupStr) {
+            firstGroup.add(Integer.parseInt(dataset));
+        }
+        for (String dataset : secondGroupStr) {
+            secondGroup.add(Integer.parseInt(dataset));
+        }
+
+        // loading first group
+        URI[] cacheFiles = context.getCacheFiles();
+        if (cacheFiles == null) {
+            System.out.println("Something went wrong... No index files in the distributed cache");
+            System.exit(-1);
+        }
+
+        AttributeResolutionWritable key = new AttributeResolutionWritable();
+        TopologyTimeSeriesWritable value = new TopologyTimeSeriesWritable();
+        HashMap<String,CachedAttribute> attributes = new HashMap<String,CachedAttribute>();
+        for (URI uri : cacheFiles) {
+            String link = uri.getFragment();
+            if ((link == null) || (!link.startsWith(cachePrefix)))
+                continue;
+
+            // the link is in the working directory of the task (local
+            //  file system), not in the default file system
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+                    SequenceFile.Reader.file(new Path(new File(link).toURI())));
+            while (reader.next(key, value)) {
+                if (!firstGroup.contains(key.getDataset()))
+                    continue;
+
+                String resolution = resolutionKey(key.getSpatialResolution(),
+                        key.getTemporalResolution(), value.getIsOutlier());
+                String attributeKey = resolution + "-" + key.getDataset() + "-" + key.getAttribute();
+                CachedAttribute attribute = attributes.get(attributeKey);
+                if (attribute == null) {
+                    attribute = new CachedAttribute(key.getDataset(), key.getAttribute());
+                    attributes.put(attributeKey, attribute);
+
+                    ArrayList<CachedAttribute> elem = firstGroupIndex.get(resolution);
+                    if (elem == null) {
+                        elem = new ArrayList<CachedAttribute>();
+                        firstGroupIndex.put(resolution, elem);
+                    }
+                    elem.add(attribute);
+                }
+                attribute.timeSeries.add(new TopologyTimeSeriesWritable(value));
+            }
+            reader.close();
+        }
+
+        correlation.init(conf, new MultipleOutputs<Text,Text>(context));
+    }
+
+    @Override
+    public void map(AttributeResolutionWritable key, TopologyTimeSeriesWritable value, Context context)
+            throws IOException, InterruptedException {
+
+        if ((currentKey == null) || (!currentKey.equals(key)) ||
+                (currentIsOutlier != value.getIsOutlier())) {
+            evaluateCurrent();
+            currentKey = new AttributeResolutionWritable(key.getAttribute(),
+                    key.getSpatialResolution(), key.getTemporalResolution(), key.getDataset());
+            currentIsOutlier = value.getIsOutlier();
+        }
+        currentTimeSeries.add(new TopologyTimeSeriesWritable(value));
+    }
+
+    private void evaluateCurrent() throws IOException, InterruptedException {
+
+        if (currentKey == null)
+            return;
+
+        int dataset = currentKey.getDataset();
+        ArrayList<CachedAttribute> attributes = firstGroupIndex.get(resolutionKey(
+                currentKey.getSpatialResolution(), currentKey.getTemporalResolution(), currentIsOutlier));
+
+        if (attributes != null) {
+            for (CachedAttribute attribute : attributes) {
+                if (attribute.dataset == dataset) continue;
+
+                // datasets in both groups are streamed and cached:
+                //  pair is evaluated only when streaming the dataset with larger id
+                if (firstGroup.contains(dataset) && secondGroup.contains(attribute.dataset)
+                        && (dataset < attribute.dataset)) continue;
+
+                boolean cachedFirst = (attribute.dataset < dataset);
+                int dataset1 = cachedFirst ? attribute.dataset : dataset;
+                int dataset2 = cachedFirst ? dataset : attribute.dataset;
+                if (noRelationship.contains(dataset1 + "-" + dataset2)) continue;
+
+                PairAttributeWritable pairKey = new PairAttributeWritable(
+                        cachedFirst ? attribute.attribute : currentKey.getAttribute(),
+                        cachedFirst ? currentKey.getAttribute() : attribute.attribute,
+                        dataset1, dataset2,
+                        currentKey.getSpatialResolution(), currentKey.getTemporalResolution(),
+                        currentIsOutlier);
+
+                correlation.prepare(pairKey);
+                for (TopologyTimeSeriesWritable timeSeries : attribute.timeSeries)
+                    correlation.setTimeSeries(cachedFirst ? correlation.dataset1Key : correlation.dataset2Key,
+                            timeSeries);
+                for (TopologyTimeSeriesWritable timeSeries : currentTimeSeries)
+                    correlation.setTimeSeries(cachedFirst ? correlation.dataset2Key : correlation.dataset1Key,
+                            timeSeries);
+                correlation.evaluate(pairKey);
+            }
+        }
+
+        currentKey = null;
+        currentTimeSeries.clear();
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+        evaluateCurrent();
+        correlation.close();
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.relationship_computation;
+
+import java.util.Random;
+
+import edu.nyu.vida.data_polygamy.utils.SpatialGraph;
+import edu.nyu.vida.data_polygamy.utils.SpatialShifts;
+
+/**
+ * Spatial permutations of the Monte Carlo test, generated once and
+ *   shared by all the pairs of attributes with the same spatial resolution.
+ *
+ * Spatial permutations depend only on the graph (or grid) of the
+ *   resolution, not on the data, so the same 'repetitions' mappings
+ *   (region -> permuted region, -1 for no comparison; see SpatialShifts)
+ *   can be used for every pair. Since the bank is generated from a fixed
+ *   seed, and the main BFS of a graph always starts from the same node
+ *   (see SpatialGraph), results are also reproducible across runs.
+ */
+public class PermutationBank {
+
+    private int[][] mappings;
+
+    private PermutationBank(int repetitions, int size) {
+        mappings = new int[repetitions][size];
+    }
+
+    public int[] get(int repetition) {
+        return mappings[repetition];
+    }
+
+    public int getRepetitions() {
+        return mappings.length;
+    }
+
+    public static PermutationBank completeRandom(long seed, int repetitions, int size) {
+        PermutationBank bank = new PermutationBank(repetitions, size);
+        Random random = new Random(seed);
+        int[] perm = new int[size];
+        for (int i = 0; i < repetitions; i++)
+            SpatialShifts.completeRandom(random, size, perm, bank.mappings[i]);
+        return bank;
+    }
+
+    public static PermutationBank toroidalShift(long seed, int repetitions, int gridSide) {
+        PermutationBank bank = new PermutationBank(repetitions, gridSide * gridSide);
+        Random random = new Random(seed);
+        for (int i = 0; i < repetitions; i++)
+            SpatialShifts.toroidalShift(random, gridSide, bank.mappings[i]);
+        return bank;
+    }
+
+    public static PermutationBank randomShift(long seed, int repetitions, SpatialGraph graph) {
+        PermutationBank bank = new PermutationBank(repetitions, graph.nbNodes());
+        Random random = new Random(seed);
+        SpatialGraph.Workspace workspace = new SpatialGraph.Workspace();
+        for (int i = 0; i < repetitions; i++)
+            graph.generateRandomShift(random, workspace, bank.mappings[i]);
+        return bank;
+    }
+}
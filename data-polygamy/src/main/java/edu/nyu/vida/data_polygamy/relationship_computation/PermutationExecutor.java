@@ -0,0 +1,234 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.relationship_computation;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the repetitions of the Monte Carlo permutation test,
+ * splitting them among a fixed number of workers.
+ *
+ * Each repetition has its own random stream, derived from the seed
+ * of the key and from the index of the repetition, and the stopping
+ * rules are evaluated on the repetitions in index order (on the first
+ * n repetitions, once all of them are done), so that results are
+ * reproducible for a given key, whatever the number of workers. For
+ * graph resolutions, this relies on the main BFS of the graph
+ * starting from a fixed node (see SpatialGraph). All the workers stop
+ * once the number of repetitions with a score at least as extreme as
+ * the aligned one goes over the pruning limit.
+ *
+ * In sequential mode, the test also stops as soon as the relationship
+ * is significant with high confidence: if, after n repetitions, only
+ * k of them exceeded the aligned score, and the probability of seeing
+ * at most k exceedances when the p-value is alpha is below the error
+ * bound, then the p-value is below alpha.
+ */
+public class PermutationExecutor {
+
+    /**
+     * A single repetition of the permutation test:
+     *   computes the relationship score of one random
+     *   permutation of the data.
+     * Implementations must be safe to call from different threads
+     *   at the same time, and should only use the given random
+     *   number generator; 'repetition' (in [0, repetitions)) identifies
+     *   the repetition, e.g. to pick a precomputed permutation
+     *   (see PermutationBank).
+     */
+    public interface Permutation {
+        public float score(int repetition, Random random);
+    }
+
+    public static class Result {
+        // repetitions with a score at least as extreme as the aligned one
+        public int exceedances;
+        // repetitions actually performed
+        public int repetitions;
+    }
+
+    // stopping rule is checked every 'checkInterval' repetitions
+    private static final int checkInterval = 10;
+
+    private int nbWorkers = 1;
+    private ForkJoinPool pool = null;
+    private boolean sequential = false;
+    private double errorBound = 0;
+
+    public PermutationExecutor(int nbWorkers) {
+        this.nbWorkers = Math.max(1, nbWorkers);
+        if (this.nbWorkers > 1)
+            pool = new ForkJoinPool(this.nbWorkers);
+    }
+
+    public void setSequential(double errorBound) {
+        this.sequential = true;
+        this.errorBound = errorBound;
+    }
+
+    public boolean isSequential() {
+        return sequential;
+    }
+
+    public int getNbWorkers() {
+        return nbWorkers;
+    }
+
+    /**
+     * Runs up to 'repetitions' repetitions, stopping as soon as the number of
+     *   exceedances goes over maxExceedances (pruning); in this case, the
+     *   number of exceedances is reported as maxExceedances + 1, as in a
+     *   sequential execution.
+     */
+    public Result run(final Permutation permutation, final float alignedScore,
+            int repetitions, final float alpha, final int maxExceedances, long seed) {
+
+        Control control = new Control(repetitions, alpha, maxExceedances);
+
+        if (pool == null) {
+            new Worker(permutation, alignedScore, seed, control).compute();
+        } else {
+            final ArrayList<Worker> workers = new ArrayList<Worker>();
+            for (int i = 0; i < Math.min(nbWorkers, repetitions); i++)
+                workers.add(new Worker(permutation, alignedScore, seed, control));
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(workers);
+                }
+            });
+        }
+
+        Result result = new Result();
+        result.exceedances = Math.min(control.exceedances, maxExceedances + 1);
+        result.repetitions = control.completed;
+        return result;
+    }
+
+    public void shutdown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /**
+     * Seed of a random stream (of a repetition, or of a worker)
+     *   (SplitMix64 finalizer, so that consecutive streams
+     *   get well-separated seeds).
+     */
+    public static long workerSeed(long seed, int worker) {
+        long z = seed + (worker + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Probability of seeing at most k successes in n trials with success
+     *   probability p, summing the terms of the binomial distribution
+     *   (in log space, so that (1 - p)^n does not underflow).
+     */
+    static double binomialCdf(int k, int n, double p) {
+        if (k >= n)
+            return 1;
+        double logRatio = Math.log(p) - Math.log1p(-p);
+        double logTerm = n * Math.log1p(-p);
+        double cdf = Math.exp(logTerm);
+        for (int i = 1; i <= k; i++) {
+            logTerm += Math.log((double) (n - i + 1) / i) + logRatio;
+            cdf += Math.exp(logTerm);
+        }
+        return Math.min(cdf, 1);
+    }
+
+    /**
+     * State shared among the workers of a single run.
+     */
+    private class Control {
+
+        float alpha;
+        int maxExceedances;
+        // next repetition to run
+        AtomicInteger next = new AtomicInteger(0);
+        volatile boolean stop = false;
+
+        // outcome of every repetition: 0 (not done yet), 1 (done), or
+        //  2 (done, with a score at least as extreme as the aligned one)
+        byte[] outcomes;
+        // the first 'completed' repetitions are done, and 'exceedances'
+        //  of them exceeded the aligned score
+        int completed = 0;
+        int exceedances = 0;
+
+        Control(int repetitions, float alpha, int maxExceedances) {
+            this.outcomes = new byte[repetitions];
+            this.alpha = alpha;
+            this.maxExceedances = maxExceedances;
+        }
+
+        // index of the next repetition to run, or -1 if the run is over
+        int nextRepetition() {
+            if (stop)
+                return -1;
+            int repetition = next.getAndIncrement();
+            return (repetition < outcomes.length) ? repetition : -1;
+        }
+
+        synchronized void completed(int repetition, boolean exceeds) {
+            outcomes[repetition] = (byte) ((exceeds) ? 2 : 1);
+
+            // stopping rules, on the repetitions in index order
+            while (!stop && (completed < outcomes.length) && (outcomes[completed] != 0)) {
+                if (outcomes[completed] == 2)
+                    exceedances++;
+                completed++;
+                if (exceedances > maxExceedances) {
+                    stop = true; // pruning
+                } else if (sequential && (completed % checkInterval == 0)) {
+                    // early acceptance
+                    if (binomialCdf(exceedances, completed, alpha) < errorBound)
+                        stop = true;
+                }
+            }
+        }
+    }
+
+    private static class Worker extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Permutation permutation;
+        private float alignedScore;
+        private long seed;
+        private Random random = new Random();
+        private Control control;
+
+        public Worker(Permutation permutation, float alignedScore, long seed,
+                Control control) {
+            this.permutation = permutation;
+            this.alignedScore = alignedScore;
+            this.seed = seed;
+            this.control = control;
+        }
+
+        @Override
+        protected void compute() {
+            int repetition = control.nextRepetition();
+            while (repetition >= 0) {
+                random.setSeed(workerSeed(seed, repetition));
+                float mcScore = permutation.score(repetition, random);
+
+                boolean exceeds = (alignedScore > 0) ? (mcScore >= alignedScore) :
+                    (mcScore <= alignedScore);
+                control.completed(repetition, exceeds);
+                repetition = control.nextRepetition();
+            }
+        }
+    }
+}
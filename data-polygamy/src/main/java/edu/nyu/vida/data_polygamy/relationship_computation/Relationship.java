@@ -6,6 +6,8 @@ package edu.nyu.vida.data_polygamy.relationship_computation;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,10 +31,14 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import edu.nyu.vida.data_polygamy.utils.CostPartitioner;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Machine;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeTimeSeriesWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairDatasetWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
 
 public class Relationship {
     
@@ -178,6 +184,50 @@ public class Relationship {
         removeOption.setRequired(false);
         options.addOption(removeOption);
         
+        Option threadsOption = new Option("pt", "permutation-threads", true, "number of threads "
+                + "used by each reducer to run the permutation test (default: 1)");
+        threadsOption.setRequired(false);
+        threadsOption.setArgName("THREADS");
+        threadsOption.setArgs(1);
+        options.addOption(threadsOption);
+        
+        Option blockedOption = new Option("bl", "blocked", false, "shuffle each time series once per "
+                + "pair of datasets, and evaluate all the pairs of attributes in the same reducer");
+        blockedOption.setRequired(false);
+        options.addOption(blockedOption);
+        
+        Option tileOption = new Option("tile", "tile-size", true, "with -bl, split the attributes of "
+                + "each dataset into tiles of this size, each pair of tiles going to a different reducer");
+        tileOption.setRequired(false);
+        tileOption.setArgName("TILE SIZE");
+        tileOption.setArgs(1);
+        options.addOption(tileOption);
+        
+        Option sequentialOption = new Option("seq", "sequential", true, "use a sequential Monte Carlo test "
+                + "that stops as soon as significance is settled, with the given error bound "
+                + "(e.g., 0.001); the number of repetitions used is added to the output");
+        sequentialOption.setRequired(false);
+        sequentialOption.setArgName("ERROR BOUND");
+        sequentialOption.setArgs(1);
+        options.addOption(sequentialOption);
+        
+        Option bankOption = new Option("pb", "permutation-bank", false, "generate the spatial "
+                + "permutations of the Monte Carlo tests once per spatial resolution, "
+                + "and reuse them for all the pairs of attributes");
+        bankOption.setRequired(false);
+        options.addOption(bankOption);
+        
+        Option costOption = new Option("cp", "cost-partitioner", false, "assign pairs of attributes "
+                + "to reducers based on their estimated cost, rather than on their hash");
+        costOption.setRequired(false);
+        options.addOption(costOption);
+        
+        Option mapJoinOption = new Option("mj", "map-join", false, "ship the first group of datasets "
+                + "to every mapper and compute relationships in a map-only job; "
+                + "use it only when the first group is small");
+        mapJoinOption.setRequired(false);
+        options.addOption(mapJoinOption);
+        
         HelpFormatter formatter = new HelpFormatter();
         CommandLineParser parser = new PosixParser();
         CommandLine cmd = null;
@@ -245,6 +295,13 @@ public class Relationship {
     	boolean eraseAll = cmd.hasOption("e");
     	String scoreThreshold = hasScoreThreshold ? cmd.getOptionValue("sc") : "";
     	String strengthThreshold = hasStrengthThreshold ? cmd.getOptionValue("st") : "";
+    	String permutationThreads = cmd.hasOption("pt") ? cmd.getOptionValue("pt") : "1";
+    	boolean blocked = cmd.hasOption("bl");
+    	boolean mapJoin = cmd.hasOption("mj");
+    	boolean permutationBank = cmd.hasOption("pb");
+    	boolean costPartitioner = cmd.hasOption("cp") && (!blocked) && (!mapJoin);
+    	String sequentialError = cmd.hasOption("seq") ? cmd.getOptionValue("seq") : "";
+    	String tileSize = cmd.hasOption("tile") ? cmd.getOptionValue("tile") : "0";
     	
     	// all datasets
     	ArrayList<String> all_datasets = new ArrayList<String>();
@@ -359,6 +416,7 @@ public class Relationship {
         String noRelationship = "";
         
         HashSet<String> dirs = new HashSet<String>();
+        HashSet<String> secondGroupDirs = new HashSet<String>();
         
         String dataset1;
         String dataset2;
@@ -387,6 +445,7 @@ public class Relationship {
                 if (!FrameworkUtils.fileExists(correlationOutputFileName, s3conf, s3)) {
                     dirs.add(s3bucket + FrameworkUtils.indexDir + "/" + dataset1);
                     dirs.add(s3bucket + FrameworkUtils.indexDir + "/" + dataset2);
+                    secondGroupDirs.add(s3bucket + FrameworkUtils.indexDir + "/" + secondGroup.get(j));
                 } else {
                     noRelationship += datasetId1 + "-" + datasetId2 + ","; 
                 }
@@ -399,7 +458,7 @@ public class Relationship {
             System.exit(0);
         }
         
-        for (String dir: dirs) {
+        for (String dir: (mapJoin) ? secondGroupDirs : dirs) {
             indexInputDirs += dir + ",";
         }
 
@@ -429,6 +488,27 @@ public class Relationship {
         conf.set("complete-random-str", random);
         conf.set("main-dataset-id", datasetId.get(shortDataset.get(0)));
         conf.set("remove-not-significant", String.valueOf(removeNotSignificant));
+        conf.set("permutation-threads", permutationThreads);
+        conf.set("relationship-tile-size", tileSize);
+        conf.set("permutation-bank", String.valueOf(permutationBank));
+        if (!sequentialError.isEmpty()) {
+            conf.set("sequential-error", sequentialError);
+        }
+        conf.set("cost-partitioner", String.valueOf(costPartitioner));
+        if (costPartitioner) {
+            String indexPrefix = (s3) ? s3bucket : FileSystem.get(new Configuration()).getHomeDirectory() + "/";
+            for (String dataset : shortDataset) {
+                String id = datasetId.get(dataset);
+                conf.set("dataset-" + id + "-resolutions", CostPartitioner.resolutions(
+                        FrameworkUtils.searchAggregatesHeader(dataset, s3conf, s3)));
+                String[] index = FrameworkUtils.searchIndex(dataset, s3conf, s3);
+                if (index.length > 0) {
+                    conf.set("dataset-" + id + "-time-range", CostPartitioner.timeRange(
+                            new Path(indexPrefix + FrameworkUtils.indexDir + "/" + dataset + "/" + index[0]),
+                            (s3) ? s3conf : new Configuration()));
+                }
+            }
+        }
         if (noRelationship.length() > 0) {
             conf.set("no-relationship", noRelationship.substring(0, noRelationship.length()-1));
         }
@@ -480,16 +560,45 @@ public class Relationship {
         Job job = new Job(conf);
         job.setJobName(jobName);
         
-        job.setMapOutputKeyClass(PairAttributeWritable.class);
-        job.setMapOutputValueClass(TopologyTimeSeriesWritable.class);
+        if (mapJoin) {
+            job.setMapperClass(MapJoinCorrelationMapper.class);
+            job.setNumReduceTasks(0);
+            job.setInputFormatClass(MapJoinCorrelationMapper.IndexInputFormat.class);
+            
+            // first group goes to the distributed cache
+            String indexPrefix = (s3) ? s3bucket : FileSystem.get(new Configuration()).getHomeDirectory() + "/";
+            int nbCacheFiles = 0;
+            for (String dataset : firstGroup) {
+                for (String name : FrameworkUtils.searchIndex(dataset, s3conf, s3)) {
+                    String file = indexPrefix + FrameworkUtils.indexDir + "/" + dataset + "/" + name;
+                    try {
+                        job.addCacheFile(new URI(file + "#" + MapJoinCorrelationMapper.cachePrefix + nbCacheFiles++));
+                    } catch (URISyntaxException e) {
+                        System.out.println("Something went wrong... Invalid index file " + file);
+                        System.exit(-1);
+                    }
+                }
+            }
+        } else {
+            if (blocked) {
+                job.setMapOutputKeyClass(PairDatasetWritable.class);
+                job.setMapOutputValueClass(AttributeTimeSeriesWritable.class);
+                job.setMapperClass(BlockedCorrelationMapper.class);
+                job.setReducerClass(BlockedCorrelationReducer.class);
+            } else {
+                job.setMapOutputKeyClass(PairAttributeWritable.class);
+                job.setMapOutputValueClass(TopologyTimeSeriesWritable.class);
+                job.setMapperClass(CorrelationMapper.class);
+                job.setReducerClass(CorrelationReducer.class);
+                if (costPartitioner)
+                    job.setPartitionerClass(CostPartitioner.PairAttributePartitioner.class);
+            }
+            job.setNumReduceTasks(machineConf.getNumberReduces());
+            job.setInputFormatClass(SequenceFileInputFormat.class);
+        }
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(Text.class);
    
-        job.setMapperClass(CorrelationMapper.class);
-        job.setReducerClass(CorrelationReducer.class);
-        job.setNumReduceTasks(machineConf.getNumberReduces());
-   
-        job.setInputFormatClass(SequenceFileInputFormat.class);
         //job.setOutputFormatClass(TextOutputFormat.class);
         LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
    
@@ -497,6 +606,9 @@ public class Relationship {
         FileInputFormat.setInputPaths(job, indexInputDirs.substring(0, indexInputDirs.length()-1));
         FileOutputFormat.setOutputPath(job, new Path(relationshipOutputDir));
    
+        // pre-built spatial files (see SpatialArtifacts)
+        SpatialArtifacts.addToCache(job);
+        
         job.setJarByClass(Relationship.class);
    
         long start = System.currentTimeMillis();
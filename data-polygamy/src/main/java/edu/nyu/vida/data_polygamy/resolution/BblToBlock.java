@@ -3,46 +3,80 @@
    See file LICENSE for full license details. */
 package edu.nyu.vida.data_polygamy.resolution;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+import edu.nyu.vida.data_polygamy.utils.SpatialResources;
+
 public class BblToBlock implements SpatialResolution {
     
     private int[] spatialPos;
     
     private String data;
+    private String key = null;
     
-    private HashMap<Integer, Integer> blockMap = new HashMap<Integer, Integer>();
+    private Int2IntOpenHashMap blockMap = SpatialResolutionUtils.intIdMap(16);
     
-    public BblToBlock(int[] spatialPos, Configuration conf) {
+    public BblToBlock(int[] spatialPos, final Configuration conf) {
         
-        String bucket = conf.get("bucket", "");
+        final String bucket = conf.get("bucket", "");
     	data = bucket + "block";
     	
         this.spatialPos = spatialPos;
         
+        // ids of the blocks are shared by the tasks of the JVM
         try {
-            if (bucket.equals("")) {
-                FileSystem fs = FileSystem.get(new Configuration());
-                readData(fs.open(new Path(data)));
-            } else {
-            	Path dataPath = new Path(data);
-                FileSystem fs = FileSystem.get(dataPath.toUri(), conf);
-                readData(fs.open(dataPath));
-            }
+            String resource = SpatialResources.key(data, "BblToBlock");
+            BblToBlock shared = SpatialResources.acquire(resource,
+                    new SpatialResources.Loader<BblToBlock>() {
+                @Override
+                public BblToBlock load() throws IOException {
+                    return new BblToBlock(bucket, conf);
+                }
+            });
+            blockMap = shared.blockMap;
+            key = resource;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
+    // shared instance, with no positions
+    private BblToBlock(String bucket, Configuration conf) throws IOException {
+        
+        data = bucket + "block";
+        
+        ByteBuffer artifact = SpatialArtifacts.open("block", SpatialArtifacts.REGIONS);
+        if (artifact != null) {
+            int[] ids = SpatialArtifacts.readRegionIds(artifact);
+            blockMap = SpatialResolutionUtils.intIdMap(ids.length);
+            for (int i = 0; i < ids.length; i++)
+                blockMap.put(ids[i], i);
+            return;
+        }
+        
+        if (bucket.equals("")) {
+            FileSystem fs = FileSystem.get(new Configuration());
+            readData(fs.open(new Path(data)));
+        } else {
+        	Path dataPath = new Path(data);
+            FileSystem fs = FileSystem.get(dataPath.toUri(), conf);
+            readData(fs.open(dataPath));
+        }
+    }
+    
     //@SuppressWarnings("unchecked")
     private void readData(FSDataInputStream fis) throws IOException {
         
@@ -102,12 +136,45 @@ public class BblToBlock implements SpatialResolution {
                 continue;
             }
           
-            if(blockMap.containsKey(block)) {
-                region.add(blockMap.get(block));
+            int id = blockMap.get(block);
+            region.add(id);
+            if (id != -1)
                 foundOne = true;
+        }
+      
+        if (foundOne)
+            return region;
+        return new ArrayList<Integer>();
+    }
+    
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        
+        ArrayList<Integer> region = new ArrayList<Integer>();
+        
+        // getting spatial attributes
+        int block = 0;
+        boolean foundOne = false;
+        for (int i = 0; i < spatialPos.length; i++) {
+            
+            if (input.isNull(spatialPos[i]))
+                continue;
+          
+            if (input.length(spatialPos[i]) != 10)
+                continue;
+            
+            try {
+                // removing the last 4 digits (lot information)
+                block = (int)input.getDouble(spatialPos[i], 0, 6);
+            } catch (NumberFormatException e) {
+                // no information regarding block
+                continue;
             }
-            else
-                region.add(-1);
+          
+            int id = blockMap.get(block);
+            region.add(id);
+            if (id != -1)
+                foundOne = true;
         }
       
         if (foundOne)
@@ -121,4 +188,17 @@ public class BblToBlock implements SpatialResolution {
         return -1;
     }
 
+    @Override
+    public int[] getTranslationTable() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        if (key != null) {
+            SpatialResources.release(key);
+            key = null;
+        }
+    }
+
 }
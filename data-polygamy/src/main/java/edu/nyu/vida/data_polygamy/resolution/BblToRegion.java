@@ -3,19 +3,26 @@
    See file LICENSE for full license details. */
 package edu.nyu.vida.data_polygamy.resolution;
 
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
 import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts.Table;
+import edu.nyu.vida.data_polygamy.utils.SpatialResources;
+
 public class BblToRegion implements SpatialResolution {
     
     private int[] spatialPos;
@@ -23,13 +30,36 @@ public class BblToRegion implements SpatialResolution {
     private String dataBbl;
     private String dataRegions;
     boolean useMapping = false;
+    private String key = null;
     
     private ArrayList<Integer> regionNames = new ArrayList<Integer>();
-    private HashMap<Long, Integer> bblRegions =
-            new HashMap<Long, Integer>();
-    private GridIndex grid = new GridIndex(100, 100);
+    private Long2IntOpenHashMap bblRegions = SpatialResolutionUtils.longIdMap(16);
+    private QuadTreeIndex grid = new QuadTreeIndex();
     
-    public BblToRegion(int[] spatialPos, String region, Configuration conf) {
+    public BblToRegion(int[] spatialPos, final String region, final Configuration conf) {
+        
+        this.spatialPos = spatialPos;
+        
+        // regions of the bbls are shared by the tasks of the JVM
+        try {
+            String resource = SpatialResources.key(conf.get("bucket", "") + "bbl",
+                    "BblToRegion-" + region);
+            BblToRegion shared = SpatialResources.acquire(resource,
+                    new SpatialResources.Loader<BblToRegion>() {
+                @Override
+                public BblToRegion load() throws IOException {
+                    return new BblToRegion(region, conf);
+                }
+            });
+            bblRegions = shared.bblRegions;
+            key = resource;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    // shared instance, with no positions
+    private BblToRegion(String region, Configuration conf) throws IOException {
         
     	String bucket = conf.get("bucket", "");
     	dataBbl = bucket + "bbl";
@@ -45,25 +75,33 @@ public class BblToRegion implements SpatialResolution {
             System.exit(-1);
         }
         
+        // regions of the bbls, with no polygon
+        ByteBuffer artifact = SpatialArtifacts.open("bbl-" +
+                dataRegions.substring(bucket.length()), SpatialArtifacts.TABLE);
+        if (artifact != null) {
+            Table table = SpatialArtifacts.readTable(artifact);
+            bblRegions = SpatialResolutionUtils.longIdMap(table.keys.length);
+            for (int i = 0; i < table.keys.length; i++)
+                bblRegions.put(table.keys[i], table.values[i]);
+            return;
+        }
         
-        this.spatialPos = spatialPos;
-        
-        try {
-            if (bucket.equals("")) {
-                FileSystem fs = FileSystem.get(new Configuration());
-                readRegionsData(fs.open(new Path(dataRegions)));
-                readBblData(fs.open(new Path(dataBbl)));
-            } else {
-                Path nbhdPath = new Path(dataRegions);
-                FileSystem fs = FileSystem.get(nbhdPath.toUri(), conf);
-                readRegionsData(fs.open(nbhdPath));
-                Path bblPath = new Path(dataBbl);
-                fs = FileSystem.get(bblPath.toUri(), conf);
-                readBblData(fs.open(bblPath));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (bucket.equals("")) {
+            FileSystem fs = FileSystem.get(new Configuration());
+            readRegionsData(fs.open(new Path(dataRegions)));
+            readBblData(fs.open(new Path(dataBbl)));
+        } else {
+            Path nbhdPath = new Path(dataRegions);
+            FileSystem fs = FileSystem.get(nbhdPath.toUri(), conf);
+            readRegionsData(fs.open(nbhdPath));
+            Path bblPath = new Path(dataBbl);
+            fs = FileSystem.get(bblPath.toUri(), conf);
+            readBblData(fs.open(bblPath));
         }
+        
+        // polygons are only needed to locate the bbls
+        regionNames = null;
+        grid = null;
     }
     
   //@SuppressWarnings("unchecked")
@@ -113,7 +151,7 @@ public class BblToRegion implements SpatialResolution {
             
             buff.close();
             
-            grid.buildGrid(allPolygons, false);
+            grid.buildIndex(allPolygons);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -159,7 +197,7 @@ public class BblToRegion implements SpatialResolution {
                 
                 int r = grid.getRegion(x, y);
                 if(r != -1) {
-                    bblRegions.put(Long.parseLong(region), regionNames.get(r));
+                    bblRegions.put(Long.parseLong(region), (int) regionNames.get(r));
                 }
                 
                 line = buff.readLine();
@@ -192,13 +230,39 @@ public class BblToRegion implements SpatialResolution {
                 continue;
             }
             
-            Integer nbhd = bblRegions.get(bbl);
-            if (nbhd == null) {
-                region.add(-1);
-            } else {
-                region.add(nbhd);
+            int nbhd = bblRegions.get(bbl);
+            region.add(nbhd);
+            if (nbhd != -1)
                 foundOne = true;
+                
+        }
+      
+        if (foundOne)
+            return region;
+        return new ArrayList<Integer>();
+    }
+    
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        
+        ArrayList<Integer> region = new ArrayList<Integer>();
+      
+        // getting spatial attributes
+        long bbl = 0;
+        boolean foundOne = false;
+        for (int i = 0; i < spatialPos.length; i++) {
+          
+            try {
+                bbl = (long)input.getDouble(spatialPos[i]);
+            } catch (NumberFormatException e) {
+                // no information regarding coordinates
+                continue;
             }
+            
+            int nbhd = bblRegions.get(bbl);
+            region.add(nbhd);
+            if (nbhd != -1)
+                foundOne = true;
                 
         }
       
@@ -213,4 +277,17 @@ public class BblToRegion implements SpatialResolution {
         return -1;
     }
 
+    @Override
+    public int[] getTranslationTable() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        if (key != null) {
+            SpatialResources.release(key);
+            key = null;
+        }
+    }
+
 }
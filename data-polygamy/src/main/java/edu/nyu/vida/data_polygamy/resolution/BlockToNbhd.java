@@ -3,57 +3,101 @@
    See file LICENSE for full license details. */
 package edu.nyu.vida.data_polygamy.resolution;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
 import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts.Table;
+import edu.nyu.vida.data_polygamy.utils.SpatialResources;
+
 public class BlockToNbhd implements SpatialResolution {
     
     private int[] spatialPos;
     
     private String dataNbhd;
     private String dataBlock;
+    private String key = null;
     
     private ArrayList<Integer> nbhdRegionNames = new ArrayList<Integer>();
-    private HashMap<Integer, Integer> blockRegions =
-            new HashMap<Integer, Integer>();
-    private GridIndex grid = new GridIndex(100, 100);
+    // neighborhood of every block id (blocks are identified by their
+    //  position in the block file), -1 if the block is in no neighborhood
+    private int[] blockRegions = new int[0];
+    private QuadTreeIndex grid = new QuadTreeIndex();
     
-    public BlockToNbhd(int[] spatialPos, Configuration conf) {
+    public BlockToNbhd(int[] spatialPos, final Configuration conf) {
         
-    	String bucket = conf.get("bucket", "");
-        dataNbhd = bucket + "neighborhood";
-        dataBlock = bucket + "block";
-                
         this.spatialPos = spatialPos;
         
+        // neighborhoods of the blocks are shared by the tasks of the JVM
         try {
-            if (bucket.equals("")) {
-                FileSystem fs = FileSystem.get(new Configuration());
-                readNbhdData(fs.open(new Path(dataNbhd)));
-                readBlockData(fs.open(new Path(dataBlock)));
-            } else {
-            	Path nbhdPath = new Path(dataNbhd);
-                FileSystem fs = FileSystem.get(nbhdPath.toUri(), conf);
-                readNbhdData(fs.open(nbhdPath));
-                Path blockPath = new Path(dataBlock);
-                fs = FileSystem.get(blockPath.toUri(), conf);
-                readBlockData(fs.open(blockPath));
-            }
+            String resource = SpatialResources.key(conf.get("bucket", "") + "block",
+                    "BlockToNbhd");
+            BlockToNbhd shared = SpatialResources.acquire(resource,
+                    new SpatialResources.Loader<BlockToNbhd>() {
+                @Override
+                public BlockToNbhd load() throws IOException {
+                    return new BlockToNbhd(conf);
+                }
+            });
+            blockRegions = shared.blockRegions;
+            key = resource;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
+    // shared instance, with no positions
+    private BlockToNbhd(Configuration conf) throws IOException {
+        
+    	String bucket = conf.get("bucket", "");
+        dataNbhd = bucket + "neighborhood";
+        dataBlock = bucket + "block";
+        
+        // neighborhoods of the blocks, with no polygon
+        ByteBuffer artifact = SpatialArtifacts.open("block-neighborhood", SpatialArtifacts.TABLE);
+        if (artifact != null) {
+            Table table = SpatialArtifacts.readTable(artifact);
+            int nbBlocks = (table.keys.length == 0) ? 0 :
+                (int) table.keys[table.keys.length - 1] + 1;
+            blockRegions = new int[nbBlocks];
+            Arrays.fill(blockRegions, -1);
+            for (int i = 0; i < table.keys.length; i++)
+                blockRegions[(int) table.keys[i]] = table.values[i];
+            return;
+        }
+        
+        if (bucket.equals("")) {
+            FileSystem fs = FileSystem.get(new Configuration());
+            readNbhdData(fs.open(new Path(dataNbhd)));
+            readBlockData(fs.open(new Path(dataBlock)));
+        } else {
+        	Path nbhdPath = new Path(dataNbhd);
+            FileSystem fs = FileSystem.get(nbhdPath.toUri(), conf);
+            readNbhdData(fs.open(nbhdPath));
+            Path blockPath = new Path(dataBlock);
+            fs = FileSystem.get(blockPath.toUri(), conf);
+            readBlockData(fs.open(blockPath));
+        }
+        
+        // polygons are only needed to locate the blocks
+        nbhdRegionNames = null;
+        grid = null;
+    }
+    
     //@SuppressWarnings("unchecked")
     private void readNbhdData(FSDataInputStream fis) throws IOException {
         
@@ -95,7 +139,7 @@ public class BlockToNbhd implements SpatialResolution {
             
             buff.close();
             
-            grid.buildGrid(allPolygons, false);
+            grid.buildIndex(allPolygons);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -107,7 +151,7 @@ public class BlockToNbhd implements SpatialResolution {
     
     private void readBlockData(FSDataInputStream fis) throws IOException {
         
-        int id = 0;
+        IntArrayList regions = new IntArrayList();
         
         try {
             BufferedReader buff = new BufferedReader(new InputStreamReader(fis));
@@ -142,15 +186,17 @@ public class BlockToNbhd implements SpatialResolution {
                 
                 int r = grid.getRegion(x, y);
                 if(r != -1) {
-                    blockRegions.put(id, nbhdRegionNames.get(r));
-                }
+                    regions.add(nbhdRegionNames.get(r));
+                } else
+                    regions.add(-1);
                 
-                id++;
                 line = buff.readLine();
             }
             
             buff.close();
             
+            blockRegions = regions.toIntArray();
+            
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
@@ -176,13 +222,39 @@ public class BlockToNbhd implements SpatialResolution {
                 continue;
             }
             
-            Integer nbhd = blockRegions.get(block);
-            if (nbhd == null) {
-                region.add(-1);
-            } else {
-                region.add(nbhd);
+            int nbhd = translate(block);
+            region.add(nbhd);
+            if (nbhd != -1)
                 foundOne = true;
+                
+        }
+      
+        if (foundOne)
+            return region;
+        return new ArrayList<Integer>();
+    }
+    
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        
+        ArrayList<Integer> region = new ArrayList<Integer>();
+      
+        // getting spatial attributes
+        int block = 0;
+        boolean foundOne = false;
+        for (int i = 0; i < spatialPos.length; i++) {
+          
+            try {
+                block = (int)input.getDouble(spatialPos[i]);
+            } catch (NumberFormatException e) {
+                // no information regarding coordinates
+                continue;
             }
+            
+            int nbhd = translate(block);
+            region.add(nbhd);
+            if (nbhd != -1)
+                foundOne = true;
                 
         }
       
@@ -193,14 +265,26 @@ public class BlockToNbhd implements SpatialResolution {
     
     @Override
     public int translate(int[] input) {
-        
-        int block = input[spatialPos[0]];
-        
-        Integer nbhd = blockRegions.get(block);
-        if (nbhd == null) {
+        return translate(input[spatialPos[0]]);
+    }
+    
+    private int translate(int block) {
+        if ((block < 0) || (block >= blockRegions.length))
             return -1;
+        return blockRegions[block];
+    }
+    
+    @Override
+    public int[] getTranslationTable() {
+        return blockRegions;
+    }
+
+    @Override
+    public void close() {
+        if (key != null) {
+            SpatialResources.release(key);
+            key = null;
         }
-        return nbhd;
     }
 
 }
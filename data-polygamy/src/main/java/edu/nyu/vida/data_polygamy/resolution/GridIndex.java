@@ -156,6 +156,12 @@ public class GridIndex {
 	}
 
 	
+	/**
+	 * Compares getRegion with the brute force search and with QuadTreeIndex
+	 *   on random points within the bounds of the polygons (see
+	 *   exp.PolygonIndexBenchmark). Each method runs once on the points
+	 *   before being timed.
+	 */
 	public void test() {
 		int maxb = 0;
 		for(int x = 0;x < xs;x ++) {
@@ -163,46 +169,74 @@ public class GridIndex {
 				maxb = Math.max(maxb, grid[x][y].polys.size());
 			}
 		}
-		System.out.println(maxb);
+		System.out.println("Max. no. of polygons in a cell: " + maxb);
 		
+		long st = System.currentTimeMillis();
+		QuadTreeIndex quadTree = new QuadTreeIndex();
+		quadTree.buildIndex(polygons);
+		System.out.println("Quadtree: " + quadTree.getNodeCount() + " nodes for " +
+		        quadTree.getEdgeCount() + " edges, built in " + (System.currentTimeMillis() - st) + " ms");
 		
 		Random r = new Random();
 		int n = 100000;
 		double [] x = new double[n];
 		double [] y = new double[n];
 		for(int i = 0;i < n;i ++) {
-			x[i] = r.nextDouble() * width + bound.x1;
-			y[i] = r.nextDouble() * height + bound.y1;
+			x[i] = r.nextDouble() * (bound.x2 - bound.x1) + bound.x1;
+			y[i] = r.nextDouble() * (bound.y2 - bound.y1) + bound.y1;
 		}
 		
 		int [] rg = new int[n];
 		int [] rb = new int[n];
+		int [] rq = new int[n];
 		
-		long st = System.currentTimeMillis();
-		for(int i = 0;i < n;i ++) {
-			rg[i] = getRegion(x[i],y[i]);
-		}
-		long timeGrid = System.currentTimeMillis() - st;
-		
-		st = System.currentTimeMillis();
-		for(int i = 0;i < n;i ++) {
-			rb[i] = getRegionBF(x[i],y[i]);
+		long timeGrid = 0, timeBruteForce = 0, timeQuadTree = 0;
+		for(int round = 0;round < 2;round ++) {
+			st = System.currentTimeMillis();
+			for(int i = 0;i < n;i ++) {
+				rg[i] = getRegion(x[i],y[i]);
+			}
+			timeGrid = System.currentTimeMillis() - st;
+			
+			st = System.currentTimeMillis();
+			for(int i = 0;i < n;i ++) {
+				rb[i] = getRegionBF(x[i],y[i]);
+			}
+			timeBruteForce = System.currentTimeMillis() - st;
+			
+			st = System.currentTimeMillis();
+			for(int i = 0;i < n;i ++) {
+				rq[i] = quadTree.getRegion(x[i],y[i]);
+			}
+			timeQuadTree = System.currentTimeMillis() - st;
 		}
-		long timeBruteForce = System.currentTimeMillis() - st;
 		
 		int ct = 0;
+		int gridMismatches = 0;
+		int quadTreeMismatches = 0;
 		for(int i = 0;i < n;i ++) {
 			if(rg[i] != rb[i]) {
-				System.out.println("brute force and grid index results don't match!!!!");
+				gridMismatches ++;
 			}
-			if(rg[i] != -1) {
+			if(rq[i] != rb[i]) {
+				quadTreeMismatches ++;
+			}
+			if(rb[i] != -1) {
 				ct ++;
 			}
 		}
+		if(gridMismatches > 0) {
+			System.out.println("brute force and grid index results don't match!!!! (" + gridMismatches + " points)");
+		}
+		if(quadTreeMismatches > 0) {
+			System.out.println("brute force and quadtree results don't match!!!! (" + quadTreeMismatches + " points)");
+		}
 		System.out.println("No. of points within polygon set: " + ct);
 		System.out.println("Time taken using grid index: " + timeGrid);
+		System.out.println("Time taken using quadtree: " + timeQuadTree);
 		System.out.println("Time taken using brute force: " + timeBruteForce);
-		System.out.println("Speedup: " + (double) timeBruteForce / (double) timeGrid);
+		System.out.println("Speedup (grid): " + (double) timeBruteForce / (double) timeGrid);
+		System.out.println("Speedup (quadtree): " + (double) timeBruteForce / (double) Math.max(timeQuadTree, 1));
 	}
 
 
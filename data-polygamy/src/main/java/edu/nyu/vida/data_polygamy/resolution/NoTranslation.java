@@ -5,6 +5,8 @@ package edu.nyu.vida.data_polygamy.resolution;
 
 import java.util.ArrayList;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+
 public class NoTranslation implements SpatialResolution {
     
     private int[] spatialPos;
@@ -27,6 +29,20 @@ public class NoTranslation implements SpatialResolution {
         return output;
     }
     
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        ArrayList<Integer> output = new ArrayList<Integer>();
+        try {
+            for (int pos = 0; pos < spatialPos.length; pos++)
+                output.add(Integer.parseInt(input.getString(spatialPos[pos])));
+        } catch (NumberFormatException e) {
+            System.out.println("Something is wrong...");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return output;
+    }
+    
     @Override
     public int translate(int[] input) {
         int output = 0;
@@ -39,4 +55,14 @@ public class NoTranslation implements SpatialResolution {
         return output;
     }
 
+    @Override
+    public int[] getTranslationTable() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
 }
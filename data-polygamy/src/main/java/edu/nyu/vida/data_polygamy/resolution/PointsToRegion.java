@@ -7,6 +7,7 @@ import java.awt.geom.Path2D;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import org.apache.hadoop.conf.Configuration;
@@ -14,58 +15,103 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+import edu.nyu.vida.data_polygamy.utils.SpatialResources;
+
 public class PointsToRegion implements SpatialResolution {
     
     private int[] xPositions;
     private int[] yPositions;
     
     private String data;
+    private String key = null;
     
     private ArrayList<Integer> polyRegionNames = new ArrayList<Integer>();
-    private GridIndex grid = new GridIndex(100, 100);
+    private QuadTreeIndex grid = new QuadTreeIndex();
     boolean useMapping = false;
-    boolean useBoundingCircle = false;
     
     public PointsToRegion(int[] xPositions, int[] yPositions, String region,
-            int gridResolution, Configuration conf) {
+            int gridResolution, final Configuration conf) {
         
-    	String bucket = conf.get("bucket", "");
+        this.xPositions = xPositions;
+        this.yPositions = yPositions;
+        
+        final String name = regionFile(region, gridResolution);
+        
+        // polygons are shared by the tasks of the JVM
+        try {
+            String resource = SpatialResources.key(conf.get("bucket", "") + name,
+                    "PointsToRegion");
+            PointsToRegion shared = SpatialResources.acquire(resource,
+                    new SpatialResources.Loader<PointsToRegion>() {
+                @Override
+                public PointsToRegion load() throws IOException {
+                    return new PointsToRegion(name, conf);
+                }
+            });
+            data = shared.data;
+            useMapping = shared.useMapping;
+            polyRegionNames = shared.polyRegionNames;
+            grid = shared.grid;
+            key = resource;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private static String regionFile(String region, int gridResolution) {
+    	String name = null;
     	
         if (region.equals("nbhd")) {
-            data = bucket + "neighborhood";
+            name = "neighborhood";
         }
         else if (region.equals("grid")) {
-            data = bucket + "gneighborhood-" + gridResolution;
+            name = "gneighborhood-" + gridResolution;
         }
         else if (region.equals("zip")) {
-        	useMapping = true;
-        	data = bucket + "zipcode";
+        	name = "zipcode";
         } else if (region.equals("block")) {
-            useMapping = true;
-            useBoundingCircle = true;
-            data = bucket + "block";
+            name = "block";
         } else {
         	System.out.println("Invalid region.");
         	System.exit(-1);
         }
+        return name;
+    }
+    
+    // shared instance, with no positions
+    private PointsToRegion(String name, Configuration conf) throws IOException {
         
-        this.xPositions = xPositions;
-        this.yPositions = yPositions;
+    	String bucket = conf.get("bucket", "");
+    	
+        // zipcodes and blocks are identified by their position in the file
+        useMapping = name.equals("zipcode") || name.equals("block");
+        data = bucket + name;
         
-        try {
-            if (bucket.equals("")) {
-                FileSystem fs = FileSystem.get(new Configuration());
-                readData(fs.open(new Path(data)));
-            } else {
-            	Path dataPath = new Path(data);
-                FileSystem fs = FileSystem.get(dataPath.toUri(), conf);
-                readData(fs.open(dataPath));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        ByteBuffer artifact = SpatialArtifacts.open(name, SpatialArtifacts.REGIONS);
+        if (artifact != null) {
+            readArtifact(artifact);
+            return;
+        }
+        
+        if (bucket.equals("")) {
+            FileSystem fs = FileSystem.get(new Configuration());
+            readData(fs.open(new Path(data)));
+        } else {
+        	Path dataPath = new Path(data);
+            FileSystem fs = FileSystem.get(dataPath.toUri(), conf);
+            readData(fs.open(dataPath));
         }
     }
     
+    private void readArtifact(ByteBuffer artifact) {
+        int[] ids = SpatialArtifacts.readRegionIds(artifact);
+        for (int i = 0; i < ids.length; i++)
+            polyRegionNames.add(useMapping ? i : ids[i]);
+        grid = QuadTreeIndex.read(artifact);
+    }
+    
     //@SuppressWarnings("unchecked")
     private void readData(FSDataInputStream fis) throws IOException {
         
@@ -115,7 +161,7 @@ public class PointsToRegion implements SpatialResolution {
             
             buff.close();
             
-            grid.buildGrid(allPolygons, useBoundingCircle);
+            grid.buildIndex(allPolygons);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -157,10 +203,55 @@ public class PointsToRegion implements SpatialResolution {
         return new ArrayList<Integer>();
     }
     
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        
+        ArrayList<Integer> region = new ArrayList<Integer>();
+      
+        // getting spatial attributes
+        double x = 0, y = 0;
+        boolean foundOne = false;
+        for (int i = 0; i < xPositions.length; i++) {
+          
+            try {
+                x = input.getDouble(xPositions[i]);
+                y = input.getDouble(yPositions[i]);
+            } catch (NumberFormatException e) {
+                // no information regarding coordinates
+                continue;
+            }
+          
+            int r = grid.getRegion(x, y);
+            if(r != -1) {
+                region.add(polyRegionNames.get(r));
+                foundOne = true;
+            }
+            else
+                region.add(-1);
+        }
+      
+        if (foundOne)
+            return region;
+        return new ArrayList<Integer>();
+    }
+    
     @Override
     public int translate(int[] input) {
         // should not be called
         return -1;
     }
 
+    @Override
+    public int[] getTranslationTable() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        if (key != null) {
+            SpatialResources.release(key);
+            key = null;
+        }
+    }
+
 }
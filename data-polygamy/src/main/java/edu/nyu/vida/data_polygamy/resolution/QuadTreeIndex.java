@@ -0,0 +1,387 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.resolution;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+
+/**
+ * Polygon index for point location (see GridIndex): returns the first
+ *   polygon (in list order) containing a point, as Path2D.contains does.
+ *
+ * The bounding box of the polygons is subdivided as a quadtree, driven by the
+ *   density of polygon edges: a cell is split while more than LEAF_EDGES edges
+ *   cross it. Within a cell, a polygon whose edges do not cross the cell
+ *   contains either all or none of its points, so each leaf only keeps the
+ *   polygons crossing it, followed by the region of the cell when no such
+ *   polygon contains the point (a polygon containing the whole cell, or -1).
+ *   Most cells are crossed by no edge, and their points are resolved with no
+ *   point-in-polygon test; the remaining tests use the edges of the polygons
+ *   as flat arrays.
+ */
+public class QuadTreeIndex {
+
+    static final int LEAF_EDGES = 16;
+    static final int MAX_DEPTH = 16;
+
+    // polygons: edges as (x0, y0, x1, y1) sequences (edges of polygon p are
+    //   edges[edgeStart[p]] ... edges[edgeStart[p+1]-1]), and winding rule
+    //   mask; polygons with curves are tested with Path2D.contains
+    double[] edges;
+    int[] edgeStart;
+    int[] windingMask;
+    Path2D.Double[] curved;
+    int nbEdges;
+
+    // bounding box of the polygons
+    double minx, miny, maxx, maxy;
+    double eps;
+
+    // nodes: children (4 per node, -1 for leaves), split point, region of
+    //   the cell, and polygons crossing the cell (leaves only)
+    int[] children;
+    double[] midx, midy;
+    int[] region;
+    int[] crossStart;
+    int[] crossing;
+
+    private IntArrayList childrenList = new IntArrayList();
+    private DoubleArrayList midxList = new DoubleArrayList();
+    private DoubleArrayList midyList = new DoubleArrayList();
+    private IntArrayList regionList = new IntArrayList();
+    private IntArrayList crossStartList = new IntArrayList();
+    private IntArrayList crossingList = new IntArrayList();
+
+    public QuadTreeIndex() {
+    }
+
+    public void buildIndex(ArrayList<Path2D.Double> polygons) {
+        int n = polygons.size();
+        double[][] polygonEdges = new double[n][];
+        windingMask = new int[n];
+        curved = new Path2D.Double[n];
+
+        minx = Double.MAX_VALUE;
+        miny = Double.MAX_VALUE;
+        maxx = -Double.MAX_VALUE;
+        maxy = -Double.MAX_VALUE;
+        for (int p = 0; p < n; p++) {
+            Path2D.Double poly = polygons.get(p);
+            windingMask[p] = (poly.getWindingRule() == PathIterator.WIND_NON_ZERO) ? -1 : 1;
+            polygonEdges[p] = prepare(poly);
+            if (polygonEdges[p] == null) {
+                curved[p] = poly;
+                polygonEdges[p] = new double[0];
+            }
+            nbEdges += polygonEdges[p].length/4;
+            double[] e = polygonEdges[p];
+            for (int i = 0; i < e.length; i += 2) {
+                minx = Math.min(minx, e[i]);
+                maxx = Math.max(maxx, e[i]);
+                miny = Math.min(miny, e[i+1]);
+                maxy = Math.max(maxy, e[i+1]);
+            }
+            if (curved[p] != null) {
+                Rectangle2D rect = poly.getBounds2D();
+                minx = Math.min(minx, rect.getMinX());
+                maxx = Math.max(maxx, rect.getMaxX());
+                miny = Math.min(miny, rect.getMinY());
+                maxy = Math.max(maxy, rect.getMaxY());
+            }
+        }
+        eps = 1e-9 * Math.max(maxx - minx, maxy - miny);
+
+        edgeStart = new int[n + 1];
+        for (int p = 0; p < n; p++)
+            edgeStart[p+1] = edgeStart[p] + polygonEdges[p].length;
+        edges = new double[edgeStart[n]];
+        for (int p = 0; p < n; p++)
+            System.arraycopy(polygonEdges[p], 0, edges, edgeStart[p], polygonEdges[p].length);
+        polygonEdges = null;
+
+        // all the edges cross the root; curved polygons cross every cell
+        IntArrayList polys = new IntArrayList();
+        IntArrayList edgeIds = new IntArrayList();
+        for (int p = 0; p < n; p++) {
+            if (curved[p] != null) {
+                polys.add(p);
+                edgeIds.add(-1);
+            }
+            for (int i = edgeStart[p]; i < edgeStart[p+1]; i += 4) {
+                polys.add(p);
+                edgeIds.add(i);
+            }
+        }
+        if (n > 0)
+            build(minx, miny, maxx, maxy, 0, polys.toIntArray(), edgeIds.toIntArray(), -1);
+        crossStartList.add(crossingList.size());
+
+        children = childrenList.toIntArray();
+        midx = midxList.toDoubleArray();
+        midy = midyList.toDoubleArray();
+        region = regionList.toIntArray();
+        crossStart = crossStartList.toIntArray();
+        crossing = crossingList.toIntArray();
+        childrenList = null;
+        midxList = midyList = null;
+        regionList = crossStartList = crossingList = null;
+    }
+
+    /*
+     * Edges of the polygon, as Path2D.Double.pointCrossings walks them
+     *   (including the closing edges); null if the polygon has curves.
+     */
+    private static double[] prepare(Path2D.Double poly) {
+        DoubleArrayList e = new DoubleArrayList();
+        double[] c = new double[6];
+        double movx = 0, movy = 0, curx = 0, cury = 0;
+        boolean started = false;
+        for (PathIterator it = poly.getPathIterator(null); !it.isDone(); it.next()) {
+            switch (it.currentSegment(c)) {
+            case PathIterator.SEG_MOVETO:
+                if (started)
+                    addEdge(e, curx, cury, movx, movy);
+                movx = curx = c[0];
+                movy = cury = c[1];
+                started = true;
+                break;
+            case PathIterator.SEG_LINETO:
+                addEdge(e, curx, cury, c[0], c[1]);
+                curx = c[0];
+                cury = c[1];
+                break;
+            case PathIterator.SEG_CLOSE:
+                addEdge(e, curx, cury, movx, movy);
+                curx = movx;
+                cury = movy;
+                break;
+            default:
+                return null;
+            }
+        }
+        if (started)
+            addEdge(e, curx, cury, movx, movy);
+        return e.toDoubleArray();
+    }
+
+    private static void addEdge(DoubleArrayList e, double x0, double y0, double x1, double y1) {
+        if ((x0 == x1) && (y0 == y1))
+            return;
+        e.add(x0);
+        e.add(y0);
+        e.add(x1);
+        e.add(y1);
+    }
+
+    /*
+     * Node of the cell [x0, x1] x [y0, y1]: (polys[k], edgeIds[k]) are the
+     *   edges crossing the parent cell, sorted by polygon, and def is the
+     *   region of the parent cell when none of these polygons contains the point.
+     */
+    private int build(double x0, double y0, double x1, double y1, int depth,
+            int[] polys, int[] edgeIds, int def) {
+
+        // edges crossing the cell (closed, slightly enlarged)
+        double cx0 = x0 - eps, cy0 = y0 - eps, cx1 = x1 + eps, cy1 = y1 + eps;
+        IntArrayList cellPolys = new IntArrayList();
+        IntArrayList cellEdges = new IntArrayList();
+        IntArrayList crossingPolys = new IntArrayList();
+        int k = 0;
+        while (k < polys.length) {
+            int p = polys[k];
+            int count = 0;
+            for (; (k < polys.length) && (polys[k] == p); k++) {
+                int i = edgeIds[k];
+                if ((i < 0) || intersects(edges, i, cx0, cy0, cx1, cy1)) {
+                    cellPolys.add(p);
+                    cellEdges.add(i);
+                    count++;
+                }
+            }
+            if (count > 0) {
+                crossingPolys.add(p);
+                continue;
+            }
+            // the polygon contains all or none of the points of the cell
+            if (contains(p, (x0 + x1)/2, (y0 + y1)/2)) {
+                def = p;
+                break;
+            }
+        }
+        // (polygons after the one containing the cell, if any, are not needed)
+
+        double mx = (x0 + x1)/2;
+        double my = (y0 + y1)/2;
+        int node = regionList.size();
+        for (int q = 0; q < 4; q++)
+            childrenList.add(-1);
+        midxList.add(mx);
+        midyList.add(my);
+        regionList.add(def);
+        crossStartList.add(crossingList.size());
+
+        if ((cellPolys.size() <= LEAF_EDGES) || (depth == MAX_DEPTH)) {
+            crossingList.addAll(crossingPolys);
+            return node;
+        }
+
+        int[] childPolys = Arrays.copyOf(cellPolys.elements(), cellPolys.size());
+        int[] childEdges = Arrays.copyOf(cellEdges.elements(), cellEdges.size());
+        cellPolys = cellEdges = crossingPolys = null;
+        childrenList.set(4*node, build(x0, y0, mx, my, depth + 1, childPolys, childEdges, def));
+        childrenList.set(4*node + 1, build(mx, y0, x1, my, depth + 1, childPolys, childEdges, def));
+        childrenList.set(4*node + 2, build(x0, my, mx, y1, depth + 1, childPolys, childEdges, def));
+        childrenList.set(4*node + 3, build(mx, my, x1, y1, depth + 1, childPolys, childEdges, def));
+        return node;
+    }
+
+    /*
+     * Whether the edge at e[i] intersects the rectangle [x0, x1] x [y0, y1].
+     */
+    private static boolean intersects(double[] e, int i, double x0, double y0, double x1, double y1) {
+        double ax = e[i], ay = e[i+1], bx = e[i+2], by = e[i+3];
+        if ((Math.max(ax, bx) < x0) || (Math.min(ax, bx) > x1) ||
+                (Math.max(ay, by) < y0) || (Math.min(ay, by) > y1))
+            return false;
+        if ((ax >= x0) && (ax <= x1) && (ay >= y0) && (ay <= y1))
+            return true;
+        // the line of the edge separates the corners of the rectangle
+        double dx = bx - ax;
+        double dy = by - ay;
+        double s0 = dx*(y0 - ay) - dy*(x0 - ax);
+        double s1 = dx*(y0 - ay) - dy*(x1 - ax);
+        double s2 = dx*(y1 - ay) - dy*(x0 - ax);
+        double s3 = dx*(y1 - ay) - dy*(x1 - ax);
+        return !(((s0 > 0) && (s1 > 0) && (s2 > 0) && (s3 > 0)) ||
+                ((s0 < 0) && (s1 < 0) && (s2 < 0) && (s3 < 0)));
+    }
+
+    /*
+     * Path2D.contains on the edges of the polygon (same crossing rule as
+     *   Curve.pointCrossingsForLine).
+     */
+    boolean contains(int p, double x, double y) {
+        if (curved[p] != null)
+            return curved[p].contains(x, y);
+        double[] e = edges;
+        int crossings = 0;
+        for (int i = edgeStart[p]; i < edgeStart[p+1]; i += 4) {
+            double x0 = e[i], y0 = e[i+1], x1 = e[i+2], y1 = e[i+3];
+            if ((y < y0) && (y < y1))
+                continue;
+            if ((y >= y0) && (y >= y1))
+                continue;
+            if ((x >= x0) && (x >= x1))
+                continue;
+            if ((x < x0) && (x < x1)) {
+                crossings += (y0 < y1) ? 1 : -1;
+                continue;
+            }
+            double xintercept = x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+            if (x >= xintercept)
+                continue;
+            crossings += (y0 < y1) ? 1 : -1;
+        }
+        return (crossings & windingMask[p]) != 0;
+    }
+
+    public int getRegion(double x, double y) {
+        // (also false for NaN coordinates)
+        if (!((x >= minx) && (x <= maxx) && (y >= miny) && (y <= maxy)) || (region.length == 0))
+            return -1;
+
+        int node = 0;
+        while (children[4*node] >= 0) {
+            int quadrant = ((x >= midx[node]) ? 1 : 0) + ((y >= midy[node]) ? 2 : 0);
+            node = children[4*node + quadrant];
+        }
+        for (int i = crossStart[node]; i < crossStart[node + 1]; i++) {
+            int p = crossing[i];
+            if (contains(p, x, y))
+                return p;
+        }
+        return region[node];
+    }
+
+    /**
+     * Writes the index (see SpatialArtifacts); polygons with curves are not
+     *   supported.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        int n = windingMask.length;
+        for (int p = 0; p < n; p++) {
+            if (curved[p] != null)
+                throw new IOException("Polygons with curves are not supported: polygon " + p);
+        }
+        out.writeInt(n);
+        SpatialArtifacts.writeInts(out, windingMask);
+        SpatialArtifacts.writeInts(out, edgeStart);
+        SpatialArtifacts.writeDoubles(out, edges);
+        out.writeInt(nbEdges);
+        out.writeDouble(minx);
+        out.writeDouble(miny);
+        out.writeDouble(maxx);
+        out.writeDouble(maxy);
+        out.writeDouble(eps);
+
+        int nodes = region.length;
+        out.writeInt(nodes);
+        SpatialArtifacts.writeInts(out, children);
+        SpatialArtifacts.writeDoubles(out, midx);
+        SpatialArtifacts.writeDoubles(out, midy);
+        SpatialArtifacts.writeInts(out, region);
+        SpatialArtifacts.writeInts(out, crossStart);
+        out.writeInt(crossing.length);
+        SpatialArtifacts.writeInts(out, crossing);
+    }
+
+    /**
+     * Index written by write, with no point-in-polygon test or subdivision.
+     */
+    public static QuadTreeIndex read(ByteBuffer buffer) {
+        QuadTreeIndex index = new QuadTreeIndex();
+        int n = buffer.getInt();
+        index.windingMask = SpatialArtifacts.getInts(buffer, n);
+        index.edgeStart = SpatialArtifacts.getInts(buffer, n + 1);
+        index.edges = SpatialArtifacts.getDoubles(buffer, index.edgeStart[n]);
+        index.curved = new Path2D.Double[n];
+        index.nbEdges = buffer.getInt();
+        index.minx = buffer.getDouble();
+        index.miny = buffer.getDouble();
+        index.maxx = buffer.getDouble();
+        index.maxy = buffer.getDouble();
+        index.eps = buffer.getDouble();
+
+        int nodes = buffer.getInt();
+        index.children = SpatialArtifacts.getInts(buffer, 4*nodes);
+        index.midx = SpatialArtifacts.getDoubles(buffer, nodes);
+        index.midy = SpatialArtifacts.getDoubles(buffer, nodes);
+        index.region = SpatialArtifacts.getInts(buffer, nodes);
+        index.crossStart = SpatialArtifacts.getInts(buffer, nodes + 1);
+        index.crossing = SpatialArtifacts.getInts(buffer, buffer.getInt());
+        index.childrenList = null;
+        index.midxList = index.midyList = null;
+        index.regionList = index.crossStartList = index.crossingList = null;
+        return index;
+    }
+
+    public int getNodeCount() {
+        return region.length;
+    }
+
+    public int getEdgeCount() {
+        return nbEdges;
+    }
+}
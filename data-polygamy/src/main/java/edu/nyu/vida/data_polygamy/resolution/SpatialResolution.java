@@ -5,9 +5,19 @@ package edu.nyu.vida.data_polygamy.resolution;
 
 import java.util.ArrayList;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+
 public interface SpatialResolution {
 
     ArrayList<Integer> translate(String[] input);
+    ArrayList<Integer> translate(CSVTokenizer input);
     int translate(int[] input);
     
+    // translate(int[]) as a table indexed by the input id (-1 for ids with
+    //  no translation), or null if the translation has no such table
+    int[] getTranslationTable();
+    
+    // releases the spatial data shared with other tasks (see SpatialResources)
+    void close();
+    
 }
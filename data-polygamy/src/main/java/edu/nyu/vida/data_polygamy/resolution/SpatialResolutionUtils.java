@@ -3,11 +3,31 @@
    See file LICENSE for full license details. */
 package edu.nyu.vida.data_polygamy.resolution;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
 import org.apache.hadoop.conf.Configuration;
 
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 
 public class SpatialResolutionUtils {
+    
+    /**
+     * Maps of the ids of the spatial files (zipcodes, blocks, bbls), with
+     *   primitive keys and values so that lookups do not box the ids:
+     *   get returns -1 for unknown ids.
+     */
+    public static Int2IntOpenHashMap intIdMap(int expected) {
+        Int2IntOpenHashMap map = new Int2IntOpenHashMap(expected);
+        map.defaultReturnValue(-1);
+        return map;
+    }
+    
+    public static Long2IntOpenHashMap longIdMap(int expected) {
+        Long2IntOpenHashMap map = new Long2IntOpenHashMap(expected);
+        map.defaultReturnValue(-1);
+        return map;
+    }
 
     public static SpatialResolution pointsResolution(int spatialResolution,
             int gridResolution, int[] xPositions, int[] yPositions,
@@ -5,6 +5,8 @@ package edu.nyu.vida.data_polygamy.resolution;
 
 import java.util.ArrayList;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+
 public class ToCity implements SpatialResolution {
     
 	private int[] positions;
@@ -22,10 +24,29 @@ public class ToCity implements SpatialResolution {
         return output;
     }
     
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        // assuming all the neighborhood and grid data is from NYC
+        ArrayList<Integer> output = new ArrayList<Integer>();
+        for (int i = 0; i < positions.length; i++)
+        	output.add(0);
+        return output;
+    }
+    
     @Override
     public int translate(int[] input) {
         // assuming all the neighborhood and grid data is from NYC
         return 0;
     }
 
+    @Override
+    public int[] getTranslationTable() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
 }
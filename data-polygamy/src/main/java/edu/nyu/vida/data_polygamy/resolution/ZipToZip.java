@@ -3,45 +3,79 @@
    See file LICENSE for full license details. */
 package edu.nyu.vida.data_polygamy.resolution;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import edu.nyu.vida.data_polygamy.utils.CSVTokenizer;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
+import edu.nyu.vida.data_polygamy.utils.SpatialResources;
+
 public class ZipToZip implements SpatialResolution {
     
     private int[] positions;
-    private HashMap<Integer, Integer> zipcodeMap = new HashMap<Integer, Integer>();
+    private Int2IntOpenHashMap zipcodeMap = SpatialResolutionUtils.intIdMap(16);
     
     private String data;
+    private String key = null;
     
-    public ZipToZip(int[] spatialPos, Configuration conf) {
+    public ZipToZip(int[] spatialPos, final Configuration conf) {
         this.positions = spatialPos;
         
-        String bucket = conf.get("bucket", "");
+        final String bucket = conf.get("bucket", "");
         
         data = bucket + "zipcode";
         
+        // ids of the zipcodes are shared by the tasks of the JVM
         try {
-            if (bucket.equals("")) {
-                FileSystem fs = FileSystem.get(new Configuration());
-                readData(fs.open(new Path(data)));
-            } else {
-            	Path dataPath = new Path(data);
-                FileSystem fs = FileSystem.get(dataPath.toUri(), conf);
-                readData(fs.open(dataPath));
-            }
+            String resource = SpatialResources.key(data, "ZipToZip");
+            ZipToZip shared = SpatialResources.acquire(resource,
+                    new SpatialResources.Loader<ZipToZip>() {
+                @Override
+                public ZipToZip load() throws IOException {
+                    return new ZipToZip(bucket, conf);
+                }
+            });
+            zipcodeMap = shared.zipcodeMap;
+            key = resource;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
+    // shared instance, with no positions
+    private ZipToZip(String bucket, Configuration conf) throws IOException {
+        
+        data = bucket + "zipcode";
+        
+        ByteBuffer artifact = SpatialArtifacts.open("zipcode", SpatialArtifacts.REGIONS);
+        if (artifact != null) {
+            int[] ids = SpatialArtifacts.readRegionIds(artifact);
+            zipcodeMap = SpatialResolutionUtils.intIdMap(ids.length);
+            for (int i = 0; i < ids.length; i++)
+                zipcodeMap.put(ids[i], i);
+            return;
+        }
+        
+        if (bucket.equals("")) {
+            FileSystem fs = FileSystem.get(new Configuration());
+            readData(fs.open(new Path(data)));
+        } else {
+        	Path dataPath = new Path(data);
+            FileSystem fs = FileSystem.get(dataPath.toUri(), conf);
+            readData(fs.open(dataPath));
+        }
+    }
+    
     private void readData(FSDataInputStream fis) throws IOException {
         
         int zipcodeId = 0;
@@ -95,12 +129,41 @@ public class ZipToZip implements SpatialResolution {
                 continue;
             }
           
-            if(zipcodeMap.containsKey(zip)) {
-                region.add(zipcodeMap.get(zip));
+            int id = zipcodeMap.get(zip);
+            region.add(id);
+            if (id != -1)
                 foundOne = true;
+        }
+      
+        if (foundOne)
+            return region;
+        return new ArrayList<Integer>();
+    }
+
+    @Override
+    public ArrayList<Integer> translate(CSVTokenizer input) {
+        
+        ArrayList<Integer> region = new ArrayList<Integer>();
+        
+        // getting spatial attributes
+        int zip = 0;
+        boolean foundOne = false;
+        for (int i = 0; i < positions.length; i++) {
+            
+            if (input.isNull(positions[i]))
+                continue;
+          
+            try {
+                zip = (int)input.getDouble(positions[i]);
+            } catch (NumberFormatException e) {
+            	// no information regarding zipcode
+                continue;
             }
-            else
-                region.add(-1);
+          
+            int id = zipcodeMap.get(zip);
+            region.add(id);
+            if (id != -1)
+                foundOne = true;
         }
       
         if (foundOne)
@@ -114,4 +177,17 @@ public class ZipToZip implements SpatialResolution {
         return -1;
 	}
 
+    @Override
+    public int[] getTranslationTable() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        if (key != null) {
+            SpatialResources.release(key);
+            key = null;
+        }
+    }
+
 }
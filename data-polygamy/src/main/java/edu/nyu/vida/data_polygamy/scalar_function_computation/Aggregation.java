@@ -34,6 +34,7 @@ import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AggregationArrayWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.FloatArrayWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Machine;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalWritable;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
 
 public class Aggregation {
     
@@ -363,6 +364,9 @@ public class Aggregation {
                 preProcessingDatasets.length()-1));
         FileOutputFormat.setOutputPath(aggJob, new Path(aggregatesOutputDir));
    
+        // pre-built spatial files (see SpatialArtifacts)
+        SpatialArtifacts.addToCache(aggJob);
+        
         aggJob.setJarByClass(Aggregation.class);
         
         long start = System.currentTimeMillis();
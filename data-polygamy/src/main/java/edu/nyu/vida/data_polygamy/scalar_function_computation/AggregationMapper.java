@@ -35,6 +35,9 @@ public class AggregationMapper extends Mapper<MultipleSpatioTemporalWritable, Ag
     int temporalResolution, spatialResolution;
     boolean sameResolution = false;
     SpatialResolution[] spatialTranslation;
+    // dense tables of the translations that have one (see
+    //  SpatialResolution.getTranslationTable), null otherwise
+    int[][] translationTables;
     
     // output key
     SpatioTemporalWritable keyWritable = new SpatioTemporalWritable();
@@ -147,10 +150,12 @@ public class AggregationMapper extends Mapper<MultipleSpatioTemporalWritable, Ag
          */
         
         spatialTranslation = new SpatialResolution[spatialResolutions.length];
+        translationTables = new int[spatialResolutions.length][];
         for (int i = 0; i < spatialResolutions.length; i++) {
             spatialTranslation[i] = resolveResolution(
                     currentSpatial, spatialResolutions[i], spatialIndex,
                     context.getConfiguration());
+            translationTables[i] = spatialTranslation[i].getTranslationTable();
         }
     }
     
@@ -191,8 +196,14 @@ public class AggregationMapper extends Mapper<MultipleSpatioTemporalWritable, Ag
             
             spatialAtt = spatialArray[spatialIndex];
             
-            if (currentSpatial != spatialResolution)
-                spatialAtt = spatialTranslation[i].translate(spatialArray);
+            if (currentSpatial != spatialResolution) {
+                int[] table = translationTables[i];
+                if (table != null)
+                    spatialAtt = ((spatialAtt >= 0) && (spatialAtt < table.length)) ?
+                            table[spatialAtt] : invalidSpatial;
+                else
+                    spatialAtt = spatialTranslation[i].translate(spatialArray);
+            }
             
             if (spatialAtt == invalidSpatial)
                 continue;
@@ -215,4 +226,12 @@ public class AggregationMapper extends Mapper<MultipleSpatioTemporalWritable, Ag
         }
     }
     
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+        for (int i = 0; i < spatialTranslation.length; i++) {
+            if (spatialTranslation[i] != null)
+                spatialTranslation[i].close();
+        }
+    }
+    
 }
@@ -29,10 +29,12 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import edu.nyu.vida.data_polygamy.utils.CostPartitioner;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.Machine;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalValueWritable;
+import edu.nyu.vida.data_polygamy.utils.SpatialArtifacts;
 
 public class CorrelationTechniques {
     
@@ -141,6 +143,11 @@ public class CorrelationTechniques {
         bucketOption.setArgs(1);
         options.addOption(bucketOption);
         
+        Option costOption = new Option("cp", "cost-partitioner", false, "assign pairs of attributes "
+                + "to reducers based on their estimated cost, rather than on their hash");
+        costOption.setRequired(false);
+        options.addOption(costOption);
+        
         Option helpOption = new Option("h", "help", false, "display this message");
         helpOption.setRequired(false);
         options.addOption(helpOption);
@@ -203,6 +210,7 @@ public class CorrelationTechniques {
     	HashMap<String,String> datasetAgg = new HashMap<String,String>();
     	
     	boolean removeExistingFiles = cmd.hasOption("f");
+    	boolean costPartitioner = cmd.hasOption("cp");
     	
     	String[] firstGroupCmd = cmd.getOptionValues("g1");
     	String[] secondGroupCmd = cmd.hasOption("g2") ? cmd.getOptionValues("g2") : new String[0];
@@ -353,6 +361,13 @@ public class CorrelationTechniques {
         if (noRelationship.length() > 0) {
             conf.set("no-relationship", noRelationship.substring(0, noRelationship.length()-1));
         }
+        conf.set("cost-partitioner", String.valueOf(costPartitioner));
+        if (costPartitioner) {
+            for (String dataset : shortDataset) {
+                conf.set("dataset-" + datasetId.get(dataset) + "-resolutions", CostPartitioner.resolutions(
+                        FrameworkUtils.searchAggregatesHeader(dataset, s3conf, s3)));
+            }
+        }
         
         conf.set("mapreduce.tasktracker.map.tasks.maximum", String.valueOf(machineConf.getMaximumTasks()));
         conf.set("mapreduce.tasktracker.reduce.tasks.maximum", String.valueOf(machineConf.getMaximumTasks()));
@@ -391,6 +406,8 @@ public class CorrelationTechniques {
    
         job.setMapperClass(CorrelationTechniquesMapper.class);
         job.setReducerClass(CorrelationTechniquesReducer.class);
+        if (costPartitioner)
+            job.setPartitionerClass(CostPartitioner.PairAttributePartitioner.class);
         job.setNumReduceTasks(machineConf.getNumberReduces());
    
         job.setInputFormatClass(SequenceFileInputFormat.class);
@@ -400,6 +417,9 @@ public class CorrelationTechniques {
         FileInputFormat.setInputPaths(job, dataAttributesInputDirs.substring(0, dataAttributesInputDirs.length()-1));
         FileOutputFormat.setOutputPath(job, new Path(correlationOutputDir));
    
+        // pre-built spatial files (see SpatialArtifacts)
+        SpatialArtifacts.addToCache(job);
+        
         job.setJarByClass(CorrelationTechniques.class);
    
         long start = System.currentTimeMillis();
@@ -25,6 +25,7 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
+import edu.nyu.vida.data_polygamy.utils.CostPartitioner;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
 import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.SpatioTemporalValueWritable;
@@ -43,10 +44,10 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
     
     // spatial information
     SpatialGraph spatialGraph = new SpatialGraph();
-    SpatialGraph nbhdGraph = new SpatialGraph();
-    SpatialGraph zipGraph = new SpatialGraph();
+    // graphs shared by the tasks of the JVM (see SpatialResources),
+    //  acquired with the first key of their resolution
+    HashMap<Integer,SpatialGraph> graphs = new HashMap<Integer,SpatialGraph>();
     int gridSize = 0;
-    int[][] originalGrid;
     boolean isNbhd = false;
     boolean isGrid = false;
     boolean isZip = false;
@@ -78,13 +79,25 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
     float alpha = 0.05f;
     int repetitions = 1000;
     
+    // estimated vs actual cost of the reducer, with 'cost-partitioner'
+    CostPartitioner.Log<PairAttributeWritable> costLog = null;
+    
     Text keyWritable = new Text();
     Text valueWritable = new Text();
     
     boolean s3 = true;
     private MultipleOutputs<Text,Text> out;
     
-    private void resolutionHandler(int spatialResolution, int temporalResolution) {
+    private SpatialGraph graph(int spatialResolution) throws IOException {
+        SpatialGraph graph = graphs.get(spatialResolution);
+        if (graph == null) {
+            graph = SpatialGraph.acquire(spatialResolution, conf);
+            graphs.put(spatialResolution, graph);
+        }
+        return graph;
+    }
+    
+    private void resolutionHandler(int spatialResolution, int temporalResolution) throws IOException {
     	spatial = spatialResolution;
         temporal = temporalResolution;
         
@@ -102,11 +115,11 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
         
         switch(spatial) {
         case FrameworkUtils.NBHD:
-            spatialGraph.init(nbhdGraph);
+            spatialGraph.init(graph(spatial));
             isNbhd = true;
             break;
         case FrameworkUtils.ZIP:
-            spatialGraph.init(zipGraph);
+            spatialGraph.init(graph(spatial));
         	isZip = true;
         	break;
         case FrameworkUtils.GRID:
@@ -172,20 +185,13 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
             datasets.put(datasetId, datasetNames[i]);
         }
         
-        // nbhd grapgh
-        nbhdGraph.init(FrameworkUtils.NBHD, conf);
-        
-        // zipcode graph
-        zipGraph.init(FrameworkUtils.ZIP, conf);
-        
-        // grid
+        // grid (cell (i,j) has id j * gridSize + i)
         gridSize = 2048;
         //gridSize = Integer.parseInt(conf.get("spatial-resolution").replace("grid", ""));
-        originalGrid = new int[gridSize][gridSize];
-        for (int j = 0; j < gridSize; j++) {
-            for (int i = 0; i < gridSize; i++)
-                originalGrid[i][j] = j * gridSize + i;
-        }
+        
+        if (conf.getBoolean("cost-partitioner", false))
+            costLog = new CostPartitioner.Log<PairAttributeWritable>(
+                    new CostPartitioner.PairAttributePartitioner<SpatioTemporalValueWritable>(), conf);
     }
     
     @SuppressWarnings("unchecked")
@@ -193,6 +199,9 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
     public void reduce(PairAttributeWritable key, Iterable<SpatioTemporalValueWritable> values, Context context)
             throws IOException, InterruptedException {
         
+        if (costLog != null)
+            costLog.start(key);
+        
         resolutionHandler(key.getSpatialResolution(), key.getTemporalResolution());
         
         int size = 0;
@@ -201,7 +210,7 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
             size = spatialGraph.nbNodes();
             break;
         case FrameworkUtils.ZIP:
-            size = zipGraph.nbNodes();
+            size = spatialGraph.nbNodes();
             break;
         case FrameworkUtils.GRID:
             size = gridSize;
@@ -428,6 +437,11 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
     
     @Override
     public void cleanup(Context context) throws IOException, InterruptedException {
+        if (costLog != null)
+            costLog.print(context);
+        for (int resolution : graphs.keySet())
+            SpatialGraph.release(resolution, conf);
+        graphs.clear();
     	out.close();
     }
     
@@ -629,8 +643,8 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
                 int newX = (x + i) % gridSize;
                 int newY = (y + j) % gridSize;
                 Integer[] pair = new Integer[2];
-                pair[0] = originalGrid[i][j];
-                pair[1] = originalGrid[newX][newY];
+                pair[0] = j * gridSize + i;
+                pair[1] = newY * gridSize + newX;
                 result.add(pair);
             }
         }
@@ -640,8 +654,7 @@ public class CorrelationTechniquesReducer extends Reducer<PairAttributeWritable,
     
     // TODO: we may not have all the neighborhoods for the data
     private ArrayList<Integer[]> bfsShift(boolean isNbhd) {
-        if (isNbhd)
-            return spatialGraph.generateRandomShift();
-        return zipGraph.generateRandomShift();
+        // spatialGraph holds the graph of the current resolution
+        return spatialGraph.generateRandomShift();
     }
 }
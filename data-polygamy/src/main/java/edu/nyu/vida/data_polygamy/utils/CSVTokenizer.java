@@ -0,0 +1,234 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Byte-level CSV tokenizer for the lines of the raw datasets.
+ *
+ * A line is split in place: only the offsets of the fields are kept,
+ *   and a field is decoded (as a String or as a number) only when it is
+ *   accessed, so columns that are not used are never decoded. Tokenizers
+ *   are meant to be reused across lines and do not allocate on lines with
+ *   plain (unescaped) numeric fields.
+ *
+ * Fields follow the same rules as the commons-csv parser with the default
+ *   format previously used (see FrameworkUtils.splitStr): a field starting
+ *   with a double quote is quoted, a double quote inside quotes is escaped
+ *   by another double quote, and fields are trimmed. A line with more
+ *   fields than expected is split on commas only, the last field holding
+ *   the remaining of the line.
+ */
+public class CSVTokenizer {
+
+    private static final double[] DOUBLE_POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22};
+    private static final float[] FLOAT_POW10 = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    // largest mantissas represented exactly by a double and by a float
+    private static final long DOUBLE_MANTISSA = 1L << 53;
+    private static final long FLOAT_MANTISSA = 1L << 24;
+
+    private byte[] bytes = new byte[0];
+    private int nbFields = 0;
+    private int[] start = new int[16];
+    private int[] end = new int[16];
+    private boolean[] escaped = new boolean[16];
+
+    // result of the last call to parseDecimal
+    private long mantissa = 0;
+    private int scale = 0;
+    private boolean negative = false;
+
+    public void tokenize(Text line, int maxFields) throws IOException {
+        tokenize(line.getBytes(), line.getLength(), maxFields);
+    }
+
+    public void tokenize(byte[] bytes, int length, int maxFields) throws IOException {
+        this.bytes = bytes;
+        if (length == 0)
+            throw new IOException("empty line");
+        split(length, true, 0);
+        if (nbFields > maxFields)
+            split(length, false, maxFields);
+    }
+
+    public int size() {
+        return nbFields;
+    }
+
+    public boolean isNull(int field) {
+        return (field >= nbFields);
+    }
+
+    /**
+     * Length of the field, in bytes.
+     */
+    public int length(int field) {
+        return (field >= nbFields) ? 0 : end[field] - start[field];
+    }
+
+    public String getString(int field) {
+        if (field >= nbFields)
+            return null;
+        String value = new String(bytes, start[field], end[field] - start[field],
+                StandardCharsets.UTF_8);
+        return escaped[field] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * All the fields, as FrameworkUtils.splitStr(line, size).
+     */
+    public String[] getStrings(int size) {
+        String[] input = new String[size];
+        for (int i = 0; (i < size) && (i < nbFields); i++)
+            input[i] = getString(i);
+        return input;
+    }
+
+    public double getDouble(int field) throws NumberFormatException {
+        return getDouble(field, 0, length(field));
+    }
+
+    /**
+     * Parses the bytes [offset, offset + length) of the field as
+     *   Double.parseDouble would do.
+     */
+    public double getDouble(int field, int offset, int length) throws NumberFormatException {
+        if (field >= nbFields)
+            throw new NumberFormatException("missing field " + field);
+        int from = start[field] + offset;
+        if (parseDecimal(from, from + length) && (mantissa < DOUBLE_MANTISSA)
+                && (scale < DOUBLE_POW10.length)) {
+            // both operands are exact, so the division is correctly rounded
+            double value = mantissa/DOUBLE_POW10[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(substring(field, offset, length));
+    }
+
+    public float getFloat(int field) throws NumberFormatException {
+        if (field >= nbFields)
+            throw new NumberFormatException("missing field " + field);
+        if (parseDecimal(start[field], end[field]) && (mantissa < FLOAT_MANTISSA)
+                && (scale < FLOAT_POW10.length)) {
+            float value = mantissa/FLOAT_POW10[scale];
+            return negative ? -value : value;
+        }
+        return Float.parseFloat(getString(field));
+    }
+
+    private String substring(int field, int offset, int length) {
+        if ((offset == 0) && (length == end[field] - start[field]))
+            return getString(field);
+        return new String(bytes, start[field] + offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses [+-]digits[.digits] with at most 18 significant digits;
+     *   returns false for anything else, which is left to the JDK parsers.
+     */
+    private boolean parseDecimal(int from, int to) {
+        if (from >= to)
+            return false;
+
+        int i = from;
+        negative = (bytes[i] == '-');
+        if (negative || (bytes[i] == '+'))
+            i++;
+
+        long m = 0;
+        int digits = 0;
+        int s = 0;
+        boolean point = false;
+        boolean found = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if ((b >= '0') && (b <= '9')) {
+                found = true;
+                if (((digits > 0) || (b != '0')) && (++digits > 18))
+                    return false;
+                m = m*10 + (b - '0');
+                if (point)
+                    s++;
+            } else if ((b == '.') && !point) {
+                point = true;
+            } else {
+                return false;
+            }
+        }
+        if (!found)
+            return false;
+
+        mantissa = m;
+        scale = s;
+        return true;
+    }
+
+    private void split(int length, boolean quoting, int maxFields) throws IOException {
+        nbFields = 0;
+        int i = 0;
+        while (true) {
+            if (quoting && (i < length) && (bytes[i] == '"')) {
+                boolean esc = false;
+                int from = ++i;
+                while (true) {
+                    if (i >= length)
+                        throw new IOException("EOF reached before encapsulated token finished");
+                    if (bytes[i] == '"') {
+                        if ((i + 1 < length) && (bytes[i+1] == '"')) {
+                            esc = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                int to = i++;
+                for (; (i < length) && (bytes[i] != ','); i++) {
+                    if ((bytes[i] & 0xff) > ' ')
+                        throw new IOException("invalid char between encapsulated token and delimiter");
+                }
+                addField(from, to, esc);
+            } else {
+                int from = i;
+                if ((maxFields > 0) && (nbFields == maxFields - 1))
+                    i = length;
+                while ((i < length) && (bytes[i] != ','))
+                    i++;
+                addField(from, i, false);
+            }
+            if (i >= length)
+                break;
+            i++;
+        }
+    }
+
+    private void addField(int from, int to, boolean esc) {
+        // same as String.trim()
+        while ((from < to) && ((bytes[from] & 0xff) <= ' '))
+            from++;
+        while ((to > from) && ((bytes[to-1] & 0xff) <= ' '))
+            to--;
+
+        if (nbFields == start.length) {
+            start = Arrays.copyOf(start, 2*nbFields);
+            end = Arrays.copyOf(end, 2*nbFields);
+            escaped = Arrays.copyOf(escaped, 2*nbFields);
+        }
+        start[nbFields] = from;
+        end[nbFields] = to;
+        escaped[nbFields] = esc;
+        nbFields++;
+    }
+}
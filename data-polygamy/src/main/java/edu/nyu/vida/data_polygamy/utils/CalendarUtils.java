@@ -0,0 +1,242 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+/**
+ * UTC calendar arithmetic on epoch seconds for the temporal resolutions
+ *   of the framework (see FrameworkUtils.HOUR ... FrameworkUtils.YEAR).
+ *
+ * Dates are converted from and to days since epoch with integer arithmetic
+ *   (proleptic Gregorian calendar, as in Joda's ISO chronology), so flooring
+ *   a timestamp, counting the time steps between two timestamps, and moving
+ *   a timestamp by a number of time steps do not allocate any object.
+ *   Results are the same as the ones of the Joda time functions previously
+ *   used: weeks are ISO weeks (starting on Monday), differences in months
+ *   and years count whole units only, and adding months or years clamps
+ *   the day of month to the last day of the resulting month.
+ */
+public final class CalendarUtils {
+
+    public static final long SECONDS_PER_HOUR = 3600L;
+    public static final long SECONDS_PER_DAY = 86400L;
+    public static final long SECONDS_PER_WEEK = 604800L;
+
+    // days before the first day of each month, for non-leap years
+    private static final int[] DAYS_BEFORE_MONTH =
+        {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334, 365};
+
+    // days from 0000-03-01 to 1970-01-01
+    private static final long EPOCH_OFFSET = 719468L;
+    private static final long DAYS_PER_ERA = 146097L;
+
+    // 1970-01-01 is a Thursday
+    private static final int EPOCH_DAY_OF_WEEK = 3;
+
+    private CalendarUtils() {}
+
+    /**
+     * Days and months
+     */
+
+    public static boolean isLeapYear(int year) {
+        return ((year & 3) == 0) && (((year % 100) != 0) || ((year % 400) == 0));
+    }
+
+    public static int daysInMonth(int year, int month) {
+        if ((month == 2) && isLeapYear(year))
+            return 29;
+        return DAYS_BEFORE_MONTH[month] - DAYS_BEFORE_MONTH[month-1];
+    }
+
+    /**
+     * Days since epoch of the given date (month in [1,12]).
+     */
+    public static long epochDay(int year, int month, int day) {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era*400;
+        long dayOfYear = (153*((month > 2) ? month - 3 : month + 9) + 2)/5 + day - 1;
+        long dayOfEra = yearOfEra*365 + yearOfEra/4 - yearOfEra/100 + dayOfYear;
+        return era*DAYS_PER_ERA + dayOfEra - EPOCH_OFFSET;
+    }
+
+    /**
+     * Month of the given day since epoch, as year*12 + (month-1).
+     */
+    public static long monthIndex(long epochDay) {
+        long z = epochDay + EPOCH_OFFSET;
+        long era = floorDiv(z, DAYS_PER_ERA);
+        long dayOfEra = z - era*DAYS_PER_ERA;
+        long yearOfEra = (dayOfEra - dayOfEra/1460 + dayOfEra/36524 - dayOfEra/146096)/365;
+        long dayOfYear = dayOfEra - (365*yearOfEra + yearOfEra/4 - yearOfEra/100);
+        long mp = (5*dayOfYear + 2)/153;
+        long year = yearOfEra + era*400;
+        // mp counts months from March
+        return (mp < 10) ? year*12 + mp + 2 : (year + 1)*12 + mp - 10;
+    }
+
+    /**
+     * Days since epoch of the first day of the given month index.
+     */
+    public static long monthStart(long monthIndex) {
+        return epochDay((int) floorDiv(monthIndex, 12), (int) floorMod(monthIndex, 12) + 1, 1);
+    }
+
+    public static int getYear(long seconds) {
+        return (int) floorDiv(monthIndex(floorDiv(seconds, SECONDS_PER_DAY)), 12);
+    }
+
+    public static int getMonthOfYear(long seconds) {
+        return (int) floorMod(monthIndex(floorDiv(seconds, SECONDS_PER_DAY)), 12) + 1;
+    }
+
+    /**
+     * Temporal resolutions
+     */
+
+    /**
+     * Start of the time step (hour, day, ISO week, month, or year)
+     *   containing the given time, in seconds since epoch.
+     */
+    public static long floor(int tempRes, long seconds) {
+        long day = floorDiv(seconds, SECONDS_PER_DAY);
+        long month;
+
+        switch (tempRes) {
+        case FrameworkUtils.DAY:
+            return day*SECONDS_PER_DAY;
+        case FrameworkUtils.WEEK:
+            return (day - floorMod(day + EPOCH_DAY_OF_WEEK, 7))*SECONDS_PER_DAY;
+        case FrameworkUtils.MONTH:
+            return monthStart(monthIndex(day))*SECONDS_PER_DAY;
+        case FrameworkUtils.YEAR:
+            month = monthIndex(day);
+            return monthStart(month - floorMod(month, 12))*SECONDS_PER_DAY;
+        case FrameworkUtils.HOUR:
+        default:
+            return floorDiv(seconds, SECONDS_PER_HOUR)*SECONDS_PER_HOUR;
+        }
+    }
+
+    /**
+     * Number of whole time steps between two times, in seconds since epoch
+     *   (negative if end is before start).
+     */
+    public static int stepsBetween(int tempRes, long start, long end) {
+
+        if (start > end)
+            return -stepsBetween(tempRes, end, start);
+
+        switch (tempRes) {
+        case FrameworkUtils.DAY:
+            return (int) ((end - start)/SECONDS_PER_DAY);
+        case FrameworkUtils.WEEK:
+            return (int) ((end - start)/SECONDS_PER_WEEK);
+        case FrameworkUtils.MONTH:
+            return monthsBetween(start, end);
+        case FrameworkUtils.YEAR:
+            return yearsBetween(start, end);
+        case FrameworkUtils.HOUR:
+        default:
+            return (int) ((end - start)/SECONDS_PER_HOUR);
+        }
+    }
+
+    /**
+     * Time, in seconds since epoch, after the given number of time steps.
+     */
+    public static long addSteps(int tempRes, int increment, long start) {
+
+        switch (tempRes) {
+        case FrameworkUtils.DAY:
+            return start + increment*SECONDS_PER_DAY;
+        case FrameworkUtils.WEEK:
+            return start + increment*SECONDS_PER_WEEK;
+        case FrameworkUtils.MONTH:
+            return addMonths(start, increment);
+        case FrameworkUtils.YEAR:
+            return addMonths(start, 12L*increment);
+        case FrameworkUtils.HOUR:
+        default:
+            return start + increment*SECONDS_PER_HOUR;
+        }
+    }
+
+    private static long addMonths(long seconds, long months) {
+        long day = floorDiv(seconds, SECONDS_PER_DAY);
+        long secondOfDay = seconds - day*SECONDS_PER_DAY;
+        long month = monthIndex(day);
+        long dayOfMonth = day - monthStart(month);
+
+        month += months;
+        int lastDay = daysInMonth((int) floorDiv(month, 12), (int) floorMod(month, 12) + 1);
+        if (dayOfMonth >= lastDay)
+            dayOfMonth = lastDay - 1;
+
+        return (monthStart(month) + dayOfMonth)*SECONDS_PER_DAY + secondOfDay;
+    }
+
+    // start <= end
+    private static int monthsBetween(long start, long end) {
+        long startDay = floorDiv(start, SECONDS_PER_DAY);
+        long endDay = floorDiv(end, SECONDS_PER_DAY);
+        long startMonth = monthIndex(startDay);
+        long endMonth = monthIndex(endDay);
+
+        long startRem = start - monthStart(startMonth)*SECONDS_PER_DAY;
+        long endRem = end - monthStart(endMonth)*SECONDS_PER_DAY;
+
+        // end on the last day of its month: a start day of month past it
+        //   counts as the same day (e.g., Jan 31 -> Feb 28 is one month)
+        long endDayOfMonth = endDay - monthStart(endMonth);
+        int lastDay = daysInMonth((int) floorDiv(endMonth, 12), (int) floorMod(endMonth, 12) + 1);
+        if ((endDayOfMonth == lastDay - 1) && (startRem >= lastDay*SECONDS_PER_DAY))
+            startRem = endDayOfMonth*SECONDS_PER_DAY + floorMod(start, SECONDS_PER_DAY);
+
+        long difference = endMonth - startMonth;
+        if (endRem < startRem)
+            difference--;
+        return (int) difference;
+    }
+
+    // start <= end
+    private static int yearsBetween(long start, long end) {
+        long startMonth = monthIndex(floorDiv(start, SECONDS_PER_DAY));
+        long endMonth = monthIndex(floorDiv(end, SECONDS_PER_DAY));
+        int startYear = (int) floorDiv(startMonth, 12);
+        int endYear = (int) floorDiv(endMonth, 12);
+
+        long startRem = start - epochDay(startYear, 1, 1)*SECONDS_PER_DAY;
+        long endRem = end - epochDay(endYear, 1, 1)*SECONDS_PER_DAY;
+
+        // balance leap days (as Joda's getYearDifference): a start on or
+        //   after Feb 29 (Mar 1 in a non-leap year) is compared to an end
+        //   on or after Feb 29 as if both years had the same length
+        long feb29 = DAYS_BEFORE_MONTH[2]*SECONDS_PER_DAY;
+        if (startRem >= feb29) {
+            if (isLeapYear(startYear)) {
+                if (!isLeapYear(endYear))
+                    startRem -= SECONDS_PER_DAY;
+            } else if ((endRem >= feb29) && isLeapYear(endYear)) {
+                endRem -= SECONDS_PER_DAY;
+            }
+        }
+
+        int difference = endYear - startYear;
+        if (endRem < startRem)
+            difference--;
+        return difference;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x/y;
+        if (((x % y) != 0) && ((x < 0) != (y < 0)))
+            q--;
+        return q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y)*y;
+    }
+}
@@ -0,0 +1,460 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.AttributeResolutionWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.PairAttributeWritable;
+import edu.nyu.vida.data_polygamy.utils.FrameworkUtils.TopologyTimeSeriesWritable;
+
+/**
+ * Partitioner that balances the estimated work of the reducers, instead of
+ *   the number of keys: the cost of a key grows with the number of regions
+ *   of its spatial resolution and with the number of time steps of its
+ *   temporal resolution (over the time range of the datasets, if known), so
+ *   that, e.g., a GRID or BLOCK key may cost thousands of CITY keys.
+ *
+ * Keys are grouped by datasets and resolution (all the attributes of a group
+ *   have the same cost); groups are enumerated from the job configuration and
+ *   bin-packed into the reducers (longest processing time first), and groups
+ *   that are too expensive for a single reducer are split into slices by
+ *   attribute. Keys of unknown groups fall back to hash partitioning.
+ *
+ * The drivers describe the datasets through:
+ *   dataset-<id>-resolutions: 'temporal-spatial' resolutions of the dataset
+ *   dataset-<id>-time-range: 'start,end' in seconds (optional)
+ *
+ * Reducers should report their estimated and actual costs (see Log),
+ *   so that the model can be calibrated.
+ */
+public abstract class CostPartitioner<KEY, VALUE> extends Partitioner<KEY, VALUE> implements Configurable {
+
+    // approximate number of regions of each spatial resolution
+    //   (see the graphs under the data directory)
+    public static final int nbhdRegions = 260;
+    public static final int zipRegions = 244;
+    public static final int blockRegions = 28830;
+    public static final int gridRegions = 2048;
+
+    // time span used when the time range of a dataset is unknown
+    public static final long defaultTimeRange = 365*24*3600L;
+
+    private Configuration conf;
+
+    // group -> reducers of its slices
+    private HashMap<Long,int[]> assignment = new HashMap<Long,int[]>();
+    private double[] load = null;
+
+    // groups and their cost, filled by the subclasses
+    private ArrayList<Long> groups = new ArrayList<Long>();
+    private ArrayList<Double> groupCosts = new ArrayList<Double>();
+
+    protected HashMap<Integer,ArrayList<int[]>> resolutions = new HashMap<Integer,ArrayList<int[]>>();
+    protected HashMap<Integer,long[]> timeRanges = new HashMap<Integer,long[]>();
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        assignment.clear();
+        groups.clear();
+        groupCosts.clear();
+        resolutions.clear();
+        timeRanges.clear();
+        load = null;
+
+        for (String dataset : datasets(conf)) {
+            int id = Integer.parseInt(dataset);
+
+            ArrayList<int[]> res = new ArrayList<int[]>();
+            for (String r : conf.get("dataset-" + dataset + "-resolutions", "").split(",")) {
+                if (r.isEmpty()) continue;
+                String[] tokens = r.split("-");
+                res.add(new int[] {Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1])});
+            }
+            resolutions.put(id, res);
+
+            String range = conf.get("dataset-" + dataset + "-time-range", "");
+            if (!range.isEmpty()) {
+                String[] tokens = range.split(",");
+                timeRanges.put(id, new long[] {Long.parseLong(tokens[0]), Long.parseLong(tokens[1])});
+            }
+        }
+
+        addGroups(conf);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * Ids of the datasets of the job.
+     */
+    protected abstract String[] datasets(Configuration conf);
+
+    /**
+     * Enumerates the groups of keys of the job (see addGroup).
+     */
+    protected abstract void addGroups(Configuration conf);
+
+    /**
+     * Group and slice hash of a key.
+     */
+    protected abstract long group(KEY key);
+    protected abstract int sliceHash(KEY key);
+
+    /**
+     * Estimated cost of a single key.
+     */
+    public abstract double cost(KEY key);
+
+    protected void addGroup(long group, double cost) {
+        groups.add(group);
+        groupCosts.add(cost);
+    }
+
+    @Override
+    public int getPartition(KEY key, VALUE value, int numPartitions) {
+        if ((load == null) || (load.length != numPartitions))
+            pack(numPartitions);
+
+        int[] reducers = assignment.get(group(key));
+        if (reducers == null)
+            return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+        return reducers[(sliceHash(key) & Integer.MAX_VALUE) % reducers.length];
+    }
+
+    /**
+     * Estimated cost of all the keys sent to a reducer.
+     */
+    public double getEstimatedCost(int partition, int numPartitions) {
+        if ((load == null) || (load.length != numPartitions))
+            pack(numPartitions);
+        return load[partition];
+    }
+
+    private void pack(int numPartitions) {
+
+        assignment.clear();
+        load = new double[numPartitions];
+
+        double total = 0;
+        for (double cost : groupCosts)
+            total += cost;
+        double target = Math.max(total / numPartitions, Double.MIN_VALUE);
+
+        // slices: {group index, slice index}
+        final ArrayList<double[]> slices = new ArrayList<double[]>();
+        for (int i = 0; i < groups.size(); i++) {
+            double cost = groupCosts.get(i);
+            int nbSlices = (int) Math.min(numPartitions, Math.max(1, Math.ceil(cost / target)));
+            assignment.put(groups.get(i), new int[nbSlices]);
+            for (int j = 0; j < nbSlices; j++)
+                slices.add(new double[] {i, j, cost / nbSlices});
+        }
+
+        Collections.sort(slices, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] o1, double[] o2) {
+                int cmp = Double.compare(o2[2], o1[2]);
+                if (cmp != 0) return cmp;
+                cmp = Double.compare(o1[0], o2[0]);
+                if (cmp != 0) return cmp;
+                return Double.compare(o1[1], o2[1]);
+            }
+        });
+
+        // least loaded reducer first (ties broken by reducer id)
+        PriorityQueue<Integer> reducers = new PriorityQueue<Integer>(numPartitions,
+                new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int cmp = Double.compare(load[o1], load[o2]);
+                return (cmp != 0) ? cmp : o1.compareTo(o2);
+            }
+        });
+        for (int i = 0; i < numPartitions; i++)
+            reducers.add(i);
+
+        for (double[] slice : slices) {
+            int reducer = reducers.poll();
+            load[reducer] += slice[2];
+            assignment.get(groups.get((int) slice[0]))[(int) slice[1]] = reducer;
+            reducers.add(reducer);
+        }
+    }
+
+    /**
+     * Cost model
+     */
+
+    public static int regions(int spatial) {
+        switch(spatial) {
+        case FrameworkUtils.NBHD:
+            return nbhdRegions;
+        case FrameworkUtils.ZIP:
+            return zipRegions;
+        case FrameworkUtils.BLOCK:
+            return blockRegions;
+        case FrameworkUtils.GRID:
+            return gridRegions;
+        default:
+            return 1;
+        }
+    }
+
+    public static long stepSeconds(int temporal) {
+        switch(temporal) {
+        case FrameworkUtils.HOUR:
+            return 3600L;
+        case FrameworkUtils.DAY:
+            return 24*3600L;
+        case FrameworkUtils.WEEK:
+            return 7*24*3600L;
+        case FrameworkUtils.MONTH:
+            return 2629746L;
+        default:
+            return 31556952L;
+        }
+    }
+
+    /**
+     * Number of time steps shared by the given datasets.
+     */
+    protected long timeSteps(int temporal, int... datasets) {
+        long start = Long.MIN_VALUE;
+        long end = Long.MAX_VALUE;
+        for (int dataset : datasets) {
+            long[] range = timeRanges.get(dataset);
+            if (range == null) {
+                start = Long.MIN_VALUE;
+                break;
+            }
+            start = Math.max(start, range[0]);
+            end = Math.min(end, range[1]);
+        }
+        long span = (start == Long.MIN_VALUE) ? defaultTimeRange : Math.max(0, end - start);
+        return 1 + span / stepSeconds(temporal);
+    }
+
+    /**
+     * Resolutions shared by the given datasets.
+     */
+    protected ArrayList<int[]> sharedResolutions(int dataset1, int dataset2) {
+        ArrayList<int[]> result = new ArrayList<int[]>();
+        ArrayList<int[]> res1 = resolutions.get(dataset1);
+        ArrayList<int[]> res2 = resolutions.get(dataset2);
+        if ((res1 == null) || (res2 == null))
+            return result;
+        for (int[] r1 : res1)
+            for (int[] r2 : res2)
+                if ((r1[0] == r2[0]) && (r1[1] == r2[1]))
+                    result.add(r1);
+        return result;
+    }
+
+    private static long groupId(int dataset1, int dataset2, int spatial, int temporal) {
+        return (((long) dataset1) << 32) | ((dataset2 & 0xFFFFFFL) << 8) | (spatial << 4) | temporal;
+    }
+
+    /**
+     * Pairs of attributes of the relationship and standard techniques jobs;
+     *   time series are compared bit-packed, 64 time steps at a time.
+     */
+    public static class PairAttributePartitioner<VALUE> extends CostPartitioner<PairAttributeWritable, VALUE> {
+
+        @Override
+        protected String[] datasets(Configuration conf) {
+            return conf.get("dataset-keys", "").split(",");
+        }
+
+        @Override
+        protected void addGroups(Configuration conf) {
+
+            HashSet<String> noRelationship = new HashSet<String>();
+            for (String relationship : conf.get("no-relationship", "").split(",")) {
+                if (relationship.isEmpty()) continue;
+                String[] ids = relationship.split("-");
+                int id1 = Integer.parseInt(ids[0]);
+                int id2 = Integer.parseInt(ids[1]);
+                noRelationship.add(Math.min(id1, id2) + "-" + Math.max(id1, id2));
+            }
+
+            HashSet<String> pairs = new HashSet<String>();
+            for (String first : conf.get("first-group", "").split(",")) {
+                for (String second : conf.get("second-group", "").split(",")) {
+                    if (first.isEmpty() || second.isEmpty() || first.equals(second)) continue;
+                    int id1 = Math.min(Integer.parseInt(first), Integer.parseInt(second));
+                    int id2 = Math.max(Integer.parseInt(first), Integer.parseInt(second));
+                    String pair = id1 + "-" + id2;
+                    if (noRelationship.contains(pair) || (!pairs.add(pair))) continue;
+
+                    // events and outliers
+                    int nbPairs = 2 * conf.getInt("dataset-" + id1 + "-agg-size", 1) *
+                            conf.getInt("dataset-" + id2 + "-agg-size", 1);
+                    for (int[] res : sharedResolutions(id1, id2)) {
+                        addGroup(groupId(id1, id2, res[1], res[0]),
+                                nbPairs * cost(id1, id2, res[1], res[0]));
+                    }
+                }
+            }
+        }
+
+        private double cost(int dataset1, int dataset2, int spatial, int temporal) {
+            return regions(spatial) * (1 + timeSteps(temporal, dataset1, dataset2) / 64.0);
+        }
+
+        @Override
+        public double cost(PairAttributeWritable key) {
+            return cost(key.getFirstDataset(), key.getSecondDataset(),
+                    key.getSpatialResolution(), key.getTemporalResolution());
+        }
+
+        @Override
+        protected long group(PairAttributeWritable key) {
+            return groupId(key.getFirstDataset(), key.getSecondDataset(),
+                    key.getSpatialResolution(), key.getTemporalResolution());
+        }
+
+        @Override
+        protected int sliceHash(PairAttributeWritable key) {
+            return (31 * key.getFirstAttribute() + key.getSecondAttribute()) * 2 +
+                    ((key.getIsOutlier()) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Attributes of the index creation job;
+     *   merge trees are computed over all the time steps.
+     */
+    public static class AttributeResolutionPartitioner<VALUE> extends CostPartitioner<AttributeResolutionWritable, VALUE> {
+
+        @Override
+        protected String[] datasets(Configuration conf) {
+            return conf.get("dataset-id", "").split(",");
+        }
+
+        @Override
+        protected void addGroups(Configuration conf) {
+            for (String dataset : datasets(conf)) {
+                if (dataset.isEmpty()) continue;
+                int id = Integer.parseInt(dataset);
+                int nbAttributes = conf.get("dataset-" + dataset + "-aggregates", "").split(",").length;
+                for (int[] res : resolutions.get(id))
+                    addGroup(groupId(id, 0, res[1], res[0]), nbAttributes * cost(id, res[1], res[0]));
+            }
+        }
+
+        private double cost(int dataset, int spatial, int temporal) {
+            return regions(spatial) * (double) timeSteps(temporal, dataset);
+        }
+
+        @Override
+        public double cost(AttributeResolutionWritable key) {
+            return cost(key.getDataset(), key.getSpatialResolution(), key.getTemporalResolution());
+        }
+
+        @Override
+        protected long group(AttributeResolutionWritable key) {
+            return groupId(key.getDataset(), 0, key.getSpatialResolution(), key.getTemporalResolution());
+        }
+
+        @Override
+        protected int sliceHash(AttributeResolutionWritable key) {
+            return key.getAttribute();
+        }
+    }
+
+    /**
+     * Resolutions of a dataset ('temporal-spatial,...'), from the name of
+     *   its aggregates header (dataset-temporal-spatial.aggregates),
+     *   following the aggregation job.
+     */
+    public static String resolutions(String aggregatesHeaderFileName) {
+        String name = aggregatesHeaderFileName.replace(".aggregates", "");
+        String[] tokens = name.split("-");
+        int temporal = utils.temporalResolution(tokens[tokens.length-2]);
+        int spatial = utils.spatialResolution(tokens[tokens.length-1]);
+
+        String result = "";
+        for (String t : FrameworkUtils.getAggTempResolutions(temporal))
+            for (String s : FrameworkUtils.getAggSpatialResolutions(spatial))
+                result += utils.temporalResolution(t) + "-" + utils.spatialResolution(s) + ",";
+        return (result.isEmpty()) ? result : result.substring(0, result.length()-1);
+    }
+
+    /**
+     * Time range of a dataset ('start,end'), from the first
+     *   time series of one of its index files.
+     */
+    public static String timeRange(Path indexFile, Configuration conf) throws IOException {
+        AttributeResolutionWritable key = new AttributeResolutionWritable();
+        TopologyTimeSeriesWritable value = new TopologyTimeSeriesWritable();
+        SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(indexFile));
+        String result = "";
+        if (reader.next(key, value))
+            result = value.getStart() + "," + value.getEnd();
+        reader.close();
+        return result;
+    }
+
+    private static FrameworkUtils utils = new FrameworkUtils();
+
+    /**
+     * Estimated versus actual cost of a reducer: a key is timed
+     *   until the next one starts (or until the log is printed).
+     */
+    public static class Log<KEY> {
+
+        private CostPartitioner<KEY,?> partitioner;
+        private double estimated = 0;
+        private long nbKeys = 0;
+        private long time = 0;
+        private long start = -1;
+
+        public Log(CostPartitioner<KEY,?> partitioner, Configuration conf) {
+            this.partitioner = partitioner;
+            partitioner.setConf(conf);
+        }
+
+        public void start(KEY key) {
+            end();
+            estimated += partitioner.cost(key);
+            nbKeys++;
+            start = System.currentTimeMillis();
+        }
+
+        private void end() {
+            if (start >= 0)
+                time += System.currentTimeMillis() - start;
+            start = -1;
+        }
+
+        public void print(TaskInputOutputContext<?,?,?,?> context) {
+            end();
+            int partition = context.getTaskAttemptID().getTaskID().getId();
+            int numPartitions = context.getNumReduceTasks();
+            System.out.println("Partition " + partition + ": estimated cost "
+                    + partitioner.getEstimatedCost(partition, numPartitions)
+                    + " | cost of received keys " + estimated
+                    + " | keys " + nbKeys
+                    + " | time (ms) " + time);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+/**
+ * Packed representation of event time series:
+ *   positive and negative events are stored in two separate
+ *   bitsets (time step i is bit (i & 63) of word (i >>> 6)),
+ *   and non-events are the steps set in neither of them.
+ */
+public final class EventBits {
+
+    private EventBits() {}
+
+    public static int nbWords(int length) {
+        return (length + 63) >>> 6;
+    }
+
+    public static long[] pack(byte[] timeSeries, byte event) {
+        long[] bits = new long[nbWords(timeSeries.length)];
+        for (int i = 0; i < timeSeries.length; i++) {
+            if (timeSeries[i] == event)
+                bits[i >>> 6] |= 1L << i;
+        }
+        return bits;
+    }
+
+    public static byte[] unpack(long[] positive, long[] negative, int length) {
+        byte[] timeSeries = new byte[length];
+        for (int i = 0; i < length; i++) {
+            if ((positive[i >>> 6] & (1L << i)) != 0)
+                timeSeries[i] = FrameworkUtils.positiveEvent;
+            else if ((negative[i >>> 6] & (1L << i)) != 0)
+                timeSeries[i] = FrameworkUtils.negativeEvent;
+            else
+                timeSeries[i] = FrameworkUtils.nonEvent;
+        }
+        return timeSeries;
+    }
+
+    public static long mask(int count) {
+        return (count == 64) ? -1L : (1L << count) - 1;
+    }
+
+    /**
+     * Returns 'count' (<= 64) bits starting at bit 'from',
+     *   in the lowest bits of the word.
+     */
+    public static long get(long[] bits, int from, int count) {
+        if (count == 0)
+            return 0L;
+        int word = from >>> 6;
+        int shift = from & 63;
+        long w = bits[word] >>> shift;
+        if ((shift != 0) && (shift + count > 64))
+            w |= bits[word + 1] << (64 - shift);
+        return w & mask(count);
+    }
+
+    /**
+     * Returns 'count' (<= 64) bits of the range
+     *   [rangeStart, rangeStart + rangeLength) rotated by 'offset',
+     *   i.e., starting at position 'offset' of the range and wrapping
+     *   around its end; this is used by the temporal permutation test.
+     */
+    public static long window(long[] bits, int rangeStart, int rangeLength,
+            int offset, int count) {
+        int first = Math.min(count, rangeLength - offset);
+        long w = get(bits, rangeStart + offset, first);
+        if (first < count)
+            w |= get(bits, rangeStart, count - first) << first;
+        return w;
+    }
+}
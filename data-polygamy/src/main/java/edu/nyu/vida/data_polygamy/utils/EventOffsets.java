@@ -0,0 +1,109 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+/**
+ * Sparse representation of event time series:
+ *   sorted offsets of positive and negative events;
+ *   non-events are all the other time steps.
+ */
+public final class EventOffsets {
+
+    private EventOffsets() {}
+
+    public static int count(byte[] timeSeries, byte event) {
+        int count = 0;
+        for (int i = 0; i < timeSeries.length; i++) {
+            if (timeSeries[i] == event)
+                count++;
+        }
+        return count;
+    }
+
+    public static int[] pack(byte[] timeSeries, byte event) {
+        int[] offsets = new int[count(timeSeries, event)];
+        int n = 0;
+        for (int i = 0; i < timeSeries.length; i++) {
+            if (timeSeries[i] == event)
+                offsets[n++] = i;
+        }
+        return offsets;
+    }
+
+    public static long[] toBits(int[] offsets, int length) {
+        long[] bits = new long[EventBits.nbWords(length)];
+        for (int i = 0; i < offsets.length; i++)
+            bits[offsets[i] >>> 6] |= 1L << offsets[i];
+        return bits;
+    }
+
+    public static int[] fromBits(long[] bits) {
+        int count = 0;
+        for (int i = 0; i < bits.length; i++)
+            count += Long.bitCount(bits[i]);
+        int[] offsets = new int[count];
+        int n = 0;
+        for (int i = 0; i < bits.length; i++) {
+            long w = bits[i];
+            while (w != 0) {
+                offsets[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+                w &= w - 1;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Sparse encoding is used whenever it takes less space
+     *   than the two bitsets.
+     */
+    public static boolean useSparse(int nbEvents, int length) {
+        return ((long) nbEvents) * 32 < ((long) EventBits.nbWords(length)) * 128;
+    }
+
+    // first index i such that offsets[i] >= value
+    private static int lowerBound(int[] offsets, int value) {
+        int lo = 0;
+        int hi = offsets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsets[mid] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // number of events in the range [from, to)
+    public static int count(int[] offsets, int from, int to) {
+        return lowerBound(offsets, to) - lowerBound(offsets, from);
+    }
+
+    /**
+     * Returns how many events of the range [rangeStart1, rangeStart1 + rangeLength)
+     *   rotated by 'offset1' fall on a set bit of the range
+     *   [rangeStart2, rangeStart2 + rangeLength) rotated by 'offset2'
+     *   (see EventBits.window); this is used by the temporal permutation test,
+     *   and walks the events directly, without building either window.
+     */
+    public static int match(int[] offsets, int rangeStart1, int offset1,
+            long[] bits, int rangeStart2, int offset2, int rangeLength) {
+        int lo = lowerBound(offsets, rangeStart1);
+        int hi = lowerBound(offsets, rangeStart1 + rangeLength);
+        int shift = offset2 - offset1;
+        int count = 0;
+        for (int i = lo; i < hi; i++) {
+            int t = offsets[i] - rangeStart1 + shift;
+            if (t < 0)
+                t += rangeLength;
+            else if (t >= rangeLength)
+                t -= rangeLength;
+            int bit = rangeStart2 + t;
+            if ((bits[bit >>> 6] & (1L << bit)) != 0)
+                count++;
+        }
+        return count;
+    }
+}
@@ -28,17 +28,10 @@ import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.Days;
-import org.joda.time.Hours;
-import org.joda.time.Months;
-import org.joda.time.MutableDateTime;
-import org.joda.time.Weeks;
-import org.joda.time.Years;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ComparisonChain;
@@ -367,122 +360,52 @@ public class FrameworkUtils {
     
     public static int getTime(int temporalResolution, String[] input, int tempPosition) {
         
-        String temporal = "";
-        String format  = "";
-        
         long time = 0L;
         
         try {
-            time = ((long)Double.parseDouble(input[tempPosition]))*1000;
+            time = (long) Double.parseDouble(input[tempPosition]);
         } catch (Exception e) {
             return -1;
         }
         
-        if (time < 0)
-            return -1;
-        
-        DateTime dt = new DateTime(time, DateTimeZone.UTC);
-        
-        switch (temporalResolution) {
+        return getTime(temporalResolution, time);
+    }
+    
+    public static int getTime(int temporalResolution, int[] input, int tempPosition) {
         
-        case HOUR:
-            temporal = dt.year().getAsString() + "-" +
-                    dt.monthOfYear().getAsString() + "-" +
-                    dt.dayOfMonth().getAsString() + "-" +
-                    dt.hourOfDay().getAsString();
-            format = "yyyy-MM-dd-HH z";
-            break;
-        case DAY:
-            temporal = dt.year().getAsString() + "-" +
-                    dt.monthOfYear().getAsString() + "-" +
-                    dt.dayOfMonth().getAsString();
-            format = "yyyy-MM-dd z";
-            break;
-        case WEEK:
-            temporal = dt.weekyear().getAsString() + "-" +
-                    dt.weekOfWeekyear().getAsString();
-            format = "xxxx-ww z";
-            break;
-        case MONTH:
-            temporal = dt.year().getAsString() + "-" +
-                    dt.monthOfYear().getAsString();
-            format = "yyyy-MM z";
-            break;
-        case YEAR:
-            temporal = dt.year().getAsString();
-            format = "yyyy z";
-            break;
-        default:
-            temporal = null;
-            format = "";
-            break;
-        }
+        long time = 0L;
         
-        if (temporal == null)
+        try {
+            time = (long) input[tempPosition];
+        } catch (Exception e) {
             return -1;
+        }
         
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(format);
-        return (int) (formatter.parseDateTime(temporal + " UTC").getMillis()/1000);
+        return getTime(temporalResolution, time);
     }
     
-    public static int getTime(int temporalResolution, int[] input, int tempPosition) {
-        
-        String temporal = "";
-        String format  = "";
+    public static int getTime(int temporalResolution, CSVTokenizer input, int tempPosition) {
         
         long time = 0L;
         
         try {
-            time = ((long)input[tempPosition])*1000;
-        } catch (Exception e) {
+            time = (long) input.getDouble(tempPosition);
+        } catch (NumberFormatException e) {
             return -1;
         }
         
+        return getTime(temporalResolution, time);
+    }
+    
+    private static int getTime(int temporalResolution, long time) {
+        
         if (time < 0)
             return -1;
         
-        DateTime dt = new DateTime(time, DateTimeZone.UTC);
-        
-        switch (temporalResolution) {
-        
-        case HOUR:
-            temporal = dt.year().getAsString() + "-" +
-                    dt.monthOfYear().getAsString() + "-" +
-                    dt.dayOfMonth().getAsString() + "-" +
-                    dt.hourOfDay().getAsString();
-            format = "yyyy-MM-dd-HH z";
-            break;
-        case DAY:
-            temporal = dt.year().getAsString() + "-" +
-                    dt.monthOfYear().getAsString() + "-" +
-                    dt.dayOfMonth().getAsString();
-            format = "yyyy-MM-dd z";
-            break;
-        case WEEK:
-            temporal = dt.weekyear().getAsString() + "-" +
-                    dt.weekOfWeekyear().getAsString();
-            format = "xxxx-ww z";
-            break;
-        case MONTH:
-            temporal = dt.year().getAsString() + "-" +
-                    dt.monthOfYear().getAsString();
-            format = "yyyy-MM z";
-            break;
-        case YEAR:
-            temporal = dt.year().getAsString();
-            format = "yyyy z";
-            break;
-        default:
-            temporal = null;
-            format = "";
-            break;
-        }
-        
-        if (temporal == null)
+        if ((temporalResolution < HOUR) || (temporalResolution > YEAR))
             return -1;
         
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(format);
-        return (int) (formatter.parseDateTime(temporal + " UTC").getMillis()/1000);
+        return (int) CalendarUtils.floor(temporalResolution, time);
     }
     
     public static int getTimeSteps(int tempRes, int startTime, int endTime) {
@@ -491,130 +414,20 @@ public class FrameworkUtils {
             return 0;
         }
         
-        int timeSteps = 0;
-        DateTime start = new DateTime(((long)startTime)*1000, DateTimeZone.UTC);
-        DateTime end = new DateTime(((long)endTime)*1000, DateTimeZone.UTC);
-        
-        switch(tempRes) {
-        case FrameworkUtils.HOUR:
-            timeSteps = Hours.hoursBetween(start, end).getHours();
-            break;
-        case FrameworkUtils.DAY:
-            timeSteps = Days.daysBetween(start, end).getDays();
-            break;
-        case FrameworkUtils.WEEK:
-            timeSteps = Weeks.weeksBetween(start, end).getWeeks();
-            break;
-        case FrameworkUtils.MONTH:
-            timeSteps = Months.monthsBetween(start, end).getMonths();
-            break;
-        case FrameworkUtils.YEAR:
-            timeSteps = Years.yearsBetween(start, end).getYears();
-            break;
-        default:
-            timeSteps = Hours.hoursBetween(start, end).getHours();
-            break;
-        }
-        timeSteps++;
-        
-        return timeSteps;
+        return CalendarUtils.stepsBetween(tempRes, startTime, endTime) + 1;
     }
     
-    public static int addTimeSteps(int tempRes, int increment, DateTime start) {
-        
-        DateTime d;
-        
-        switch(tempRes) {
-        case FrameworkUtils.HOUR:
-            d = start.plusHours(increment);
-            break;
-        case FrameworkUtils.DAY:
-            d = start.plusDays(increment);
-            break;
-        case FrameworkUtils.WEEK:
-            d = start.plusWeeks(increment);
-            break;
-        case FrameworkUtils.MONTH:
-            d = start.plusMonths(increment);
-            break;
-        case FrameworkUtils.YEAR:
-            d = start.plusYears(increment);
-            break;
-        default:
-            d = start.plusHours(increment);
-            break;
-        }
-        
-        return (int) (d.getMillis()/1000);
-        
+    public static int addTimeSteps(int tempRes, int increment, int start) {
+        return (int) CalendarUtils.addSteps(tempRes, increment, start);
     }
     
     public static DateTime addTime(int tempRes, int increment, DateTime start) {
-        
-        DateTime d = null;
-        
-        switch(tempRes) {
-        case FrameworkUtils.HOUR:
-            d = start.plusHours(increment);
-            break;
-        case FrameworkUtils.DAY:
-            d = start.plusDays(increment);
-            break;
-        case FrameworkUtils.WEEK:
-            d = start.plusWeeks(increment);
-            break;
-        case FrameworkUtils.MONTH:
-            d = start.plusMonths(increment);
-            break;
-        case FrameworkUtils.YEAR:
-            d = start.plusYears(increment);
-            break;
-        default:
-            d = start.plusHours(increment);
-            break;
-        }
-        
-        return d;
-        
+        return new DateTime(CalendarUtils.addSteps(tempRes, increment, start.getMillis()/1000)*1000,
+                DateTimeZone.UTC);
     }
     
     public static int getDeltaSinceEpoch(int time, int tempRes) {
-        int delta = 0;
-        
-        // Epoch
-        MutableDateTime epoch = new MutableDateTime();
-        epoch.setDate(0);
-        
-        DateTime dt = new DateTime(time*1000, DateTimeZone.UTC);
-        
-        switch(tempRes) {
-        case FrameworkUtils.HOUR:
-            Hours hours = Hours.hoursBetween(epoch, dt);
-            delta = hours.getHours();
-            break;
-        case FrameworkUtils.DAY:
-            Days days = Days.daysBetween(epoch, dt);
-            delta = days.getDays();
-            break;
-        case FrameworkUtils.WEEK:
-            Weeks weeks = Weeks.weeksBetween(epoch, dt);
-            delta = weeks.getWeeks();
-            break;
-        case FrameworkUtils.MONTH:
-            Months months = Months.monthsBetween(epoch, dt);
-            delta = months.getMonths();
-            break;
-        case FrameworkUtils.YEAR:
-            Years years = Years.yearsBetween(epoch, dt);
-            delta = years.getYears();
-            break;
-        default:
-            hours = Hours.hoursBetween(epoch, dt);
-            delta = hours.getHours();
-            break;
-        }
-        
-        return delta;
+        return CalendarUtils.stepsBetween(tempRes, 0L, time);
     }
     
     /**
@@ -911,6 +724,37 @@ public class FrameworkUtils {
      * Writables  
      */
     
+    /**
+     * Raw comparator for keys serialized as a fixed number of int fields,
+     *   optionally followed by a boolean, compared in the same order as
+     *   their compareTo method, without deserializing them.
+     */
+    public static class IntFieldsComparator extends WritableComparator {
+        
+        private int nbInts;
+        private boolean hasBoolean;
+        
+        @SuppressWarnings("rawtypes")
+        public IntFieldsComparator(Class<? extends WritableComparable> keyClass,
+                int nbInts, boolean hasBoolean) {
+            super(keyClass);
+            this.nbInts = nbInts;
+            this.hasBoolean = hasBoolean;
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            for (int i = 0; i < nbInts; i++) {
+                int cmp = Integer.compare(readInt(b1, s1 + 4*i), readInt(b2, s2 + 4*i));
+                if (cmp != 0)
+                    return cmp;
+            }
+            if (hasBoolean)
+                return Integer.compare(b1[s1 + 4*nbInts], b2[s2 + 4*nbInts]);
+            return 0;
+        }
+    }
+    
     public static class MultipleSpatioTemporalWritable implements WritableComparable<MultipleSpatioTemporalWritable> {
 
         private int[] spatial;
@@ -1015,6 +859,38 @@ public class FrameworkUtils {
                 return false;
             return (this.compareTo((MultipleSpatioTemporalWritable) o) == 0) ? true : false;
         }
+        
+        /**
+         * Raw comparator: spatial values, then temporal values
+         *   (assuming, as compareTo, that sizes are the same).
+         */
+        public static class Comparator extends WritableComparator {
+            
+            public Comparator() {
+                super(MultipleSpatioTemporalWritable.class);
+            }
+            
+            @Override
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+                for (int part = 0; part < 2; part++) {
+                    int n1 = readInt(b1, s1);
+                    int n2 = readInt(b2, s2);
+                    int n = Math.min(n1, n2);
+                    for (int i = 1; i <= n; i++) {
+                        int cmp = Integer.compare(readInt(b1, s1 + 4*i), readInt(b2, s2 + 4*i));
+                        if (cmp != 0)
+                            return cmp;
+                    }
+                    s1 += 4 * (n1 + 1);
+                    s2 += 4 * (n2 + 1);
+                }
+                return 0;
+            }
+        }
+        
+        static {
+            WritableComparator.define(MultipleSpatioTemporalWritable.class, new Comparator());
+        }
 
     }
     
@@ -1132,6 +1008,11 @@ public class FrameworkUtils {
                 return false;
             return (this.compareTo((SpatioTemporalWritable) o) == 0) ? true : false;
         }
+        
+        static {
+            WritableComparator.define(SpatioTemporalWritable.class,
+                    new IntFieldsComparator(SpatioTemporalWritable.class, 5, false));
+        }
 
     }
     
@@ -1200,6 +1081,11 @@ public class FrameworkUtils {
                 return false;
             return (this.compareTo((SpatioAttributeWritable) o) == 0) ? true : false;
         }
+        
+        static {
+            WritableComparator.define(SpatioAttributeWritable.class,
+                    new IntFieldsComparator(SpatioAttributeWritable.class, 2, false));
+        }
 
     }
     
@@ -1301,6 +1187,85 @@ public class FrameworkUtils {
                 return false;
             return (this.compareTo((AttributeResolutionWritable) o) == 0) ? true : false;
         }
+        
+        static {
+            WritableComparator.define(AttributeResolutionWritable.class,
+                    new IntFieldsComparator(AttributeResolutionWritable.class, 4, false));
+        }
+
+    }
+    
+    /**
+     * Map output key of the index creation job: attribute and resolutions,
+     *   followed by the time of the value, so that values reach the reducer
+     *   sorted by time (secondary sort). Keys are partitioned (hashCode) and
+     *   grouped (GroupingComparator) on the attribute and resolutions only.
+     */
+    public static class AttributeResolutionTimeWritable extends AttributeResolutionWritable {
+
+        private int temporal;
+        
+        public AttributeResolutionTimeWritable() {
+            super();
+            this.temporal = -1;
+        }
+        
+        public AttributeResolutionTimeWritable(int attribute,
+                int spatialResolution, int temporalResolution,
+                int dataset, int temporal) {
+            super(attribute, spatialResolution, temporalResolution, dataset);
+            this.temporal = temporal;
+        }
+        
+        public int getTemporal() {
+            return this.temporal;
+        }
+        
+        public AttributeResolutionWritable getAttributeResolution() {
+            return new AttributeResolutionWritable(getAttribute(),
+                    getSpatialResolution(), getTemporalResolution(), getDataset());
+        }
+        
+        @Override
+        public String toString() {
+            return super.toString() + "," + String.valueOf(temporal);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            super.readFields(in);
+            
+            // temporal
+            this.temporal = in.readInt();
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            super.write(out);
+            
+            // temporal
+            out.writeInt(this.temporal);
+        }
+
+        @Override
+        public int compareTo(AttributeResolutionWritable arg0) {
+            int cmp = super.compareTo(arg0);
+            if ((cmp != 0) || !(arg0 instanceof AttributeResolutionTimeWritable))
+                return cmp;
+            return Integer.compare(this.temporal, ((AttributeResolutionTimeWritable) arg0).getTemporal());
+        }
+        
+        public static class GroupingComparator extends IntFieldsComparator {
+            
+            public GroupingComparator() {
+                super(AttributeResolutionTimeWritable.class, 4, false);
+            }
+        }
+        
+        static {
+            WritableComparator.define(AttributeResolutionTimeWritable.class,
+                    new IntFieldsComparator(AttributeResolutionTimeWritable.class, 5, false));
+        }
 
     }
     
@@ -1446,9 +1411,177 @@ public class FrameworkUtils {
                 return false;
             return (this.compareTo((PairAttributeWritable) o) == 0) ? true : false;
         }
+        
+        static {
+            WritableComparator.define(PairAttributeWritable.class,
+                    new IntFieldsComparator(PairAttributeWritable.class, 6, true));
+        }
+
+    }
+    
+    public static class PairDatasetWritable implements WritableComparable<PairDatasetWritable> {
+
+        private int firstDataset;
+        private int secondDataset;
+        
+        // tiles of attributes (see BlockedCorrelationMapper)
+        private int firstTile;
+        private int secondTile;
+        
+        private int spatialResolution;
+        private int temporalResolution;
+        private boolean isOutlier;
+        
+        public PairDatasetWritable() {
+            this.firstDataset = -1;
+            this.secondDataset = -1;
+            this.firstTile = 0;
+            this.secondTile = 0;
+            
+            this.spatialResolution = -1;
+            this.temporalResolution = -1;
+            this.isOutlier = false;
+        }
+        
+        public PairDatasetWritable(int firstDataset, int secondDataset,
+                int firstTile, int secondTile,
+                int spatialResolution, int temporalResolution, boolean isOutlier) {
+            this.firstDataset = firstDataset;
+            this.secondDataset = secondDataset;
+            this.firstTile = firstTile;
+            this.secondTile = secondTile;
+            this.spatialResolution = spatialResolution;
+            this.temporalResolution = temporalResolution;
+            this.isOutlier = isOutlier;
+        }
+        
+        public int getFirstDataset() {
+            return firstDataset;
+        }
+        
+        public int getSecondDataset() {
+            return secondDataset;
+        }
+        
+        public int getFirstTile() {
+            return firstTile;
+        }
+        
+        public int getSecondTile() {
+            return secondTile;
+        }
+        
+        public int getSpatialResolution() {
+            return this.spatialResolution;
+        }
+        
+        public int getTemporalResolution() {
+            return this.temporalResolution;
+        }
+        
+        public boolean getIsOutlier() {
+            return this.isOutlier;
+        }
+        
+        @Override
+        public String toString() {
+            return String.valueOf(firstDataset) + "," + String.valueOf(secondDataset) + ","
+                    + String.valueOf(firstTile) + "," + String.valueOf(secondTile);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            this.firstDataset = in.readInt();
+            this.secondDataset = in.readInt();
+            this.firstTile = in.readInt();
+            this.secondTile = in.readInt();
+            this.spatialResolution = in.readInt();
+            this.temporalResolution = in.readInt();
+            this.isOutlier = in.readBoolean();
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(this.firstDataset);
+            out.writeInt(this.secondDataset);
+            out.writeInt(this.firstTile);
+            out.writeInt(this.secondTile);
+            out.writeInt(this.spatialResolution);
+            out.writeInt(this.temporalResolution);
+            out.writeBoolean(this.isOutlier);
+        }
+
+        @Override
+        public int compareTo(PairDatasetWritable arg0) {
+            return ComparisonChain.start()
+                    .compare(this.firstDataset, arg0.getFirstDataset())
+                    .compare(this.secondDataset, arg0.getSecondDataset())
+                    .compare(this.firstTile, arg0.getFirstTile())
+                    .compare(this.secondTile, arg0.getSecondTile())
+                    .compare(this.spatialResolution, arg0.getSpatialResolution())
+                    .compare(this.temporalResolution, arg0.getTemporalResolution())
+                    .compare(this.isOutlier, arg0.getIsOutlier())
+                    .result();
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.firstDataset, this.secondDataset,
+                    this.firstTile, this.secondTile,
+                    this.spatialResolution, this.temporalResolution, this.isOutlier);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PairDatasetWritable))
+                return false;
+            return (this.compareTo((PairDatasetWritable) o) == 0) ? true : false;
+        }
+        
+        static {
+            WritableComparator.define(PairDatasetWritable.class,
+                    new IntFieldsComparator(PairDatasetWritable.class, 6, true));
+        }
 
     }
     
+    public static class AttributeTimeSeriesWritable implements Writable {
+        
+        private int attribute;
+        private TopologyTimeSeriesWritable timeSeries;
+        
+        public AttributeTimeSeriesWritable() {
+            this.attribute = -1;
+            this.timeSeries = new TopologyTimeSeriesWritable();
+        }
+        
+        public AttributeTimeSeriesWritable(int attribute, TopologyTimeSeriesWritable timeSeries) {
+            this.attribute = attribute;
+            this.timeSeries = timeSeries;
+        }
+        
+        public int getAttribute() {
+            return this.attribute;
+        }
+        
+        public TopologyTimeSeriesWritable getTimeSeries() {
+            return this.timeSeries;
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            this.attribute = in.readInt();
+            this.timeSeries.readFields(in);
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(this.attribute);
+            this.timeSeries.write(out);
+        }
+        
+    }
+    
     public static class TemporalFloatWritable implements WritableComparable<TemporalFloatWritable> {
 
         private int temporal;
@@ -1860,7 +1993,17 @@ public class FrameworkUtils {
 
         private int spatial;
         private int dataset;
-        private byte[] timeSeries;
+        // events are stored either as two bitsets (see EventBits)
+        //  or, for series with few events, as two lists of
+        //  event offsets (see EventOffsets); the other form is
+        //  decoded on first use and kept, since permutation workers
+        //  read both forms of the same series concurrently
+        private int length;
+        private boolean sparse;
+        private volatile long[] positive;
+        private volatile long[] negative;
+        private volatile int[] positiveOffsets;
+        private volatile int[] negativeOffsets;
         private int start;
         private int end;
         private boolean isOutlier;
@@ -1868,7 +2011,10 @@ public class FrameworkUtils {
         public TopologyTimeSeriesWritable() {
             this.spatial = 0;
             this.dataset = 0;
-            this.timeSeries = new byte[0];
+            this.length = 0;
+            this.sparse = false;
+            this.positive = new long[0];
+            this.negative = new long[0];
             this.start = 0;
             this.end = 0;
             this.isOutlier = false;
@@ -1877,7 +2023,17 @@ public class FrameworkUtils {
         public TopologyTimeSeriesWritable(TopologyTimeSeriesWritable object) {
             this.spatial = object.getSpatial();
             this.dataset = object.getDataset();
-            this.timeSeries = Arrays.copyOf(object.getTimeSeries(), object.getTimeSeries().length);
+            this.length = object.getLength();
+            this.sparse = object.isSparse();
+            if (this.sparse) {
+                this.positiveOffsets = Arrays.copyOf(object.getPositiveOffsets(),
+                        object.getPositiveOffsets().length);
+                this.negativeOffsets = Arrays.copyOf(object.getNegativeOffsets(),
+                        object.getNegativeOffsets().length);
+            } else {
+                this.positive = Arrays.copyOf(object.getPositive(), object.getPositive().length);
+                this.negative = Arrays.copyOf(object.getNegative(), object.getNegative().length);
+            }
             this.start = object.getStart();
             this.end = object.getEnd();
             this.isOutlier = object.getIsOutlier();
@@ -1892,7 +2048,17 @@ public class FrameworkUtils {
                 boolean isOutlier) {
             this.spatial = spatial;
             this.dataset = dataset;
-            this.timeSeries = timeSeries;
+            this.length = timeSeries.length;
+            int nbEvents = EventOffsets.count(timeSeries, positiveEvent)
+                    + EventOffsets.count(timeSeries, negativeEvent);
+            this.sparse = EventOffsets.useSparse(nbEvents, timeSeries.length);
+            if (this.sparse) {
+                this.positiveOffsets = EventOffsets.pack(timeSeries, positiveEvent);
+                this.negativeOffsets = EventOffsets.pack(timeSeries, negativeEvent);
+            } else {
+                this.positive = EventBits.pack(timeSeries, positiveEvent);
+                this.negative = EventBits.pack(timeSeries, negativeEvent);
+            }
             this.start = start;
             this.end = end;
             this.isOutlier = isOutlier;
@@ -1906,8 +2072,47 @@ public class FrameworkUtils {
             return this.dataset;
         }
         
+        public int getLength() {
+            return this.length;
+        }
+        
+        public boolean isSparse() {
+            return this.sparse;
+        }
+        
+        // bitsets are built once for sparse series
+        public long[] getPositive() {
+            long[] bits = this.positive;
+            if (bits == null)
+                this.positive = bits = EventOffsets.toBits(positiveOffsets, length);
+            return bits;
+        }
+        
+        public long[] getNegative() {
+            long[] bits = this.negative;
+            if (bits == null)
+                this.negative = bits = EventOffsets.toBits(negativeOffsets, length);
+            return bits;
+        }
+        
+        // offsets are built once for dense series
+        public int[] getPositiveOffsets() {
+            int[] offsets = this.positiveOffsets;
+            if (offsets == null)
+                this.positiveOffsets = offsets = EventOffsets.fromBits(positive);
+            return offsets;
+        }
+        
+        public int[] getNegativeOffsets() {
+            int[] offsets = this.negativeOffsets;
+            if (offsets == null)
+                this.negativeOffsets = offsets = EventOffsets.fromBits(negative);
+            return offsets;
+        }
+        
+        // one byte per time step (nonEvent, positiveEvent, or negativeEvent)
         public byte[] getTimeSeries() {
-            return this.timeSeries;
+            return EventBits.unpack(getPositive(), getNegative(), length);
         }
         
         public int getStart() {
@@ -1926,13 +2131,13 @@ public class FrameworkUtils {
             String result = spatial + "," + isOutlier + ",";
             
             int timeSteps = getTimeSteps(tempRes, start, end);
-            DateTime startTime = new DateTime(((long)start)*1000, DateTimeZone.UTC);
-            if (timeSteps != timeSeries.length) {
+            if (timeSteps != length) {
                 System.out.println("Something is wrong... Wrong time steps length");
                 System.exit(-1);
             }
+            byte[] timeSeries = getTimeSeries();
             for (int i = 0; i < timeSteps; i++) {
-                long time = addTimeSteps(tempRes, i, startTime);
+                long time = addTimeSteps(tempRes, i, start);
                 result += String.valueOf(time) + "," + timeSeries[i] + ",";
             }
             return result.substring(0, result.length()-1);
@@ -1942,6 +2147,7 @@ public class FrameworkUtils {
         public String toString() {
             String result = dataset + "," + spatial + "," + isOutlier + ",";
             result += String.valueOf(start) + "," + String.valueOf(end) + ","; 
+            byte[] timeSeries = getTimeSeries();
             for (int i = 0; i < timeSeries.length; i++)
                 result += timeSeries[i] + ",";
             return result.substring(0, result.length()-1);
@@ -1951,9 +2157,28 @@ public class FrameworkUtils {
         public void readFields(DataInput in) throws IOException {
             spatial = in.readInt();
             dataset = in.readInt();
-            timeSeries = new byte[in.readInt()];
-            for (int i = 0; i < timeSeries.length; i++)
-                timeSeries[i] = in.readByte();
+            length = in.readInt();
+            sparse = in.readBoolean();
+            if (sparse) {
+                positive = null;
+                negative = null;
+                positiveOffsets = new int[in.readInt()];
+                for (int i = 0; i < positiveOffsets.length; i++)
+                    positiveOffsets[i] = in.readInt();
+                negativeOffsets = new int[in.readInt()];
+                for (int i = 0; i < negativeOffsets.length; i++)
+                    negativeOffsets[i] = in.readInt();
+            } else {
+                positiveOffsets = null;
+                negativeOffsets = null;
+                int nbWords = EventBits.nbWords(length);
+                positive = new long[nbWords];
+                negative = new long[nbWords];
+                for (int i = 0; i < nbWords; i++)
+                    positive[i] = in.readLong();
+                for (int i = 0; i < nbWords; i++)
+                    negative[i] = in.readLong();
+            }
             start = in.readInt();
             end = in.readInt();
             isOutlier = in.readBoolean();
@@ -1963,9 +2188,21 @@ public class FrameworkUtils {
         public void write(DataOutput out) throws IOException {
             out.writeInt(spatial);
             out.writeInt(dataset);
-            out.writeInt(timeSeries.length);
-            for (int i = 0; i < timeSeries.length; i++)
-                out.writeByte(timeSeries[i]);
+            out.writeInt(length);
+            out.writeBoolean(sparse);
+            if (sparse) {
+                out.writeInt(positiveOffsets.length);
+                for (int i = 0; i < positiveOffsets.length; i++)
+                    out.writeInt(positiveOffsets[i]);
+                out.writeInt(negativeOffsets.length);
+                for (int i = 0; i < negativeOffsets.length; i++)
+                    out.writeInt(negativeOffsets[i]);
+            } else {
+                for (int i = 0; i < positive.length; i++)
+                    out.writeLong(positive[i]);
+                for (int i = 0; i < negative.length; i++)
+                    out.writeLong(negative[i]);
+            }
             out.writeInt(start);
             out.writeInt(end);
             out.writeBoolean(isOutlier);
@@ -1987,7 +2224,8 @@ public class FrameworkUtils {
             return Objects.hashCode(
                     this.spatial,
                     this.dataset,
-                    this.timeSeries,
+                    Arrays.hashCode(getPositive()),
+                    Arrays.hashCode(getNegative()),
                     this.start,
                     this.end,
                     this.isOutlier);
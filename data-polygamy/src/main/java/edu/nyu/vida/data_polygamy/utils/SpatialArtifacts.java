@@ -0,0 +1,485 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+import edu.nyu.vida.data_polygamy.resolution.QuadTreeIndex;
+
+/**
+ * Binary artifacts of the spatial resolutions, compiled once from the text
+ *   polygon and graph files (see main) and stored next to them as
+ *   '<file>.bin'. The drivers add them to the distributed cache of their
+ *   jobs (see addToCache), and the tasks map them from their working
+ *   directory (see open) instead of parsing the text files and building
+ *   the polygon index, the graph adjacencies, and the lookup tables of the
+ *   resolution translations again. Tasks without an artifact (or with one
+ *   of another version) read the text files as before.
+ *
+ * Layout (version 1, big-endian): magic ("DPSA"), version, and type, followed by
+ *   REGIONS (polygon files): number of regions, id of every region (in file
+ *     order), and the polygon index (see QuadTreeIndex.write)
+ *   GRAPH (graph files): number of nodes and number of edges (first line),
+ *     number of edge lines, nodes of the edges (in file order), and
+ *     adjacencies in compressed sparse row layout (see SpatialGraph)
+ *   TABLE (translations of bbl and block ids): number of entries, keys
+ *     (sorted), and region of every key (see BblToRegion and BlockToNbhd)
+ */
+public class SpatialArtifacts {
+
+    public static final int MAGIC = 0x44505341;
+    public static final int VERSION = 1;
+
+    public static final int REGIONS = 1;
+    public static final int GRAPH = 2;
+    public static final int TABLE = 3;
+
+    public static final String SUFFIX = ".bin";
+
+    static final String[] polygonFiles = {"neighborhood", "zipcode", "block"};
+    static final String gridPolygonFiles = "gneighborhood-*";
+    static final String[] graphFiles = {"neighborhood-graph", "zipcode-graph", "block-graph"};
+
+    // lookup tables: name, file of the keys, and file of the regions
+    static final String[][] tableFiles = {
+        {"bbl-neighborhood", "bbl", "neighborhood"},
+        {"bbl-zipcode", "bbl", "zipcode"},
+        {"block-neighborhood", "block", "neighborhood"}};
+
+    /**
+     * Loading
+     */
+
+    /**
+     * Artifact of the given file in the working directory of the task (where
+     *   the distributed cache links the artifacts of the job), memory-mapped
+     *   and positioned after the type; null if there is no such artifact.
+     */
+    public static ByteBuffer open(String name, int type) {
+        File file = new File(name + SUFFIX);
+        if (!file.isFile() || (file.length() < 12))
+            return null;
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            ByteBuffer buffer;
+            try {
+                // (the mapping stays valid after the file is closed)
+                buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            } finally {
+                input.close();
+            }
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if ((magic != MAGIC) || (version != VERSION) || (buffer.getInt() != type)) {
+                System.out.println("Ignoring spatial artifact of unknown format (version " +
+                        version + "): " + file);
+                return null;
+            }
+            return buffer;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static int[] readRegionIds(ByteBuffer buffer) {
+        return getInts(buffer, buffer.getInt());
+    }
+
+    public static class Graph {
+        public int nbNodes;
+        public int nbEdges;
+        // nodes of edge i: edges[2*i], edges[2*i+1]
+        public int[] edges;
+        public int[] adjacencyStart;
+        public int[] adjacency;
+    }
+
+    public static Graph readGraph(ByteBuffer buffer) {
+        Graph graph = new Graph();
+        graph.nbNodes = buffer.getInt();
+        graph.nbEdges = buffer.getInt();
+        graph.edges = getInts(buffer, 2*buffer.getInt());
+        graph.adjacencyStart = getInts(buffer, graph.nbNodes + 1);
+        graph.adjacency = getInts(buffer, graph.adjacencyStart[graph.nbNodes]);
+        return graph;
+    }
+
+    public static class Table {
+        public long[] keys;
+        public int[] values;
+    }
+
+    public static Table readTable(ByteBuffer buffer) {
+        Table table = new Table();
+        int n = buffer.getInt();
+        table.keys = getLongs(buffer, n);
+        table.values = getInts(buffer, n);
+        return table;
+    }
+
+    public static int[] getInts(ByteBuffer buffer, int n) {
+        int[] values = new int[n];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4*n);
+        return values;
+    }
+
+    public static long[] getLongs(ByteBuffer buffer, int n) {
+        long[] values = new long[n];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + 8*n);
+        return values;
+    }
+
+    public static double[] getDoubles(ByteBuffer buffer, int n) {
+        double[] values = new double[n];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8*n);
+        return values;
+    }
+
+    /**
+     * Distributed cache
+     */
+
+    /**
+     * Adds the artifacts of the spatial files of the bucket (or the home
+     *   directory) to the distributed cache of the job; artifacts older
+     *   than one of their text files are left out.
+     */
+    public static void addToCache(Job job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        String bucket = conf.get("bucket", "");
+        FileSystem fs = bucket.equals("") ? FileSystem.get(new Configuration()) :
+            FileSystem.get(new Path(bucket).toUri(), conf);
+
+        for (String name : polygonFiles)
+            addToCache(job, fs, bucket, name, name);
+        FileStatus[] grids = fs.globStatus(new Path(bucket + gridPolygonFiles + SUFFIX));
+        if (grids != null) {
+            for (FileStatus grid : grids) {
+                String name = grid.getPath().getName();
+                name = name.substring(0, name.length() - SUFFIX.length());
+                addToCache(job, fs, bucket, name, name);
+            }
+        }
+        for (String name : graphFiles)
+            addToCache(job, fs, bucket, name, name);
+        for (String[] table : tableFiles)
+            addToCache(job, fs, bucket, table[0], table[1], table[2]);
+    }
+
+    private static void addToCache(Job job, FileSystem fs, String bucket, String name,
+            String... sources) throws IOException {
+        Path artifact = new Path(bucket + name + SUFFIX);
+        if (!fs.exists(artifact))
+            return;
+        long time = fs.getFileStatus(artifact).getModificationTime();
+        for (String source : sources) {
+            Path sourcePath = new Path(bucket + source);
+            if (fs.exists(sourcePath) && (fs.getFileStatus(sourcePath).getModificationTime() > time)) {
+                System.out.println("Ignoring outdated spatial artifact: " + artifact.toString());
+                return;
+            }
+        }
+        try {
+            job.addCacheFile(new URI(fs.makeQualified(artifact).toUri() + "#" + name + SUFFIX));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Compilation
+     */
+
+    /*
+     * Polygons of a text polygon file (one per record, as read by
+     *   PointsToRegion), with the ids of their records.
+     */
+    static void readPolygons(InputStream input, ArrayList<String> ids,
+            ArrayList<Path2D.Double> polygons) throws IOException {
+        BufferedReader buff = new BufferedReader(new InputStreamReader(input));
+        String line = buff.readLine();
+        while (line != null) {
+            ids.add(line.trim());
+            buff.readLine();
+            int nbPoints = Integer.parseInt(buff.readLine().trim());
+            Path2D.Double polygon = new Path2D.Double();
+            for (int i = 0; i < nbPoints; i++) {
+                String[] points = buff.readLine().split(" ");
+                double x = Double.parseDouble(points[0]);
+                double y = Double.parseDouble(points[1]);
+                if (i == 0)
+                    polygon.moveTo(x, y);
+                else
+                    polygon.lineTo(x, y);
+            }
+            polygon.closePath();
+            polygons.add(polygon);
+            line = buff.readLine();
+        }
+        buff.close();
+    }
+
+    private static DataOutputStream create(FileSystem fs, String bucket, String name, int type)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                fs.create(new Path(bucket + name + SUFFIX), true)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(type);
+        return out;
+    }
+
+    static void compileRegions(FileSystem fs, String bucket, String name) throws IOException {
+        ArrayList<String> ids = new ArrayList<String>();
+        ArrayList<Path2D.Double> polygons = new ArrayList<Path2D.Double>();
+        readPolygons(fs.open(new Path(bucket + name)), ids, polygons);
+
+        QuadTreeIndex index = new QuadTreeIndex();
+        index.buildIndex(polygons);
+
+        DataOutputStream out = create(fs, bucket, name, REGIONS);
+        out.writeInt(ids.size());
+        for (String id : ids)
+            out.writeInt(Integer.parseInt(id));
+        index.write(out);
+        out.close();
+        System.out.println(name + SUFFIX + ": " + ids.size() + " regions, " +
+                index.getNodeCount() + " index nodes");
+    }
+
+    static void compileGraph(FileSystem fs, String bucket, String name) throws IOException {
+        BufferedReader buff = new BufferedReader(new InputStreamReader(fs.open(new Path(bucket + name))));
+        String[] s = Utilities.splitString(buff.readLine().trim());
+        int nbNodes = Integer.parseInt(s[0].trim());
+        int nbEdges = Integer.parseInt(s[1].trim());
+        IntArrayList edges = new IntArrayList();
+        String line = buff.readLine();
+        while (line != null) {
+            if (!line.trim().isEmpty()) {
+                s = Utilities.splitString(line.trim());
+                edges.add(Integer.parseInt(s[0].trim()));
+                edges.add(Integer.parseInt(s[1].trim()));
+            }
+            line = buff.readLine();
+        }
+        buff.close();
+
+        // adjacencies in edge order, as SpatialGraph reads them
+        int[] adjacencyStart = new int[nbNodes + 1];
+        for (int i = 0; i < edges.size(); i++)
+            adjacencyStart[edges.getInt(i) + 1]++;
+        for (int v = 0; v < nbNodes; v++)
+            adjacencyStart[v + 1] += adjacencyStart[v];
+        int[] fill = Arrays.copyOf(adjacencyStart, nbNodes);
+        int[] adjacency = new int[adjacencyStart[nbNodes]];
+        for (int i = 0; i < edges.size(); i += 2) {
+            int v1 = edges.getInt(i);
+            int v2 = edges.getInt(i + 1);
+            adjacency[fill[v1]++] = v2;
+            adjacency[fill[v2]++] = v1;
+        }
+
+        DataOutputStream out = create(fs, bucket, name, GRAPH);
+        out.writeInt(nbNodes);
+        out.writeInt(nbEdges);
+        out.writeInt(edges.size()/2);
+        writeInts(out, edges.toIntArray());
+        writeInts(out, adjacencyStart);
+        writeInts(out, adjacency);
+        out.close();
+        System.out.println(name + SUFFIX + ": " + nbNodes + " nodes, " + edges.size()/2 + " edges");
+    }
+
+    /*
+     * Region of the center of the bounding box of every polygon of the keys
+     *   file: bbl ids are the record ids, block ids the record positions, and
+     *   regions are region ids for neighborhoods and region positions for
+     *   zipcodes (see BblToRegion and BlockToNbhd).
+     */
+    static void compileTable(FileSystem fs, String bucket, String name, String keysName,
+            String regionsName) throws IOException {
+        ArrayList<String> regionIds = new ArrayList<String>();
+        ArrayList<Path2D.Double> regionPolygons = new ArrayList<Path2D.Double>();
+        readPolygons(fs.open(new Path(bucket + regionsName)), regionIds, regionPolygons);
+        QuadTreeIndex index = new QuadTreeIndex();
+        index.buildIndex(regionPolygons);
+        boolean useMapping = regionsName.equals("zipcode");
+
+        ArrayList<String> ids = new ArrayList<String>();
+        ArrayList<Path2D.Double> polygons = new ArrayList<Path2D.Double>();
+        readPolygons(fs.open(new Path(bucket + keysName)), ids, polygons);
+        boolean useIds = keysName.equals("bbl");
+
+        Long2IntOpenHashMap regions = new Long2IntOpenHashMap();
+        for (int i = 0; i < polygons.size(); i++) {
+            Rectangle2D rect = polygons.get(i).getBounds2D();
+            int r = index.getRegion(rect.getCenterX(), rect.getCenterY());
+            if (r != -1) {
+                long key = useIds ? Long.parseLong(ids.get(i)) : i;
+                regions.put(key, useMapping ? r : Integer.parseInt(regionIds.get(r)));
+            }
+        }
+        long[] keys = regions.keySet().toLongArray();
+        Arrays.sort(keys);
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            values[i] = regions.get(keys[i]);
+
+        DataOutputStream out = create(fs, bucket, name, TABLE);
+        out.writeInt(keys.length);
+        writeLongs(out, keys);
+        writeInts(out, values);
+        out.close();
+        System.out.println(name + SUFFIX + ": " + keys.length + " entries");
+    }
+
+    public static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int i = 0; i < values.length; i++)
+            out.writeInt(values[i]);
+    }
+
+    public static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        for (int i = 0; i < values.length; i++)
+            out.writeLong(values[i]);
+    }
+
+    public static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (int i = 0; i < values.length; i++)
+            out.writeDouble(values[i]);
+    }
+
+    /**
+     * Compiles the artifacts of the spatial files of the bucket (or the
+     *   home directory); must be run again when these files change.
+     */
+    public static void main(String[] args) throws IOException {
+
+        Options options = new Options();
+
+        Option s3Option = new Option("s3", "s3", false, "data on Amazon S3");
+        s3Option.setRequired(false);
+        options.addOption(s3Option);
+
+        Option awsAccessKeyIdOption = new Option("aws_id", "aws-id", true, "aws access key id; "
+                + "this is required if the execution is on aws");
+        awsAccessKeyIdOption.setRequired(false);
+        awsAccessKeyIdOption.setArgName("AWS-ACCESS-KEY-ID");
+        awsAccessKeyIdOption.setArgs(1);
+        options.addOption(awsAccessKeyIdOption);
+
+        Option awsSecretAccessKeyOption = new Option("aws_key", "aws-id", true, "aws secrect access key; "
+                + "this is required if the execution is on aws");
+        awsSecretAccessKeyOption.setRequired(false);
+        awsSecretAccessKeyOption.setArgName("AWS-SECRET-ACCESS-KEY");
+        awsSecretAccessKeyOption.setArgs(1);
+        options.addOption(awsSecretAccessKeyOption);
+
+        Option bucketOption = new Option("b", "s3-bucket", true, "bucket on s3; "
+                + "this is required if the execution is on aws");
+        bucketOption.setRequired(false);
+        bucketOption.setArgName("S3-BUCKET");
+        bucketOption.setArgs(1);
+        options.addOption(bucketOption);
+
+        Option helpOption = new Option("h", "help", false, "display this message");
+        helpOption.setRequired(false);
+        options.addOption(helpOption);
+
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            formatter.printHelp("hadoop jar data-polygamy.jar " +
+                    "edu.nyu.vida.data_polygamy.utils.SpatialArtifacts", options, true);
+            System.exit(0);
+        }
+
+        if (cmd.hasOption("h")) {
+            formatter.printHelp("hadoop jar data-polygamy.jar " +
+                    "edu.nyu.vida.data_polygamy.utils.SpatialArtifacts", options, true);
+            System.exit(0);
+        }
+
+        boolean s3 = cmd.hasOption("s3");
+        String s3bucket = "";
+        Configuration conf = new Configuration();
+        FileSystem fs;
+
+        if (s3) {
+            if ((!cmd.hasOption("aws_id")) || (!cmd.hasOption("aws_key")) ||
+                    (!cmd.hasOption("b"))) {
+                System.out.println("Arguments 'aws_id', 'aws_key', and 'b'"
+                        + " are mandatory if execution is on AWS.");
+                formatter.printHelp("hadoop jar data-polygamy.jar " +
+                        "edu.nyu.vida.data_polygamy.utils.SpatialArtifacts", options, true);
+                System.exit(0);
+            }
+            s3bucket = cmd.getOptionValue("b");
+            conf.set("fs.s3.awsAccessKeyId", cmd.getOptionValue("aws_id"));
+            conf.set("fs.s3.awsSecretAccessKey", cmd.getOptionValue("aws_key"));
+            fs = FileSystem.get(new Path(s3bucket).toUri(), conf);
+        } else {
+            fs = FileSystem.get(conf);
+        }
+
+        ArrayList<String> names = new ArrayList<String>(Arrays.asList(polygonFiles));
+        FileStatus[] grids = fs.globStatus(new Path(s3bucket + gridPolygonFiles));
+        if (grids != null) {
+            for (FileStatus grid : grids) {
+                if (!grid.getPath().getName().endsWith(SUFFIX))
+                    names.add(grid.getPath().getName());
+            }
+        }
+        for (String name : names) {
+            if (fs.exists(new Path(s3bucket + name)))
+                compileRegions(fs, s3bucket, name);
+        }
+        for (String name : graphFiles) {
+            if (fs.exists(new Path(s3bucket + name)))
+                compileGraph(fs, s3bucket, name);
+        }
+        for (String[] table : tableFiles) {
+            if (fs.exists(new Path(s3bucket + table[1])) && fs.exists(new Path(s3bucket + table[2])))
+                compileTable(fs, s3bucket, table[0], table[1], table[2]);
+        }
+    }
+}
@@ -7,11 +7,10 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayDeque;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Queue;
 import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
@@ -20,14 +19,46 @@ import org.apache.hadoop.fs.Path;
 
 public class SpatialGraph {
     
-    private ArrayList<ArrayList<Integer>> adjacencyList = new ArrayList<ArrayList<Integer>>();
-    private ArrayList<ArrayList<Integer>> bfsLevelArray = new ArrayList<ArrayList<Integer>>();
+    // adjacency in CSR format: neighbors of node i are
+    //  adjacency[adjacencyStart[i]] ... adjacency[adjacencyStart[i+1]-1]
+    private int[] adjacencyStart = new int[1];
+    private int[] adjacency = new int[0];
+    // main BFS: nodes of level l are
+    //  bfsOrder[levelStart[l]] ... bfsOrder[levelStart[l+1]-1]
+    private int[] bfsOrder = new int[0];
+    private int[] levelStart = new int[1];
     private Random random = new Random();
     private int mainOriginNode = 0;
     private int nbNodes = 0;
+    
+    /**
+     * Scratch space for generating random shifts, so that no memory is
+     *   allocated per repetition; each thread must use its own workspace.
+     */
+    public static class Workspace {
+        int[] queue = new int[0];
+        int[] level = new int[0];
+        int[] seen = new int[0];
+        int[] leftNodes = new int[0];
+        int[] order = new int[0];
+        int[] levelFill = new int[0];
+        
+        void ensureCapacity(int nbNodes, int nbLevels) {
+            if (queue.length < nbNodes) {
+                queue = new int[nbNodes];
+                level = new int[nbNodes];
+                seen = new int[nbNodes];
+                leftNodes = new int[nbNodes];
+                order = new int[nbNodes];
+            }
+            if (levelFill.length < nbLevels)
+                levelFill = new int[nbLevels];
+        }
+    }
 
     public void init(String nodeFile, String edgeFile) throws IOException {
     	
+        ArrayList<ArrayList<Integer>> adjacencyList = new ArrayList<ArrayList<Integer>>();
         BufferedReader buff = new BufferedReader(new FileReader(nodeFile));
         
         String line = buff.readLine();
@@ -77,8 +108,10 @@ public class SpatialGraph {
         }
         buff.close();
         
-        // main BFS - choose random node
-        mainOriginNode = random.nextInt(nbNodes); 
+        buildAdjacency(adjacencyList);
+        
+        // main BFS
+        mainOriginNode = mainOrigin(nbNodes);
         bfs(mainOriginNode);
         
     }
@@ -87,24 +120,24 @@ public class SpatialGraph {
     public void init(int resolution, Configuration conf) throws IOException {
     	
     	String bucket = conf.get("bucket", "");
+    	String name = graphFile(resolution);
     	Path edgesPath = null;
     	FileSystem fs = null;
         
         // reading edges
-    	switch (resolution) {
+    	edgesPath = new Path(bucket + name);
     	
-    	case FrameworkUtils.NBHD:
-    	    edgesPath = new Path(bucket + "neighborhood-graph");
-    	    break;
-    	case FrameworkUtils.ZIP:
-    	    edgesPath = new Path(bucket + "zipcode-graph");
-    	    break;
-    	case FrameworkUtils.BLOCK:
-            edgesPath = new Path(bucket + "block-graph");
-            break;
-        default:
-            edgesPath = new Path(bucket + "zipcode-graph");
-            break;
+    	ByteBuffer artifact = SpatialArtifacts.open(name, SpatialArtifacts.GRAPH);
+    	if (artifact != null) {
+    	    SpatialArtifacts.Graph graph = SpatialArtifacts.readGraph(artifact);
+    	    nbNodes = graph.nbNodes;
+    	    adjacencyStart = graph.adjacencyStart;
+    	    adjacency = graph.adjacency;
+    	    
+    	    // main BFS
+    	    mainOriginNode = mainOrigin(nbNodes);
+    	    bfs(mainOriginNode);
+    	    return;
     	}
         
         if (!bucket.equals(""))
@@ -118,6 +151,7 @@ public class SpatialGraph {
         String [] s = Utilities.splitString(line.trim());
         nbNodes = Integer.parseInt(s[0].trim());
         
+        ArrayList<ArrayList<Integer>> adjacencyList = new ArrayList<ArrayList<Integer>>();
         for (int i = 0; i < nbNodes; i++) {
             // assuming that neighborhoods and zip codes are read in order
             //  and the same ids are present in the edges file
@@ -146,15 +180,67 @@ public class SpatialGraph {
         buff.close();
         fs.close();
         
-        // main BFS - choose random node
-        mainOriginNode = random.nextInt(nbNodes); 
+        buildAdjacency(adjacencyList);
+        
+        // main BFS
+        mainOriginNode = mainOrigin(nbNodes);
         bfs(mainOriginNode);
         
     }
     
+    /**
+     * Origin of the main BFS: a random node, but always the same one for a
+     *   given graph, so that shifts generated from a seeded random number
+     *   generator are reproducible across tasks and runs.
+     */
+    private static int mainOrigin(int nbNodes) {
+        return new Random(nbNodes).nextInt(nbNodes);
+    }
+    
+    private static String graphFile(int resolution) {
+        switch (resolution) {
+        case FrameworkUtils.NBHD:
+            return "neighborhood-graph";
+        case FrameworkUtils.ZIP:
+            return "zipcode-graph";
+        case FrameworkUtils.BLOCK:
+            return "block-graph";
+        default:
+            return "zipcode-graph";
+        }
+    }
+    
+    private static String resourceKey(int resolution, Configuration conf) {
+        return SpatialResources.key(conf.get("bucket", "") + graphFile(resolution), "graph");
+    }
+    
+    /**
+     * Graph of the resolution shared by the tasks of the JVM (see
+     *   SpatialResources), to be copied with init(SpatialGraph) and
+     *   released after use.
+     */
+    public static SpatialGraph acquire(final int resolution, final Configuration conf) throws IOException {
+        return SpatialResources.acquire(resourceKey(resolution, conf),
+                new SpatialResources.Loader<SpatialGraph>() {
+            @Override
+            public SpatialGraph load() throws IOException {
+                SpatialGraph graph = new SpatialGraph();
+                graph.init(resolution, conf);
+                return graph;
+            }
+        });
+    }
+    
+    public static void release(int resolution, Configuration conf) {
+        SpatialResources.release(resourceKey(resolution, conf));
+    }
+    
     public void init(SpatialGraph graph) {
-        this.adjacencyList = new ArrayList<ArrayList<Integer>>(graph.getAdjacencyList());
-        this.bfsLevelArray = new ArrayList<ArrayList<Integer>>(graph.getBfsLevelArray());
+        // arrays are never modified after loading, so they can be shared
+        this.adjacencyStart = graph.adjacencyStart;
+        this.adjacency = graph.adjacency;
+        this.bfsOrder = graph.bfsOrder;
+        this.levelStart = graph.levelStart;
         this.nbNodes = graph.nbNodes();
         this.mainOriginNode = graph.getMainOriginNode();
     }
@@ -163,137 +249,148 @@ public class SpatialGraph {
         return nbNodes;
     }
     
-    public ArrayList<ArrayList<Integer>> getAdjacencyList() {
-        return adjacencyList;
-    }
-
-    public ArrayList<ArrayList<Integer>> getBfsLevelArray() {
-        return bfsLevelArray;
+    public int nbLevels() {
+        return levelStart.length - 1;
     }
 
     public int getMainOriginNode() {
         return mainOriginNode;
     }
     
+    private void buildAdjacency(ArrayList<ArrayList<Integer>> adjacencyList) {
+        adjacencyStart = new int[nbNodes + 1];
+        for (int i = 0; i < nbNodes; i++)
+            adjacencyStart[i + 1] = adjacencyStart[i] + adjacencyList.get(i).size();
+        adjacency = new int[adjacencyStart[nbNodes]];
+        for (int i = 0; i < nbNodes; i++) {
+            ArrayList<Integer> elem = adjacencyList.get(i);
+            for (int j = 0; j < elem.size(); j++)
+                adjacency[adjacencyStart[i] + j] = elem.get(j);
+        }
+    }
+    
     private void bfs(int node) {
         
-        Queue<Integer> queue = new ArrayDeque<Integer>();
-        HashSet<Integer> seen = new HashSet<Integer>();
-        HashMap<Integer,Integer> level = new HashMap<Integer,Integer>();
+        int[] level = new int[nbNodes];
+        boolean[] seen = new boolean[nbNodes];
+        bfsOrder = new int[nbNodes];
         
-        queue.add(node);
-        level.put(node, 0);
-        seen.add(node);
-        ArrayList<Integer> elem;
-        while (!queue.isEmpty()) {
+        // nodes are dequeued in level order, so the queue
+        //  itself is the BFS order
+        int head = 0;
+        int tail = 0;
+        bfsOrder[tail++] = node;
+        level[node] = 0;
+        seen[node] = true;
+        int nbLevels = 0;
+        while (head < tail) {
             // current node
-            int currentNode = queue.poll();
+            int currentNode = bfsOrder[head++];
             
             // level of current node
-            int nodeLevel = level.get(currentNode);
-            
-            // update the array of levels
-            if (bfsLevelArray.size() == nodeLevel)
-                bfsLevelArray.add(new ArrayList<Integer>());
-            elem = bfsLevelArray.get(nodeLevel);
-            elem.add(currentNode);
-            bfsLevelArray.set(nodeLevel, elem);
+            int nodeLevel = level[currentNode];
+            nbLevels = Math.max(nbLevels, nodeLevel + 1);
             
-            for (Integer neighbor: adjacencyList.get(currentNode)) {
-                if (!seen.contains(neighbor)) {
-                    queue.add(neighbor);
-                    seen.add(neighbor);
-                    level.put(neighbor, nodeLevel + 1);
+            for (int k = adjacencyStart[currentNode]; k < adjacencyStart[currentNode + 1]; k++) {
+                int neighbor = adjacency[k];
+                if (!seen[neighbor]) {
+                    bfsOrder[tail++] = neighbor;
+                    seen[neighbor] = true;
+                    level[neighbor] = nodeLevel + 1;
                 }
             }
         }
         
+        // nodes not reachable from the origin are not part of the BFS
+        bfsOrder = Arrays.copyOf(bfsOrder, tail);
+        levelStart = new int[nbLevels + 1];
+        for (int i = 0; i < tail; i++)
+            levelStart[level[bfsOrder[i]] + 1]++;
+        for (int l = 0; l < nbLevels; l++)
+            levelStart[l + 1] += levelStart[l];
     }
     
-    private ArrayList<ArrayList<Integer>> randomBFS() {
+    /**
+     * Random BFS with the same level structure as the main one:
+     *   fills ws.order so that the nodes of level l are
+     *   ws.order[levelStart[l]] ... ws.order[levelStart[l+1]-1].
+     */
+    private void randomBFS(Random random, Workspace ws) {
         
-        int origin = random.nextInt(nbNodes);
-        
-        Queue<Integer> queue = new ArrayDeque<Integer>();
-        int[] seen = new int[nbNodes];
+        int nbLevels = nbLevels();
+        ws.ensureCapacity(nbNodes, nbLevels);
+        int[] queue = ws.queue;
+        int[] level = ws.level;
+        int[] seen = ws.seen;
+        int[] leftNodes = ws.leftNodes;
+        int[] order = ws.order;
+        int[] levelFill = ws.levelFill;
         
-        ArrayList<ArrayList<Integer>> randomBFSLevelArray = new ArrayList<ArrayList<Integer>>();
-        HashMap<Integer,Integer> level = new HashMap<Integer,Integer>();
+        int origin = random.nextInt(nbNodes);
         
-        int[] leftNodes = new int[nbNodes];
         for (int i = 0; i < nbNodes; i++) {
             seen[i] = 0;
             leftNodes[i] = 1;
         }
+        for (int l = 0; l < nbLevels; l++)
+            levelFill[l] = 0;
         
         // running BFS
         
-        queue.add(origin);
-        level.put(origin, 0);
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = origin;
+        level[origin] = 0;
         seen[origin] = 1;
-        ArrayList<Integer> elem;
-        int currentLevel = -1;
-        int count = 0;
-        while (!queue.isEmpty()) {
+        while (head < tail) {
             // current node
-            int currentNode = queue.poll();
+            int currentNode = queue[head++];
             
             // node level
-            int nodeLevel = level.get(currentNode);
+            int nodeLevel = level[currentNode];
+            if (nodeLevel == nbLevels)
+                break;
             
-            // current level
-            if (nodeLevel > currentLevel) {
-                currentLevel = nodeLevel;
-                if (bfsLevelArray.size() == currentLevel)
-                    break;
-                count = 1;
-                randomBFSLevelArray.add(new ArrayList<Integer>());
-            } else {
-                // guaranteeing that the random BFS will have the same structure as the main one
-                count++;
-                if (count > bfsLevelArray.get(currentLevel).size())
-                    continue;
-            }
+            // guaranteeing that the random BFS will have the same structure as the main one
+            int sizeLevel = levelStart[nodeLevel + 1] - levelStart[nodeLevel];
+            if (levelFill[nodeLevel] == sizeLevel)
+                continue;
             
-            elem = randomBFSLevelArray.get(currentLevel);
-            elem.add(currentNode);
-            randomBFSLevelArray.set(currentLevel, elem);
+            order[levelStart[nodeLevel] + levelFill[nodeLevel]++] = currentNode;
             leftNodes[currentNode] = 0;
             
             int nextLevel = nodeLevel + 1;
-            if (bfsLevelArray.size() == nextLevel)
+            if (nbLevels == nextLevel)
                 continue;
-            int sizeOriginalNextLevel = bfsLevelArray.get(nextLevel).size();
+            int sizeOriginalNextLevel = levelStart[nextLevel + 1] - levelStart[nextLevel];
             int nodesCount = 0;
-            for (Integer neighbor: adjacencyList.get(currentNode)) {
+            for (int k = adjacencyStart[currentNode]; k < adjacencyStart[currentNode + 1]; k++) {
+                int neighbor = adjacency[k];
                 if (seen[neighbor] == 0) {
                     if (++nodesCount > sizeOriginalNextLevel)
                         break;
-                    queue.add(neighbor);
+                    queue[tail++] = neighbor;
                     seen[neighbor] = 1;
-                    level.put(neighbor, nextLevel);
+                    level[neighbor] = nextLevel;
                 }
             }
         }
         
         // filling the gaps
         
-        for (int i = 0; i < bfsLevelArray.size(); i++) {
-            if (i+1 > randomBFSLevelArray.size())
-                randomBFSLevelArray.add(new ArrayList<Integer>());
-            
-            elem = randomBFSLevelArray.get(i);
-            int sizeOriginalElem = bfsLevelArray.get(i).size();
-            int diff = sizeOriginalElem - elem.size();
+        for (int i = 0; i < nbLevels; i++) {
+            int diff = (levelStart[i + 1] - levelStart[i]) - levelFill[i];
             for (int j = 0; j < diff; j++) {
                 // start looking for neighbors in the previous level,
                 // and keep going down in the tree to find neighbors
                 int bfsIndex = i - 1;
-                Integer node = 0;
+                int node = 0;
                 boolean found = false;
                 while (!found) {
-                    for (Integer nbhd: randomBFSLevelArray.get(bfsIndex)) {
-                        for (Integer neighbor: adjacencyList.get(nbhd)) {
+                    for (int n = levelStart[bfsIndex]; n < levelStart[bfsIndex] + levelFill[bfsIndex]; n++) {
+                        int nbhd = order[n];
+                        for (int k = adjacencyStart[nbhd]; k < adjacencyStart[nbhd + 1]; k++) {
+                            int neighbor = adjacency[k];
                             if (leftNodes[neighbor] == 1) {
                                 leftNodes[neighbor] = 0;
                                 node = neighbor;
@@ -304,37 +401,50 @@ public class SpatialGraph {
                         if (found) break;
                     }
                     bfsIndex++;
-                    if (bfsIndex == randomBFSLevelArray.size()) {
+                    if (bfsIndex == nbLevels) {
                         bfsIndex = 0;
                     }
                 }
-                elem.add(node);
+                order[levelStart[i] + levelFill[i]++] = node;
             }
-            randomBFSLevelArray.set(i, elem);
         }
         
-        return randomBFSLevelArray;
+    }
+    
+    /**
+     * Fills mapping (of size at least nbNodes) with a random shift:
+     *   node i of the main BFS is paired with node mapping[i] of a
+     *   random BFS; nodes outside the main BFS are mapped to -1.
+     * No memory is allocated, so different threads can generate shifts
+     *   at the same time using their own random number generators
+     *   and workspaces.
+     */
+    public void generateRandomShift(Random random, Workspace ws, int[] mapping) {
+        
+        randomBFS(random, ws);
         
+        for (int i = 0; i < nbNodes; i++)
+            mapping[i] = -1;
+        for (int i = 0; i < bfsOrder.length; i++)
+            mapping[bfsOrder[i]] = ws.order[i];
     }
     
     public ArrayList<Integer[]> generateRandomShift() {
+        return generateRandomShift(random);
+    }
+    
+    public ArrayList<Integer[]> generateRandomShift(Random random) {
         
-        ArrayList<Integer[]> result = new ArrayList<Integer[]>();
+        Workspace ws = new Workspace();
+        int[] mapping = new int[nbNodes];
+        generateRandomShift(random, ws, mapping);
         
-        ArrayList<ArrayList<Integer>> randomBFS = this.randomBFS();
-        ArrayList<Integer> elem;
-        ArrayList<Integer> randomElem;
-        for (int i = 0; i < bfsLevelArray.size(); i++) {
-            elem = bfsLevelArray.get(i);
-            randomElem = randomBFS.get(i);
-            if (elem.size() != randomElem.size())
-                System.out.println("Something is wrong...");
-            for (int j = 0; j < elem.size(); j++) {
-                Integer[] pair = new Integer[2];
-                pair[0] = elem.get(j);
-                pair[1] = randomElem.get(j);
-                result.add(pair);
-            }
+        ArrayList<Integer[]> result = new ArrayList<Integer[]>();
+        for (int i = 0; i < bfsOrder.length; i++) {
+            Integer[] pair = new Integer[2];
+            pair[0] = bfsOrder[i];
+            pair[1] = mapping[bfsOrder[i]];
+            result.add(pair);
         }
         
         return result;
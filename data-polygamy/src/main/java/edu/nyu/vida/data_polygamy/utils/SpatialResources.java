@@ -0,0 +1,96 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Spatial data loaded from the spatial files (translators of spatial
+ *   resolutions and graphs), shared by all the tasks of a JVM (with JVM
+ *   reuse or uber tasks) and by the threads of a task.
+ *
+ * Resources are keyed by their file and resolution (see key), loaded on
+ *   first use, and reference-counted: every acquire must be followed by a
+ *   release once the resource is no longer used. Resources that are no
+ *   longer used are kept for the next tasks, up to MAX_IDLE of them (the
+ *   least recently used ones are dropped first).
+ *
+ * Shared resources must not be modified after they are loaded.
+ */
+public class SpatialResources {
+
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    static final int MAX_IDLE = 4;
+
+    static class Entry {
+        Object value = null;
+        int references = 0;
+    }
+
+    // entries, from the least to the most recently used
+    private static final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    public static String key(String file, String resolution) {
+        return file + "#" + resolution;
+    }
+
+    /**
+     * Resource of the given key, loaded with loader if no other task or
+     *   thread loaded it yet.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T acquire(String key, Loader<T> loader) throws IOException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.references++;
+        }
+
+        // (other resources can be acquired while this one is loaded)
+        synchronized (entry) {
+            if (entry.value == null) {
+                try {
+                    entry.value = loader.load();
+                } finally {
+                    if (entry.value == null)
+                        release(key);
+                }
+            }
+            return (T) entry.value;
+        }
+    }
+
+    public static void release(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if ((entry == null) || (entry.references == 0))
+                return;
+            entry.references--;
+
+            int idle = 0;
+            for (Entry e : entries.values()) {
+                if (e.references == 0)
+                    idle++;
+            }
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while ((idle > MAX_IDLE) && it.hasNext()) {
+                if (it.next().getValue().references == 0) {
+                    it.remove();
+                    idle--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright (C) 2016 New York University
+   This file is part of Data Polygamy which is released under the Revised BSD License
+   See file LICENSE for full license details. */
+package edu.nyu.vida.data_polygamy.utils;
+
+import java.util.Random;
+
+/**
+ * Random spatial permutations used by the Monte Carlo tests.
+ *
+ * All of them fill a region -> permuted region mapping given by the
+ *   caller (region i of the first dataset is compared with region
+ *   mapping[i] of the second one, and -1 means no comparison), so that
+ *   no memory is allocated per repetition. See also
+ *   SpatialGraph.generateRandomShift for the BFS-based shift.
+ */
+public final class SpatialShifts {
+
+    private SpatialShifts() {}
+
+    /**
+     * Complete randomization: mapping is a random permutation of
+     *   [0, size); perm is scratch space of at least the same size.
+     */
+    public static void completeRandom(Random random, int size, int[] perm, int[] mapping) {
+        for (int k = 0; k < size; k++)
+            perm[k] = k;
+        // same swaps as Collections.shuffle
+        for (int i = size; i > 1; i--) {
+            int j = random.nextInt(i);
+            int tmp = perm[i-1];
+            perm[i-1] = perm[j];
+            perm[j] = tmp;
+        }
+        for (int k = 0; k < size; k++)
+            mapping[perm[k]] = k;
+    }
+
+    /**
+     * Toroidal shift of a gridSide x gridSide grid, where cell (i, j)
+     *   is region j * gridSide + i: all the gridSide * gridSide regions
+     *   are mapped, each one to a different region.
+     */
+    public static void toroidalShift(Random random, int gridSide, int[] mapping) {
+        int x = random.nextInt(gridSide);
+        int y = random.nextInt(gridSide);
+
+        for (int j = 0; j < gridSide; j++) {
+            int row = ((y + j) % gridSide) * gridSide;
+            for (int i = 0; i < gridSide; i++)
+                mapping[j * gridSide + i] = row + ((x + i) % gridSide);
+        }
+    }
+
+    /**
+     * Side of the square grid with the given number of regions,
+     *   or -1 if the number of regions is not a square.
+     */
+    public static int gridSide(int size) {
+        int side = (int) Math.round(Math.sqrt(size));
+        return (side * side == size) ? side : -1;
+    }
+}